@@ -0,0 +1,52 @@
+/*
+ * Copyright 2015 Rhythm & Hues Studios.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rhythm.louie.compression;
+
+import java.io.IOException;
+
+/**
+ * A block compression algorithm, applied to each chunk of a compressed response
+ *
+ * @author cjohnson
+ */
+public interface Codec {
+    
+    /**
+     * @return the name the codec is negotiated by
+     */
+    String getName();
+    
+    /**
+     * @param src the bytes to compress
+     * @param off the offset of the first byte
+     * @param len the number of bytes to compress
+     * @return the compressed bytes
+     * @throws IOException 
+     */
+    byte[] compress(byte[] src, int off, int len) throws IOException;
+    
+    /**
+     * Decompresses a block produced by compress
+     * 
+     * @param src the compressed bytes
+     * @param off the offset of the first compressed byte
+     * @param len the number of compressed bytes
+     * @param dest where the decompressed bytes are written, starting at 0
+     * @param destLen the exact decompressed length
+     * @throws IOException if the block is malformed
+     */
+    void decompress(byte[] src, int off, int len, byte[] dest, int destLen) throws IOException;
+}
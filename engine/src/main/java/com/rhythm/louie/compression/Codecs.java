@@ -0,0 +1,69 @@
+/*
+ * Copyright 2015 Rhythm & Hues Studios.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rhythm.louie.compression;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * The codecs available for compressing responses
+ *
+ * @author cjohnson
+ */
+public class Codecs {
+    private static final Map<String, Codec> codecs;
+    static {
+        Map<String, Codec> map = new LinkedHashMap<>();
+        map.put(LZ4Codec.NAME, new LZ4Codec());
+        map.put(GzipCodec.NAME, new GzipCodec());
+        codecs = Collections.unmodifiableMap(map);
+    }
+    
+    private Codecs() {}
+    
+    /**
+     * @return the names of every supported codec, fastest first
+     */
+    public static List<String> getNames() {
+        return ImmutableList.copyOf(codecs.keySet());
+    }
+    
+    /**
+     * @param name the name of the codec
+     * @return the codec, or null if not supported
+     */
+    public static Codec forName(String name) {
+        return name == null ? null : codecs.get(name.toLowerCase());
+    }
+    
+    /**
+     * @param accepted codec names in the order the client prefers them
+     * @return the first accepted codec that is supported, or null if none are
+     */
+    public static Codec negotiate(List<String> accepted) {
+        for (String name : accepted) {
+            Codec codec = forName(name);
+            if (codec != null) {
+                return codec;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2015 Rhythm & Hues Studios.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rhythm.louie.compression;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the chunks written by a CompressedOutputStream, decompressing one chunk
+ * at a time. Reports end of stream at the end marker, leaving the underlying
+ * stream positioned just past it.
+ *
+ * @author cjohnson
+ */
+public class CompressedInputStream extends InputStream {
+    // Guards against a corrupt length, well above what the writer produces
+    private static final int MAX_CHUNK_SIZE = 16 << 20;
+    
+    private final InputStream input;
+    private final Codec codec;
+    private byte[] chunk = new byte[0];
+    private byte[] compressed = new byte[0];
+    private int pos = 0;
+    private int limit = 0;
+    private boolean ended = false;
+    
+    public CompressedInputStream(InputStream input, Codec codec) {
+        this.input = input;
+        this.codec = codec;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return chunk[pos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int n = Math.min(len, limit - pos);
+        System.arraycopy(chunk, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return limit - pos;
+    }
+    
+    /**
+     * Skips anything left unread through the end marker
+     * 
+     * @throws IOException 
+     */
+    public void finish() throws IOException {
+        while (!ended) {
+            pos = limit;
+            readChunk();
+        }
+    }
+
+    /**
+     * Does not close the underlying stream, which may carry further responses
+     */
+    @Override
+    public void close() throws IOException {
+        finish();
+    }
+    
+    private boolean fill() throws IOException {
+        while (pos == limit) {
+            if (ended) {
+                return false;
+            }
+            readChunk();
+        }
+        return true;
+    }
+    
+    private void readChunk() throws IOException {
+        int rawLength = readVarint();
+        if (rawLength == 0) {
+            ended = true;
+            pos = limit = 0;
+            return;
+        }
+        int compressedLength = readVarint();
+        if (rawLength < 0 || rawLength > MAX_CHUNK_SIZE 
+                || compressedLength <= 0 || compressedLength > rawLength) {
+            throw new IOException("Corrupt compressed chunk: "+compressedLength+"/"+rawLength);
+        }
+        if (chunk.length < rawLength) {
+            chunk = new byte[rawLength];
+        }
+        if (compressedLength == rawLength) {
+            readFully(chunk, rawLength);
+        } else {
+            if (compressed.length < compressedLength) {
+                compressed = new byte[compressedLength];
+            }
+            readFully(compressed, compressedLength);
+            codec.decompress(compressed, 0, compressedLength, chunk, rawLength);
+        }
+        pos = 0;
+        limit = rawLength;
+    }
+    
+    private void readFully(byte[] b, int len) throws IOException {
+        int off = 0;
+        while (off < len) {
+            int n = input.read(b, off, len - off);
+            if (n < 0) {
+                throw new EOFException("Compressed stream ended mid chunk");
+            }
+            off += n;
+        }
+    }
+    
+    private int readVarint() throws IOException {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = input.read();
+            if (b < 0) {
+                throw new EOFException("Compressed stream ended without an end marker");
+            }
+            result |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("Malformed varint in compressed stream");
+    }
+}
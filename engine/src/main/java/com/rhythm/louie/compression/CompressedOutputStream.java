@@ -0,0 +1,120 @@
+/*
+ * Copyright 2015 Rhythm & Hues Studios.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rhythm.louie.compression;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Compresses everything written to it as a series of chunks, each preceded by
+ * its raw and compressed lengths as varints. A chunk that does not compress is
+ * stored as is, with both lengths equal. An empty chunk ends the stream.
+ * 
+ * A chunk is cut whenever the buffer fills or the stream is flushed, so the
+ * reader can decode a streaming response as it arrives.
+ *
+ * @author cjohnson
+ */
+public class CompressedOutputStream extends OutputStream {
+    public static final int CHUNK_SIZE = 64 * 1024;
+    
+    private final OutputStream output;
+    private final Codec codec;
+    private final byte[] buffer;
+    private int count = 0;
+    private boolean finished = false;
+    
+    public CompressedOutputStream(OutputStream output, Codec codec) {
+        this.output = output;
+        this.codec = codec;
+        this.buffer = new byte[CHUNK_SIZE];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (count == buffer.length) {
+            writeChunk();
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (count == buffer.length) {
+                writeChunk();
+            }
+            int n = Math.min(len, buffer.length - count);
+            System.arraycopy(b, off, buffer, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writeChunk();
+        output.flush();
+    }
+    
+    /**
+     * Writes any buffered bytes and the end of stream marker, the underlying
+     * stream is neither flushed nor closed
+     * 
+     * @throws IOException 
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        writeChunk();
+        writeVarint(0);
+        finished = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+    }
+    
+    private void writeChunk() throws IOException {
+        if (count == 0) {
+            return;
+        }
+        if (finished) {
+            throw new IOException("Compressed stream already finished");
+        }
+        byte[] compressed = codec.compress(buffer, 0, count);
+        writeVarint(count);
+        if (compressed.length < count) {
+            writeVarint(compressed.length);
+            output.write(compressed);
+        } else {
+            writeVarint(count);
+            output.write(buffer, 0, count);
+        }
+        count = 0;
+    }
+    
+    private void writeVarint(int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            output.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.write(value);
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2015 Rhythm & Hues Studios.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rhythm.louie.compression;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzip, slower than LZ4 but a better ratio
+ *
+ * @author cjohnson
+ */
+public class GzipCodec implements Codec {
+    public static final String NAME = "gzip";
+    
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] compress(byte[] src, int off, int len) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(len / 2 + 32);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bytes, 8192)) {
+            gzip.write(src, off, len);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public void decompress(byte[] src, int off, int len, byte[] dest, int destLen) throws IOException {
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(src, off, len), 8192)) {
+            int read = 0;
+            while (read < destLen) {
+                int n = gzip.read(dest, read, destLen - read);
+                if (n < 0) {
+                    throw new IOException("Gzip block shorter than expected: "+read+" of "+destLen);
+                }
+                read += n;
+            }
+            if (gzip.read() >= 0) {
+                throw new IOException("Gzip block longer than expected: "+destLen);
+            }
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2015 Rhythm & Hues Studios.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rhythm.louie.compression;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A pure java implementation of the LZ4 block format. Trades ratio for speed, 
+ * a greedy single probe match finder keeps compression cheap enough to apply 
+ * to every large response.
+ *
+ * @author cjohnson
+ */
+public class LZ4Codec implements Codec {
+    public static final String NAME = "lz4";
+    
+    private static final int MIN_MATCH = 4;
+    private static final int HASH_LOG = 12;
+    private static final int MAX_DISTANCE = 0xFFFF;
+    // The last match must start this far before the end of the input
+    private static final int MF_LIMIT = 12;
+    // The final bytes of the input are always literals
+    private static final int LAST_LITERALS = 5;
+    private static final int SKIP_TRIGGER = 6;
+    
+    private static final ThreadLocal<int[]> hashTables = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1 << HASH_LOG];
+        }
+    };
+    
+    @Override
+    public String getName() {
+        return NAME;
+    }
+    
+    public static int maxCompressedLength(int len) {
+        return len + len / 255 + 16;
+    }
+    
+    @Override
+    public byte[] compress(byte[] src, int off, int len) throws IOException {
+        byte[] dest = new byte[maxCompressedLength(len)];
+        int end = off + len;
+        int anchor = off;
+        int d = 0;
+        
+        if (len > MF_LIMIT) {
+            int[] table = hashTables.get();
+            Arrays.fill(table, -1);
+            int mfLimit = end - MF_LIMIT;
+            int matchLimit = end - LAST_LITERALS;
+            
+            int s = off;
+            while (s < mfLimit) {
+                int seq = readInt(src, s);
+                int h = hash(seq);
+                int ref = table[h];
+                table[h] = s;
+                if (ref < 0 || s - ref > MAX_DISTANCE || readInt(src, ref) != seq) {
+                    // Step faster through data that is not matching
+                    s += 1 + ((s - anchor) >>> SKIP_TRIGGER);
+                    continue;
+                }
+                
+                int matchLen = MIN_MATCH;
+                while (s + matchLen < matchLimit && src[ref + matchLen] == src[s + matchLen]) {
+                    matchLen++;
+                }
+                
+                d = writeSequence(dest, d, src, anchor, s - anchor, s - ref, matchLen);
+                s += matchLen;
+                anchor = s;
+            }
+        }
+        
+        d = writeLastLiterals(dest, d, src, anchor, end - anchor);
+        return Arrays.copyOf(dest, d);
+    }
+    
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF) << 16 | (b[i + 3] & 0xFF) << 24;
+    }
+    
+    private static int hash(int seq) {
+        return (seq * -1640531535) >>> (32 - HASH_LOG);
+    }
+    
+    private static int writeSequence(byte[] dest, int d, byte[] src, int anchor, 
+            int litLen, int offset, int matchLen) {
+        int ml = matchLen - MIN_MATCH;
+        dest[d++] = (byte) (Math.min(litLen, 15) << 4 | Math.min(ml, 15));
+        if (litLen >= 15) {
+            d = writeLength(dest, d, litLen - 15);
+        }
+        System.arraycopy(src, anchor, dest, d, litLen);
+        d += litLen;
+        dest[d++] = (byte) offset;
+        dest[d++] = (byte) (offset >>> 8);
+        if (ml >= 15) {
+            d = writeLength(dest, d, ml - 15);
+        }
+        return d;
+    }
+    
+    private static int writeLastLiterals(byte[] dest, int d, byte[] src, int anchor, int litLen) {
+        dest[d++] = (byte) (Math.min(litLen, 15) << 4);
+        if (litLen >= 15) {
+            d = writeLength(dest, d, litLen - 15);
+        }
+        System.arraycopy(src, anchor, dest, d, litLen);
+        return d + litLen;
+    }
+    
+    private static int writeLength(byte[] dest, int d, int len) {
+        while (len >= 255) {
+            dest[d++] = (byte) 255;
+            len -= 255;
+        }
+        dest[d++] = (byte) len;
+        return d;
+    }
+    
+    @Override
+    public void decompress(byte[] src, int off, int len, byte[] dest, int destLen) throws IOException {
+        int s = off;
+        int srcEnd = off + len;
+        int d = 0;
+        try {
+            while (true) {
+                int token = src[s++] & 0xFF;
+                
+                int litLen = token >>> 4;
+                if (litLen == 15) {
+                    int b;
+                    do {
+                        b = src[s++] & 0xFF;
+                        litLen += b;
+                    } while (b == 255);
+                }
+                if (s + litLen > srcEnd || d + litLen > destLen) {
+                    throw new IOException("Malformed LZ4 block, literals overrun");
+                }
+                System.arraycopy(src, s, dest, d, litLen);
+                s += litLen;
+                d += litLen;
+                if (s == srcEnd) {
+                    break;
+                }
+                
+                int offset = (src[s++] & 0xFF) | (src[s++] & 0xFF) << 8;
+                int matchLen = token & 0x0F;
+                if (matchLen == 15) {
+                    int b;
+                    do {
+                        b = src[s++] & 0xFF;
+                        matchLen += b;
+                    } while (b == 255);
+                }
+                matchLen += MIN_MATCH;
+                
+                int ref = d - offset;
+                if (offset == 0 || ref < 0 || d + matchLen > destLen) {
+                    throw new IOException("Malformed LZ4 block, bad match");
+                }
+                if (offset >= matchLen) {
+                    System.arraycopy(dest, ref, dest, d, matchLen);
+                    d += matchLen;
+                } else {
+                    // Overlapping, repeats the bytes just written
+                    for (int i = 0; i < matchLen; i++) {
+                        dest[d++] = dest[ref++];
+                    }
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException ex) {
+            throw new IOException("Malformed LZ4 block, truncated", ex);
+        }
+        if (d != destLen) {
+            throw new IOException("LZ4 block shorter than expected: "+d+" of "+destLen);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2015 Rhythm & Hues Studios.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rhythm.louie.connection;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.protobuf.Message;
+
+/**
+ * A connection that can send requests without a round trip each, either 
+ * asynchronously or together in a batch.  Kept apart from LouieConnection so
+ * existing implementations of it still compile; generated clients check for
+ * it, see LouieConnectionFactory.requestAsync and LouieConnectionFactory.request
+ * for how plain connections are handled.
+ *
+ * @author cjohnson
+ */
+public interface AsyncLouieConnection extends LouieConnection {
+    
+    /**
+     * Sends every request of a batch in one round trip
+     * 
+     * @param batch the requests
+     * @return the outcome of each request, in the order added to the batch
+     * @throws Exception if the batch as a whole could not be sent
+     */
+    BatchResponse request(BatchRequest batch) throws Exception;
+    
+    /**
+     * Sends a request without waiting on it, the consumer of the request has 
+     * received every message by the time the future completes
+     * 
+     * @param req the request
+     * @return the response, or the exception that request would have thrown
+     */
+    <T extends Message> ListenableFuture<Response> requestAsync(Request<T> req);
+    
+    /**
+     * Coalesces requests made by different threads at about the same time 
+     * into a single batch, each thread still receives just its own response
+     * 
+     * @param windowMillis how long the first request of a batch waits for 
+     * others to join, 0 to disable batching
+     * @param maxSize the most requests in a batch, it is sent as soon as full
+     */
+    void setBatching(int windowMillis, int maxSize);
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2015 Rhythm & Hues Studios.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rhythm.louie.connection;
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import com.rhythm.louie.server.ConnectionPoolProperties;
+
+/**
+ * The threads shared by every asynchronous client call.  Calls over the 
+ * socket transport only wait on its reader thread, which hands the response 
+ * here to be parsed.  Calls over http are run here on pooled connections, so
+ * the number of threads is fixed no matter how many calls are outstanding.
+ * 
+ * @author cjohnson
+ */
+public class AsyncRequestEngine {
+    private static ListeningExecutorService executor;
+    private static ScheduledExecutorService scheduler;
+    
+    private AsyncRequestEngine() {}
+    
+    static synchronized ListeningExecutorService getExecutor() {
+        if (executor == null) {
+            executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(
+                    ConnectionPoolProperties.getAsyncThreads(),
+                    new ThreadFactoryBuilder()
+                            .setNameFormat("louie-async-client-%d")
+                            .setDaemon(true)
+                            .build()));
+        }
+        return executor;
+    }
+    
+    private static synchronized ScheduledExecutorService getScheduler() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder()
+                            .setNameFormat("louie-async-timer-%d")
+                            .setDaemon(true)
+                            .build());
+        }
+        return scheduler;
+    }
+    
+    /**
+     * Runs a task on the shared executor after a delay, such as a retry
+     */
+    static void schedule(final Runnable task, long millis) {
+        getScheduler().schedule(new Runnable() {
+            @Override
+            public void run() {
+                getExecutor().execute(task);
+            }
+        }, millis, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Fails with a SocketTimeoutException if the future has not completed in 
+     * time, cancelling the original
+     * 
+     * @param future the future to wait on
+     * @param millis the time to wait
+     * @param remote where the response is coming from, for the error message
+     * @return a future that completes as the original or times out
+     */
+    static <V> ListenableFuture<V> withTimeout(final ListenableFuture<V> future, long millis, 
+            final String remote) {
+        final SettableFuture<V> result = SettableFuture.create();
+        final ScheduledFuture<?> timer = getScheduler().schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (result.setException(new SocketTimeoutException(
+                        "Timed out waiting for response from "+remote))) {
+                    future.cancel(false);
+                }
+            }
+        }, millis, TimeUnit.MILLISECONDS);
+        
+        Futures.addCallback(future, new FutureCallback<V>() {
+            @Override
+            public void onSuccess(V value) {
+                timer.cancel(false);
+                result.set(value);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                timer.cancel(false);
+                result.setException(t);
+            }
+        });
+        return result;
+    }
+    
+    public static synchronized void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2015 Rhythm & Hues Studios.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rhythm.louie.connection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.protobuf.Message;
+
+/**
+ * Requests, to any services, that are sent together in one round trip. The
+ * server runs them in parallel, and each response goes to the consumer of
+ * its own request.
+ * 
+ * @author cjohnson
+ */
+public class BatchRequest {
+    private final List<Request<? extends Message>> requests = new ArrayList<>();
+    private boolean anyOrder = false;
+    
+    public static BatchRequest newBatch() {
+        return new BatchRequest();
+    }
+    
+    public <T extends Message> BatchRequest add(Request<T> request) {
+        requests.add(request);
+        return this;
+    }
+    
+    /**
+     * Lets the server write each response as soon as its request completes,
+     * rather than in the order of the requests, so a slow request does not
+     * hold up the rest
+     * 
+     * @param anyOrder
+     * @return this
+     */
+    public BatchRequest setAnyOrder(boolean anyOrder) {
+        this.anyOrder = anyOrder;
+        return this;
+    }
+    
+    public boolean isAnyOrder() {
+        return anyOrder;
+    }
+    
+    public List<Request<? extends Message>> getRequests() {
+        return Collections.unmodifiableList(requests);
+    }
+    
+    public int size() {
+        return requests.size();
+    }
+    
+    public boolean isEmpty() {
+        return requests.isEmpty();
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2015 Rhythm & Hues Studios.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rhythm.louie.connection;
+
+/**
+ * The outcome of each request of a BatchRequest, in the order they were added.
+ * A request that failed does not fail the rest of the batch.
+ * 
+ * @author cjohnson
+ */
+public class BatchResponse {
+    private final Response[] responses;
+    private final Exception[] errors;
+    
+    BatchResponse(Response[] responses, Exception[] errors) {
+        this.responses = responses;
+        this.errors = errors;
+    }
+    
+    public int size() {
+        return responses.length;
+    }
+    
+    public boolean isSuccess(int index) {
+        return errors[index] == null;
+    }
+    
+    /**
+     * @return true if every request of the batch succeeded
+     */
+    public boolean isSuccess() {
+        for (Exception error : errors) {
+            if (error != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * @param index the index of the request in the batch
+     * @return the exception the request would have thrown if sent alone, 
+     * or null if it succeeded
+     */
+    public Exception getException(int index) {
+        return errors[index];
+    }
+    
+    /**
+     * @param index the index of the request in the batch
+     * @return the response to the request
+     * @throws Exception the exception the request would have thrown if sent alone
+     */
+    public Response getResponse(int index) throws Exception {
+        if (errors[index] != null) {
+            throw errors[index];
+        }
+        return responses[index];
+    }
+}
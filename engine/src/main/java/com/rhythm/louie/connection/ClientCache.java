@@ -0,0 +1,279 @@
+/*
+ * Copyright 2015 Rhythm & Hues Studios.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rhythm.louie.connection;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.MapMaker;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Message;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rhythm.louie.jms.MessageAction;
+import com.rhythm.louie.jms.MessageHandler;
+import com.rhythm.louie.jms.MessageManager;
+import com.rhythm.louie.jms.MessageProcessor;
+import com.rhythm.louie.request.data.Data;
+
+/**
+ * Remembers the results of a client's calls to a service, keyed by method, 
+ * argument types and the raw bytes of the arguments.  Results expire after a time to live, and 
+ * every cache of a service is cleared whenever that service sends a message 
+ * to its clients.
+ * 
+ * Nothing is cached until the service's messages are being listened to, 
+ * registering the listener is retried periodically until it succeeds.
+ *
+ * @author cjohnson
+ */
+public class ClientCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ClientCache.class);
+    
+    public static final int DEFAULT_SIZE = 1000;
+    public static final long DEFAULT_TTL = 60*1000;
+    private static final long LISTEN_RETRY = 30*1000;
+    
+    private static final Map<String, Set<ClientCache>> cachesByService = new ConcurrentHashMap<>();
+    private static final Set<String> listening = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    // guarded by ClientCache.class
+    private static final Map<String, Long> lastListenAttempt = new HashMap<>();
+    
+    private final String service;
+    private final Cache<Key, Object> cache;
+    private final AtomicLong generation = new AtomicLong(0);
+    
+    private ClientCache(String service, int maxSize, long ttlMillis) {
+        this.service = service;
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+                .build();
+    }
+    
+    /**
+     * Creates a cache for a client of a service, listening for the service's 
+     * messages if this is the first
+     * 
+     * @param service the name of the service
+     * @param maxSize the most results kept
+     * @param ttlMillis how long a result is kept
+     * @return the ClientCache
+     */
+    public static synchronized ClientCache forService(String service, int maxSize, long ttlMillis) {
+        Set<ClientCache> caches = cachesByService.get(service);
+        if (caches == null) {
+            // Weakly held, so caches of discarded clients are not kept around
+            caches = Collections.newSetFromMap(new MapMaker().weakKeys().<ClientCache, Boolean>makeMap());
+            cachesByService.put(service, caches);
+        }
+        ClientCache clientCache = new ClientCache(service, maxSize, ttlMillis);
+        caches.add(clientCache);
+        isListening(service);
+        return clientCache;
+    }
+    
+    /**
+     * Registers for the messages of a service if not yet listening, trying 
+     * again no more often than every LISTEN_RETRY millis
+     * 
+     * @return true if the service's messages are being listened to
+     */
+    private static boolean isListening(String service) {
+        if (listening.contains(service)) {
+            return true;
+        }
+        synchronized (ClientCache.class) {
+            if (listening.contains(service)) {
+                return true;
+            }
+            long now = System.currentTimeMillis();
+            Long lastAttempt = lastListenAttempt.get(service);
+            if (lastAttempt != null && now - lastAttempt < LISTEN_RETRY) {
+                return false;
+            }
+            lastListenAttempt.put(service, now);
+            try {
+                MessageManager.getInstance().registerClientListener(service, new Invalidator(service));
+            } catch (Exception ex) {
+                LOGGER.warn("Unable to listen for updates to {}, not caching its results until listening: {}", 
+                        service, ex.toString());
+                return false;
+            }
+            lastListenAttempt.remove(service);
+            listening.add(service);
+            return true;
+        }
+    }
+    
+    /**
+     * Clears every client cache of a service
+     * 
+     * @param service the name of the service
+     */
+    public static void invalidate(String service) {
+        Set<ClientCache> caches = cachesByService.get(service);
+        if (caches != null) {
+            for (ClientCache clientCache : caches) {
+                clientCache.invalidateAll();
+            }
+        }
+    }
+    
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        cache.invalidateAll();
+    }
+    
+    /**
+     * Captured before making a call, so that a result fetched across an 
+     * invalidation is not cached
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+    
+    /**
+     * The key of a call, by the method, the types of its arguments, so that 
+     * overloads whose arguments encode to the same bytes are told apart, and 
+     * the raw bytes of the arguments
+     */
+    public Key key(String method, Message... args) {
+        StringBuilder signature = new StringBuilder(method).append('(');
+        List<ByteString> bytes = new ArrayList<>(args.length);
+        for (int i = 0; i < args.length; i++) {
+            if (i > 0) {
+                signature.append(',');
+            }
+            signature.append(args[i].getDescriptorForType().getFullName());
+            bytes.add(args[i].toByteString());
+        }
+        return new Key(signature.append(')').toString(), bytes);
+    }
+    
+    /**
+     * @return the cached result, or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(Key key) {
+        if (!isListening(service)) {
+            return null;
+        }
+        return (T) cache.getIfPresent(key);
+    }
+    
+    /**
+     * Caches a result, lists are cached unmodifiable as they are shared 
+     * by every caller.  Not cached unless the service is listened to.
+     * 
+     * @return the result as cached
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T put(Key key, T result, long expectedGeneration) {
+        if (result == null) {
+            return null;
+        }
+        if (result instanceof List) {
+            result = (T) Collections.unmodifiableList((List<?>) result);
+        }
+        if (generation.get() != expectedGeneration || !listening.contains(service)) {
+            return result;
+        }
+        cache.put(key, result);
+        if (generation.get() != expectedGeneration) {
+            // Invalidated while putting
+            cache.invalidate(key);
+        }
+        return result;
+    }
+    
+    public long size() {
+        return cache.size();
+    }
+    
+    /**
+     * Identifies a call by its method signature and the raw bytes of its arguments
+     */
+    public static class Key {
+        private final String signature;
+        private final List<ByteString> args;
+        private final int hash;
+        
+        private Key(String signature, List<ByteString> args) {
+            this.signature = signature;
+            this.args = args;
+            this.hash = 31 * signature.hashCode() + args.hashCode();
+        }
+        
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return hash == other.hash
+                    && signature.equals(other.signature)
+                    && args.equals(other.args);
+        }
+        
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+        
+        @Override
+        public String toString() {
+            return signature;
+        }
+    }
+    
+    private static class Invalidator implements MessageHandler, MessageProcessor {
+        private final String service;
+        
+        public Invalidator(String service) {
+            this.service = service;
+        }
+        
+        @Override
+        public void executeMessageHandler(MessageAction action, String type, Data data) throws Exception {
+            invalidate(service);
+        }
+
+        @Override
+        public Collection<MessageProcessor> getMessageProcessors() {
+            return Collections.<MessageProcessor>singleton(this);
+        }
+
+        @Override
+        public String getType() {
+            return ANY_TYPE;
+        }
+
+        @Override
+        public void execute(MessageAction action, Data data) throws Exception {
+            invalidate(service);
+        }
+    }
+}
@@ -17,27 +17,45 @@ package com.rhythm.louie.connection;
 
 import java.io.*;
 import java.net.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLSession;
 
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.FutureFallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.protobuf.Message;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.rhythm.louie.Constants;
+import com.rhythm.louie.compression.Codec;
+import com.rhythm.louie.compression.Codecs;
+import com.rhythm.louie.compression.CompressedInputStream;
 import com.rhythm.louie.exception.LouieRequestException;
 import com.rhythm.louie.exception.LouieResponseException;
 import com.rhythm.louie.pb.PBParam;
 import com.rhythm.louie.request.RequestContext;
 import com.rhythm.louie.request.RequestContextManager;
 import com.rhythm.louie.request.data.Data;
+import com.rhythm.louie.server.ConnectionPoolProperties;
 import com.rhythm.louie.server.Server;
+import com.rhythm.louie.server.TransportProperties;
 import com.rhythm.louie.services.auth.AuthService;
 import com.rhythm.louie.stream.*;
+import com.rhythm.louie.transport.TransportClient;
 
 import com.rhythm.pb.RequestProtos.IdentityPB;
 import com.rhythm.pb.RequestProtos.RequestHeaderPB;
@@ -50,15 +68,18 @@ import com.rhythm.pb.RequestProtos.SessionKey;
  * @author cjohnson
  * Created: Jan 17, 2012 2:23:53 PM
  */
-public class DefaultLouieConnection implements LouieConnection {
+public class DefaultLouieConnection implements AsyncLouieConnection {
     private final Logger LOGGER = LoggerFactory.getLogger(DefaultLouieConnection.class);
             
     private static final String AUTH_SERVICE = AuthService.SERVICE_NAME;
     private static final AtomicInteger txId = new AtomicInteger(0);
+    private static final int READ_TIMEOUT = 30*1000;
+    // the urls of every host, port and gateway called
+    private static final Map<String,URL> urls = new ConcurrentHashMap<>();
     
     private IdentityPB identity;
     private String host;
-    private SessionKey key;
+    private volatile SessionKey key;
 
     private int port = 8080;
     private int auth_port = 8787;
@@ -71,10 +92,15 @@ public class DefaultLouieConnection implements LouieConnection {
     private int retryWait = 2000; //milliseconds
     private int maxTimeout = 30; //seconds
     private boolean retry = true; //retry on by default
-    private boolean lockoffRetry = false; //disable retries after timeout window reached. global lock that is disabled by a succesful request
+    private volatile boolean lockoffRetry = false; //disable retries after timeout window reached. global lock that is disabled by a succesful request
     
     private String gateway = Constants.DEFAULT_GATEWAY;
     
+    private int transportPort = 0; // requests go over the persistent socket transport if set
+    private volatile RequestBatcher batcher = null;
+    private volatile boolean batchingSet = false; // until set, batching is as configured
+    private boolean acceptCompression = true;
+    
     protected DefaultLouieConnection(String host) {
         this(null, host, null);
     }
@@ -172,11 +198,30 @@ public class DefaultLouieConnection implements LouieConnection {
     }
     
     private URL getUrl(String urlStr) {
+        URL url = urls.get(urlStr);
+        if (url == null) {
+            try {
+                url = new URL(urlStr);
+            } catch (MalformedURLException e) {
+                LOGGER.error("Error creating URL: {}\n{}",urlStr, e);
+                return null;
+            }
+            urls.put(urlStr, url);
+        }
+        return url;
+    }
+    
+    /**
+     * The pool talks directly to the host, so a host that would be reached 
+     * through a proxy is left to the URLConnection
+     */
+    private boolean isProxied(URL url) {
         try {
-            return new URL(urlStr);
-        } catch (MalformedURLException e) {
-            LOGGER.error("Error creating URL: {}\n{}",urlStr, e);
-            return null;
+            List<Proxy> proxies = ProxySelector.getDefault().select(url.toURI());
+            return !proxies.isEmpty() && proxies.get(0).type() != Proxy.Type.DIRECT;
+        } catch (Exception e) {
+            LOGGER.debug("Unable to determine proxy for {}", url, e);
+            return true;
         }
     }
     
@@ -202,7 +247,7 @@ public class DefaultLouieConnection implements LouieConnection {
         // Set Content Type
         connection.setRequestProperty("Content-Type", "application/x-protobuf");
         
-        connection.setReadTimeout(30*1000);
+        connection.setReadTimeout(READ_TIMEOUT);
         connection.setConnectTimeout(15*1000);
         
         return connection;
@@ -222,7 +267,7 @@ public class DefaultLouieConnection implements LouieConnection {
         // Set Content Type
         connection.setRequestProperty("Content-Type", "application/x-protobuf");
         
-        connection.setReadTimeout(30*1000);
+        connection.setReadTimeout(READ_TIMEOUT);
         connection.setConnectTimeout(15*1000);
         
         return connection;
@@ -236,7 +281,7 @@ public class DefaultLouieConnection implements LouieConnection {
         connection.setDoOutput(true);
         connection.setUseCaches(false);
         connection.setRequestProperty("Content-Type", "application/x-protobuf");
-        connection.setReadTimeout(30*1000);
+        connection.setReadTimeout(READ_TIMEOUT);
         connection.setConnectTimeout(15*1000);
         connection.setHostnameVerifier(new LouieHostVerifier());
         connection.setSSLSocketFactory(sslConfig.getSSLSocketFactory());
@@ -269,7 +314,7 @@ public class DefaultLouieConnection implements LouieConnection {
         if (key==null) {
             SingleConsumer<SessionKey> con = Consumers.newSingleConsumer();
             Request<SessionKey> req = Request.newParams(con, AUTH_SERVICE, "createSession", PBParam.singleParam(getIdentity()), SessionKey.getDefaultInstance());
-            executeRequest(req);
+            executeRequest(new SingleExchange<>(req, RequestContextManager.getRequest()));
             key = con.get();
         }
         return key;
@@ -277,13 +322,62 @@ public class DefaultLouieConnection implements LouieConnection {
     
     @Override
     public <T extends Message> Response request(Request<T> req) throws Exception {  
+        RequestContext currentRequest = RequestContextManager.getRequest();
+        RequestBatcher requestBatcher = getBatcher();
+        if (requestBatcher != null && !isCreateSession(req)) {
+            return requestBatcher.request(req, currentRequest);
+        }
+        return requestSingle(req, currentRequest);
+    }
+    
+    <T extends Message> Response requestSingle(Request<T> req, RequestContext currentRequest) throws Exception {
+        return execute(new SingleExchange<>(req, currentRequest));
+    }
+    
+    @Override
+    public BatchResponse request(BatchRequest batch) throws Exception {
+        RequestContext currentRequest = RequestContextManager.getRequest();
+        List<RequestContext> contexts = new ArrayList<>(batch.size());
+        for (int r = 0; r < batch.size(); r++) {
+            contexts.add(currentRequest);
+        }
+        return execute(new BatchExchange(batch.getRequests(), batch.isAnyOrder(), contexts));
+    }
+    
+    BatchResponse requestBatch(List<Request<? extends Message>> requests, 
+            List<RequestContext> contexts) throws Exception {
+        return execute(new BatchExchange(requests, false, contexts));
+    }
+    
+    private static boolean isCreateSession(Request<?> req) {
+        return req.getService().equals(AUTH_SERVICE) && req.getCommand().equals("createSession");
+    }
+    
+    private RequestBatcher getBatcher() {
+        if (!batchingSet) {
+            setBatching(ConnectionPoolProperties.getBatchWindow(), ConnectionPoolProperties.getBatchSize());
+        }
+        return batcher;
+    }
+    
+    @Override
+    public void setBatching(int windowMillis, int maxSize) {
+        if (windowMillis > 0 && maxSize > 1) {
+            batcher = new RequestBatcher(this, windowMillis, maxSize);
+        } else {
+            batcher = null;
+        }
+        batchingSet = true;
+    }
+    
+    private <R> R execute(Exchange<R> exchange) throws Exception {
         long elapsedTime = 0;
         long maxTime = maxTimeout*1000;
-        Response response = null;
+        R response = null;
         
         while (true){ 
             try {
-                response = executeRequest(req);
+                response = executeRequest(exchange);
                 lockoffRetry = false;
                 break;
             } catch (HttpException e) {
@@ -298,21 +392,242 @@ public class DefaultLouieConnection implements LouieConnection {
                     lockoffRetry = true;
                     throw e;
                 }
-                LOGGER.warn("{}  ...retrying request {}:{}.{}...", 
-                        e.getMessage(),host,req.getService(),req.getCommand());
-                Thread.sleep(retryWait);
-                elapsedTime += retryWait;
+                long wait = retryWait;
+                if (e instanceof ThrottledException) {
+                    wait = Math.max(1, ((ThrottledException) e).getRetryAfter());
+                }
+                LOGGER.warn("{}  ...retrying request {}:{} in {}ms...", 
+                        e.getMessage(),host,exchange,wait);
+                Thread.sleep(wait);
+                elapsedTime += wait;
             }  
         }
        return response;
     }
     
-    private <T extends Message> Response executeRequest(Request<T> req) throws HttpException, BouncedException, 
+    @Override
+    public <T extends Message> ListenableFuture<Response> requestAsync(Request<T> req) {
+        AsyncRequest<Response> asyncRequest = new AsyncRequest<>(
+                new SingleExchange<>(req, RequestContextManager.getRequest()));
+        asyncRequest.run();
+        return asyncRequest.result;
+    }
+    
+    /**
+     * Sends a request asynchronously, retrying the same as request() does 
+     * but without holding a thread while waiting to retry
+     */
+    private class AsyncRequest<R> implements Runnable, FutureCallback<R> {
+        private final Exchange<R> exchange;
+        private final SettableFuture<R> result = SettableFuture.create();
+        private long elapsedTime = 0;
+        
+        public AsyncRequest(Exchange<R> exchange) {
+            this.exchange = exchange;
+        }
+        
+        @Override
+        public void run() {
+            Futures.addCallback(executeAsync(exchange), this);
+        }
+
+        @Override
+        public void onSuccess(R response) {
+            lockoffRetry = false;
+            result.set(response);
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+            if (t instanceof HttpException) {
+                if (((HttpException) t).getErrorCode()==407) {
+                    key = null;
+                    run();
+                    return;
+                }
+                LOGGER.error(t.getMessage());
+            } else if (t instanceof BouncedException) {
+                if (elapsedTime >= maxTimeout*1000L || !retry || lockoffRetry) {
+                    lockoffRetry = true;
+                } else {
+                    long wait = retryWait;
+                    if (t instanceof ThrottledException) {
+                        wait = Math.max(1, ((ThrottledException) t).getRetryAfter());
+                    }
+                    LOGGER.warn("{}  ...retrying request {}:{} in {}ms...", 
+                            t.getMessage(),host,exchange,wait);
+                    elapsedTime += wait;
+                    AsyncRequestEngine.schedule(this, wait);
+                    return;
+                }
+            }
+            result.setException(t);
+        }
+    }
+    
+    /**
+     * Over the socket transport nothing waits on the response until it arrives,
+     * otherwise the blocking request is run on the shared async threads
+     */
+    private <R> ListenableFuture<R> executeAsync(final Exchange<R> exchange) {
+        if (transportPort <= 0) {
+            return AsyncRequestEngine.getExecutor().submit(new Callable<R>() {
+                @Override
+                public R call() throws Exception {
+                    return executeRequest(exchange);
+                }
+            });
+        }
+        
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try {
+            exchange.writeTo(output);
+        } catch (IOException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+        
+        ListenableFuture<InputStream> response = AsyncRequestEngine.withTimeout(
+                TransportClient.getClient(host, transportPort).requestAsync(output.toByteArray(), 
+                        TransportProperties.getTimeout()),
+                TransportProperties.getTimeout()*1000L, host+":"+transportPort);
+        response = Futures.withFallback(response, new FutureFallback<InputStream>() {
+            @Override
+            public ListenableFuture<InputStream> create(Throwable t) throws Exception {
+                if (t instanceof IOException && !(t instanceof SocketTimeoutException)) {
+                    throw new BouncedException((IOException) t);
+                }
+                return Futures.immediateFailedFuture(t);
+            }
+        });
+        return Futures.transform(response, new AsyncFunction<InputStream, R>() {
+            @Override
+            public ListenableFuture<R> apply(InputStream input) throws Exception {
+                try {
+                    return Futures.immediateFuture(exchange.readFrom(input));
+                } finally {
+                    input.close();
+                }
+            }
+        }, AsyncRequestEngine.getExecutor());
+    }
+    
+    /**
+     * What is written to a server and read back from it, the same whether 
+     * sent over http or the socket transport
+     */
+    private interface Exchange<R> {
+        void writeTo(OutputStream output) throws IOException;
+        
+        R readFrom(InputStream input) throws HttpException, BouncedException, IOException, 
+                LouieRequestException, LouieResponseException;
+    }
+    
+    private class SingleExchange<T extends Message> implements Exchange<Response> {
+        private final Request<T> req;
+        private final RequestContext currentRequest;
+        
+        public SingleExchange(Request<T> req, RequestContext currentRequest) {
+            this.req = req;
+            this.currentRequest = currentRequest;
+        }
+
+        @Override
+        public void writeTo(OutputStream output) throws IOException {
+            writeHeader(1, false, isCreateSession(req), output);
+            writeRequest(req, txId.incrementAndGet(), currentRequest, output);
+        }
+
+        @Override
+        public Response readFrom(InputStream input) throws HttpException, BouncedException, 
+                IOException, LouieRequestException, LouieResponseException {
+            ResponseHeaderPB responseHeader = readResponseHeader(1, input);
+            ResponsePB response = ResponsePB.parseDelimitedFrom(input);
+            if (response == null) {
+                throw new LouieResponseException("Response ended before the response to "+this);
+            }
+            if (response.hasError()) {
+                throwError(response);
+            }
+            return readResponse(req, currentRequest, responseHeader, response, input);
+        }
+        
+        @Override
+        public String toString() {
+            return req.getService()+"."+req.getCommand();
+        }
+    }
+    
+    private class BatchExchange implements Exchange<BatchResponse> {
+        private final List<Request<? extends Message>> requests;
+        private final boolean anyOrder;
+        private final List<RequestContext> contexts;
+        private final Map<Integer,Integer> indexById = new HashMap<>();
+        
+        public BatchExchange(List<Request<? extends Message>> requests, boolean anyOrder, 
+                List<RequestContext> contexts) {
+            this.requests = new ArrayList<>(requests);
+            this.anyOrder = anyOrder;
+            this.contexts = contexts;
+        }
+
+        @Override
+        public void writeTo(OutputStream output) throws IOException {
+            // New ids each time, so that a retry is not confused with the original
+            indexById.clear();
+            writeHeader(requests.size(), anyOrder, false, output);
+            for (int r = 0; r < requests.size(); r++) {
+                int id = txId.incrementAndGet();
+                indexById.put(id, r);
+                writeRequest(requests.get(r), id, contexts.get(r), output);
+            }
+        }
+
+        @Override
+        public BatchResponse readFrom(InputStream input) throws HttpException, BouncedException, 
+                IOException, LouieRequestException, LouieResponseException {
+            ResponseHeaderPB responseHeader = readResponseHeader(requests.size(), input);
+            Response[] responses = new Response[requests.size()];
+            Exception[] errors = new Exception[requests.size()];
+            for (int r = 0; r < requests.size(); r++) {
+                ResponsePB response = ResponsePB.parseDelimitedFrom(input);
+                if (response == null) {
+                    throw new LouieResponseException("Response ended after "+r+" of "+this);
+                }
+                Integer index = indexById.get((int) response.getId());
+                if (index == null) {
+                    throw new LouieResponseException("Received a response to an unknown request: "+response.getId());
+                }
+                if (response.hasError()) {
+                    try {
+                        throwError(response);
+                    } catch (HttpException | BouncedException | LouieRequestException e) {
+                        errors[index] = e;
+                    }
+                } else {
+                    responses[index] = readResponse(requests.get(index), contexts.get(index), 
+                            responseHeader, response, input);
+                }
+            }
+            return new BatchResponse(responses, errors);
+        }
+        
+        @Override
+        public String toString() {
+            return "batch of "+requests.size();
+        }
+    }
+    
+    private <R> R executeRequest(Exchange<R> exchange) throws HttpException, BouncedException, 
             HttpsException, IOException, LouieRequestException, LouieResponseException { 
+        if (transportPort > 0) {
+            return executeTransportRequest(exchange);
+        }
+        if (ConnectionPoolProperties.isEnabled() 
+                && !isProxied(requestOnSSL ? getSecurePBURL() : getPBURL())) {
+            return executePooledRequest(exchange);
+        }
         
         URLConnection connection;
-        String service = req.getService();
-        String command = req.getCommand();
         try{
             if (requestOnSSL) {
                 try {
@@ -329,53 +644,8 @@ public class DefaultLouieConnection implements LouieConnection {
             throw new BouncedException(e);
         } 
         
-        // Build and Write Request Header
-        RequestHeaderPB.Builder headerBuilder = RequestHeaderPB.newBuilder();
-        headerBuilder.setCount(1);
-        if (key == null) {
-            headerBuilder.setIdentity(getIdentity());
-        } else if (!service.equals(AUTH_SERVICE) || !command.equals("createSession")) { //lame extra check
-            headerBuilder.setKey(key);
-        }
-
-        RequestContext currentRequest = RequestContextManager.getRequest();
         try (OutputStream output = connection.getOutputStream()) {
-            headerBuilder.build().writeDelimitedTo(output); 
-
-            // Build and Write Request
-            RequestPB.Builder reqBuilder = RequestPB.newBuilder();
-            reqBuilder.setId(txId.incrementAndGet())
-                      .setService(service)
-                      .setMethod(command);
-
-            if (currentRequest != null) {
-                // Only send route user info if it is enabled and this is not a auth call
-                if (currentRequest.isRouteUserEnabled() && !service.equals(AUTH_SERVICE)) {
-                    if (currentRequest.getRequest().hasRouteUser()) {
-                        reqBuilder.setRouteUser(currentRequest.getRequest().getRouteUser());
-                    } else if (currentRequest.getIdentity() != null) {
-                        // The identity should be set, so this check should not be needed.
-                        // TODO determine how the identity could be null...
-                        // (identity could be null if key in request is null, but that should not be happening either
-
-                        // Set the Routed User, as the current User is may be "Louie"
-                        reqBuilder.setRouteUser(currentRequest.getIdentity().getUser());
-                    }
-                }
-                // Append any routes you been on and the current Route
-                reqBuilder.addAllRoute(currentRequest.getRequest().getRouteList());
-                reqBuilder.addRoute(currentRequest.getRoute());
-            }
-            
-            for (Message message : req.getParam().getArguments()) {
-                reqBuilder.addType(message.getDescriptorForType().getFullName());
-            }
-            reqBuilder.build().writeDelimitedTo(output);
-
-            // Write Data
-            for (Message message : req.getParam().getArguments()) {
-                message.writeDelimitedTo(output);
-            }
+            exchange.writeTo(output);
         }
 
         // Cast to a HttpURLConnection in order to get response codes
@@ -390,40 +660,231 @@ public class DefaultLouieConnection implements LouieConnection {
                 throw new BouncedException(e);
             }
                 
-            if (respCode == 404 || respCode == 503){
-                httpConnection.disconnect();
-                throw new BouncedException("Server "+connection.getURL()+" returned: " + Integer.toString(respCode));
-            }
-            if (respCode>=400) {
-                throw new HttpException(httpConnection.getResponseCode(),httpConnection.getResponseMessage());
+            if (respCode >= 400) {
+                // Read off the error so the underlying socket can be kept alive
+                drain(httpConnection.getErrorStream());
+                if (respCode == 404 || respCode == 503){
+                    throw new BouncedException("Server "+connection.getURL()+" returned: " + Integer.toString(respCode));
+                }
+                throw new HttpException(respCode,httpConnection.getResponseMessage());
             }
         }
 
-        ResponsePB response;
         try (BufferedInputStream input = new BufferedInputStream(connection.getInputStream())) {
-            // Read in the Response Header
-            ResponseHeaderPB responseHeader = ResponseHeaderPB.parseDelimitedFrom(input);
-            if (responseHeader.getCount()!=1) {
-                throw new LouieRequestException("Received more than one response! This is unsupported behavior.");
+            return exchange.readFrom(input);
+        }
+    }
+    
+    private void drain(InputStream input) {
+        if (input == null) {
+            return;
+        }
+        try (InputStream in = input) {
+            byte[] buf = new byte[4096];
+            while (in.read(buf) >= 0) {}
+        } catch (IOException e) {
+            LOGGER.debug("Error draining response", e);
+        }
+    }
+    
+    /**
+     * Sends the request over a pooled keep-alive connection, rather than 
+     * opening a new http connection
+     */
+    private <R> R executePooledRequest(Exchange<R> exchange) throws HttpException, BouncedException, 
+            HttpsException, IOException, LouieRequestException, LouieResponseException { 
+        HttpConnectionPool pool;
+        if (requestOnSSL) {
+            try {
+                pool = HttpConnectionPool.getPool(host, ssl_port, sslConfig.getSSLSocketFactory());
+            } catch (Exception e) {
+                LOGGER.error("Error creating secure connection", e);
+                throw new HttpsException("Error Connecting via HTTPS. Please verify certificates and passwords.");
             }
-            if (responseHeader.hasKey()) {
-                key = responseHeader.getKey();
+        } else if (first && authBehaviorEnabled) {
+            pool = HttpConnectionPool.getPool(host, auth_port, null);
+            first = false;
+        } else {
+            pool = HttpConnectionPool.getPool(host, port, null);
+        }
+        
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        exchange.writeTo(output);
+        
+        HttpConnectionPool.PooledResponse httpResponse;
+        try {
+            httpResponse = pool.post("/"+gateway+"/pb", "application/x-protobuf", 
+                    output.toByteArray(), READ_TIMEOUT);
+        } catch (HttpConnectionPool.UnsentRequestException e) {
+            // Never reached the server, so it is safe to send again
+            throw new BouncedException(e);
+        }
+        
+        try {
+            int respCode = httpResponse.getStatus();
+            if (respCode == 404 || respCode == 503){
+                throw new BouncedException("Server "+host+" returned: " + Integer.toString(respCode));
             }
+            if (respCode>=400) {
+                throw new HttpException(respCode,httpResponse.getReason());
+            }
+            return exchange.readFrom(new BufferedInputStream(httpResponse.getInputStream()));
+        } finally {
+            httpResponse.close();
+        }
+    }
+    
+    /**
+     * Sends the request over a persistent socket to the remote TransportServer,
+     * rather than opening a new http connection
+     */
+    private <R> R executeTransportRequest(Exchange<R> exchange) throws HttpException, BouncedException, 
+            IOException, LouieRequestException, LouieResponseException { 
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        exchange.writeTo(output);
+        
+        InputStream response;
+        try {
+            response = TransportClient.getClient(host, transportPort)
+                    .request(output.toByteArray(), TransportProperties.getTimeout());
+        } catch (SocketTimeoutException se) {
+            throw se;
+        } catch (IOException e) {
+            throw new BouncedException(e);
+        }
+        
+        try {
+            return exchange.readFrom(response);
+        } finally {
+            response.close();
+        }
+    }
+    
+    private void writeHeader(int count, boolean anyOrder, boolean createSession, 
+            OutputStream output) throws IOException {
+        RequestHeaderPB.Builder headerBuilder = RequestHeaderPB.newBuilder();
+        headerBuilder.setCount(count);
+        if (anyOrder) {
+            headerBuilder.setAnyOrder(true);
+        }
+        if (key == null) {
+            headerBuilder.setIdentity(getIdentity());
+        } else if (!createSession) { //lame extra check
+            headerBuilder.setKey(key);
+        }
+        if (acceptCompression) {
+            headerBuilder.addAllAcceptCodec(Codecs.getNames());
+        }
+        headerBuilder.build().writeDelimitedTo(output); 
+    }
+    
+    private <T extends Message> void writeRequest(Request<T> req, int id, RequestContext currentRequest, 
+            OutputStream output) throws IOException {
+        String service = req.getService();
+        String command = req.getCommand();
+        
+        // Build and Write Request
+        RequestPB.Builder reqBuilder = RequestPB.newBuilder();
+        reqBuilder.setId(id)
+                  .setService(service)
+                  .setMethod(command);
 
-            // Read in each Response
-            response = ResponsePB.parseDelimitedFrom(input);
-            if (response.hasError()) {
-                throw new LouieRequestException(response.getError().getDescription());
+        // Give up no later than the request being served, if it has a deadline.
+        // The read timeouts of this connection only bound the wait between 
+        // reads, not a whole response, so alone they are no reason to give up.
+        // Sent as a timeout, the remote server sets the deadline by its own clock.
+        if (currentRequest != null && currentRequest.hasDeadline()) {
+            reqBuilder.setTimeout(Math.max(1, currentRequest.getRemainingMillis()));
+        }
+
+        if (currentRequest != null) {
+            // Only send route user info if it is enabled and this is not a auth call
+            if (currentRequest.isRouteUserEnabled() && !service.equals(AUTH_SERVICE)) {
+                if (currentRequest.getRequest().hasRouteUser()) {
+                    reqBuilder.setRouteUser(currentRequest.getRequest().getRouteUser());
+                } else if (currentRequest.getIdentity() != null) {
+                    // The identity should be set, so this check should not be needed.
+                    // TODO determine how the identity could be null...
+                    // (identity could be null if key in request is null, but that should not be happening either
+
+                    // Set the Routed User, as the current User is may be "Louie"
+                    reqBuilder.setRouteUser(currentRequest.getIdentity().getUser());
+                }
             }
+            // Append any routes you been on and the current Route
+            reqBuilder.addAllRoute(currentRequest.getRequest().getRouteList());
+            reqBuilder.addRoute(currentRequest.getRoute());
+        }
 
-            try {
+        for (Message message : req.getParam().getArguments()) {
+            reqBuilder.addType(message.getDescriptorForType().getFullName());
+        }
+        reqBuilder.build().writeDelimitedTo(output);
+
+        // Write Data
+        for (Message message : req.getParam().getArguments()) {
+            message.writeDelimitedTo(output);
+        }
+    }
+    
+    private ResponseHeaderPB readResponseHeader(int count, InputStream input) 
+            throws IOException, LouieResponseException {
+        ResponseHeaderPB responseHeader = ResponseHeaderPB.parseDelimitedFrom(input);
+        if (responseHeader == null) {
+            throw new LouieResponseException("Empty response from "+host);
+        }
+        if (responseHeader.getCount()!=count) {
+            throw new LouieResponseException("Expected "+count+" responses, but received "+responseHeader.getCount());
+        }
+        if (responseHeader.hasKey()) {
+            key = responseHeader.getKey();
+        }
+        return responseHeader;
+    }
+    
+    /**
+     * Throws the exception for an error response
+     */
+    private void throwError(ResponsePB response) throws HttpException, BouncedException, 
+            LouieRequestException {
+        // Transport errors carry the status the pb servlet would have returned
+        int code = response.getError().getCode();
+        if (code == 404 || code == 503) {
+            throw new BouncedException("Server "+host+" returned: " + Integer.toString(code));
+        }
+        if (code == 429) {
+            throw new ThrottledException(response.getError().getDescription(), 
+                    response.getError().getRetryAfter());
+        }
+        if (code == 400 || code == 407) {
+            throw new HttpException(code, response.getError().getDescription());
+        }
+        throw new LouieRequestException(response.getError().getDescription());
+    }
+    
+    /**
+     * Reads the messages of a successful response into the consumer of its request
+     */
+    private <T extends Message> Response readResponse(Request<T> req, RequestContext currentRequest, 
+            ResponseHeaderPB responseHeader, ResponsePB response, InputStream input) 
+            throws LouieResponseException {
+        try {
+            if (response.getCompressed()) {
+                Codec codec = Codecs.forName(responseHeader.getCodec());
+                if (codec == null) {
+                    throw new Exception("Response compressed with unsupported codec: "+responseHeader.getCodec());
+                }
+                CompressedInputStream compressedInput = new CompressedInputStream(input, codec);
+                processResponse(req, response, compressedInput);
+                compressedInput.finish();
+            } else {
                 processResponse(req, response, input);
-            } catch (Exception ex) {
-                throw new LouieResponseException(ex);
             }
+        } catch (Exception ex) {
+            throw new LouieResponseException(ex);
         }
         
-        if (currentRequest != null && !service.equals(AUTH_SERVICE)) {
+        if (currentRequest != null && !req.getService().equals(AUTH_SERVICE)) {
             currentRequest.addDestinationRoutes(response.getRouteList());
         }
         
@@ -434,15 +895,11 @@ public class DefaultLouieConnection implements LouieConnection {
         T templ = request.getTemplate();
         Consumer<T> consumer = request.getConsumer();
         consumer.informMessageCount(response.getCount());
+        if (response.getCount() > 0 && templ == null) {
+            throw new Exception("Error Parsing Data: No Template!");
+        }
         for (int d = 0; d < response.getCount(); d++) {
-            Data data = Data.readPBData(input);
-            if (data!=null) {
-                if (templ!=null) {
-                    consumer.consume(data.parse(templ));
-                } else {
-                    throw new Exception("Error Parsing Data: No Template!");
-                }
-            }
+            consumer.consume(Data.readPBMessage(input, templ));
         }
     }
     
@@ -520,6 +977,26 @@ public class DefaultLouieConnection implements LouieConnection {
         this.port = port;
     }
     
+    /**
+     * Sends requests over a persistent socket to the remote TransportServer
+     * instead of opening an http connection per request
+     * 
+     * @param transportPort the remote transport port, 0 to use http
+     */
+    protected void setTransportPort(int transportPort) {
+        this.transportPort = transportPort;
+    }
+    
+    /**
+     * Whether to offer the server the supported codecs, any response over the
+     * server's threshold then comes back compressed
+     * 
+     * @param accept false to always receive uncompressed responses
+     */
+    public void setAcceptCompression(boolean accept) {
+        this.acceptCompression = accept;
+    }
+    
     static public class HttpException extends Exception {
         private int httpCode;
         private String httpMessage;
@@ -548,6 +1025,25 @@ public class DefaultLouieConnection implements LouieConnection {
         }
     }
     
+    /**
+     * The server is rate limiting this client, retry no sooner than retryAfter
+     */
+    static public class ThrottledException extends BouncedException {
+        private final long retryAfter;
+        
+        public ThrottledException(String message, long retryAfter) {
+            super(message);
+            this.retryAfter = retryAfter;
+        }
+        
+        /**
+         * @return the millis to wait before retrying
+         */
+        public long getRetryAfter() {
+            return retryAfter;
+        }
+    }
+    
     static public class HttpsException extends Exception {
         public HttpsException(String message) {
             super(message);
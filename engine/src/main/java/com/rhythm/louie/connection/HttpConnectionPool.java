@@ -0,0 +1,537 @@
+/*
+ * Copyright 2015 Rhythm & Hues Studios.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rhythm.louie.connection;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rhythm.louie.server.ConnectionPoolProperties;
+
+/**
+ * Keeps http connections to a remote host open between requests, so that 
+ * repeated calls to the same server do not pay for a tcp (and tls) handshake 
+ * each time.  A connection is only returned to the pool once its response has
+ * been fully read, and idle connections are closed after the configured idle
+ * timeout.
+ * 
+ * @author cjohnson
+ */
+public class HttpConnectionPool {
+    private static final Logger LOGGER = LoggerFactory.getLogger(HttpConnectionPool.class);
+    
+    private static final int CONNECT_TIMEOUT = 15*1000;
+    private static final int MAX_DRAIN = 64*1024;
+    private static final int MAX_LINE = 8*1024;
+    private static final int STALE_CHECK_TIMEOUT = 1;
+    
+    private static final Map<String, HttpConnectionPool> pools = new ConcurrentHashMap<>();
+    
+    private final String host;
+    private final int port;
+    private final SSLSocketFactory sslFactory;
+    
+    // most recently used first, guarded by this
+    private final Deque<PooledConnection> idle = new ArrayDeque<>();
+    private boolean closed = false;
+    
+    private HttpConnectionPool(String host, int port, SSLSocketFactory sslFactory) {
+        this.host = host;
+        this.port = port;
+        this.sslFactory = sslFactory;
+    }
+    
+    /**
+     * Returns the shared pool for a host and port
+     * 
+     * @param host the remote host
+     * @param port the remote http port
+     * @param sslFactory the factory to secure connections with, or null for plain http
+     * @return the shared HttpConnectionPool
+     */
+    public static synchronized HttpConnectionPool getPool(String host, int port, SSLSocketFactory sslFactory) {
+        String key = (sslFactory == null ? "http://" : "https@"+System.identityHashCode(sslFactory)+"://")
+                + host + ":" + port;
+        HttpConnectionPool pool = pools.get(key);
+        if (pool == null) {
+            pool = new HttpConnectionPool(host, port, sslFactory);
+            pools.put(key, pool);
+        }
+        return pool;
+    }
+    
+    public static synchronized void shutdown() {
+        for (HttpConnectionPool pool : pools.values()) {
+            pool.close();
+        }
+        pools.clear();
+    }
+    
+    private synchronized void close() {
+        closed = true;
+        for (PooledConnection conn : idle) {
+            conn.close();
+        }
+        idle.clear();
+    }
+    
+    /**
+     * Posts a request, reusing an idle connection if there is one.  The request
+     * is only sent again on a new connection if a reused connection failed 
+     * before any of it was written, as once written the server may have acted
+     * on it.
+     * 
+     * @param path the path of the request
+     * @param contentType the content type of the body
+     * @param body the complete body of the request
+     * @param readTimeout the millis to wait on a read
+     * @return the response, which must be closed to release the connection
+     * @throws UnsentRequestException if the request never reached the server
+     * @throws IOException if the request may have reached the server
+     */
+    public PooledResponse post(String path, String contentType, byte[] body, int readTimeout) throws IOException {
+        PooledConnection conn = borrow();
+        if (conn != null) {
+            try {
+                return conn.exchange(path, contentType, body, readTimeout);
+            } catch (IOException e) {
+                conn.close();
+                if (conn.requestWritten) {
+                    throw e;
+                }
+                LOGGER.debug("Stale connection to {}:{}, reconnecting: {}", host, port, e.toString());
+            }
+        }
+        
+        try {
+            conn = open();
+        } catch (IOException e) {
+            throw new UnsentRequestException(e);
+        }
+        try {
+            return conn.exchange(path, contentType, body, readTimeout);
+        } catch (IOException e) {
+            conn.close();
+            if (!conn.requestWritten) {
+                throw new UnsentRequestException(e);
+            }
+            throw e;
+        }
+    }
+    
+    private synchronized PooledConnection borrow() {
+        long now = System.currentTimeMillis();
+        long idleTimeout = ConnectionPoolProperties.getIdleTimeout();
+        while (!idle.isEmpty()) {
+            PooledConnection conn = idle.pop();
+            if (now - conn.lastUsed < idleTimeout && conn.isReusable()) {
+                return conn;
+            }
+            conn.close();
+        }
+        return null;
+    }
+    
+    private void release(PooledConnection conn) {
+        synchronized (this) {
+            if (!closed && idle.size() < ConnectionPoolProperties.getSize()) {
+                conn.lastUsed = System.currentTimeMillis();
+                idle.push(conn);
+                
+                // The oldest are at the bottom, close any that have sat too long
+                long expired = conn.lastUsed - ConnectionPoolProperties.getIdleTimeout();
+                while (idle.peekLast().lastUsed < expired) {
+                    idle.pollLast().close();
+                }
+                return;
+            }
+        }
+        conn.close();
+    }
+    
+    private PooledConnection open() throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+            if (sslFactory != null) {
+                SSLSocket sslSocket = (SSLSocket) sslFactory.createSocket(socket, host, port, true);
+                // check that the certificate was issued for the host
+                SSLParameters params = sslSocket.getSSLParameters();
+                params.setEndpointIdentificationAlgorithm("HTTPS");
+                sslSocket.setSSLParameters(params);
+                sslSocket.startHandshake();
+                socket = sslSocket;
+            }
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return new PooledConnection(socket);
+    }
+    
+    private class PooledConnection {
+        private final Socket socket;
+        private final InputStream in;
+        private final OutputStream out;
+        
+        private long lastUsed;
+        // set once any of the current request has been handed to the socket
+        private boolean requestWritten;
+        
+        PooledConnection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new BufferedInputStream(socket.getInputStream());
+            this.out = new BufferedOutputStream(new FilterOutputStream(socket.getOutputStream()) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                    requestWritten = true;
+                }
+                
+                @Override
+                public void write(int b) throws IOException {
+                    out.write(b);
+                    requestWritten = true;
+                }
+            });
+        }
+        
+        /**
+         * An idle connection should have nothing to read, a byte there means 
+         * the server is no longer in step with it and the end of the stream 
+         * means the server has closed it.  Checked with a brief read, as a 
+         * request written to a closed connection cannot safely be resent.
+         */
+        boolean isReusable() {
+            if (socket.isClosed()) {
+                return false;
+            }
+            try {
+                if (in.available() > 0) {
+                    return false;
+                }
+                socket.setSoTimeout(STALE_CHECK_TIMEOUT);
+                try {
+                    in.read();
+                    return false;
+                } catch (SocketTimeoutException e) {
+                    return true;
+                }
+            } catch (IOException e) {
+                return false;
+            }
+        }
+        
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                LOGGER.debug("Error closing connection to {}:{}", host, port, e);
+            }
+        }
+        
+        PooledResponse exchange(String path, String contentType, byte[] body, int readTimeout) throws IOException {
+            requestWritten = false;
+            socket.setSoTimeout(readTimeout);
+            
+            StringBuilder head = new StringBuilder(128);
+            head.append("POST ").append(path).append(" HTTP/1.1\r\n")
+                .append("Host: ").append(host).append(':').append(port).append("\r\n")
+                .append("Content-Type: ").append(contentType).append("\r\n")
+                .append("Content-Length: ").append(body.length).append("\r\n")
+                .append("Connection: keep-alive\r\n\r\n");
+            out.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+            out.write(body);
+            out.flush();
+            
+            String statusLine;
+            int status;
+            do {
+                statusLine = readLine();
+                status = parseStatus(statusLine);
+                if (status >= 200) {
+                    break;
+                }
+                // skip over any interim response
+                while (!readLine().isEmpty()) {}
+            } while (true);
+            
+            boolean keepAlive = !statusLine.startsWith("HTTP/1.0");
+            boolean chunked = false;
+            long length = -1;
+            for (String line = readLine(); !line.isEmpty(); line = readLine()) {
+                int colon = line.indexOf(':');
+                if (colon <= 0) {
+                    continue;
+                }
+                String name = line.substring(0, colon).trim().toLowerCase();
+                String value = line.substring(colon + 1).trim().toLowerCase();
+                switch (name) {
+                    case "content-length":
+                        try {
+                            length = Long.parseLong(value);
+                        } catch (NumberFormatException e) {
+                            throw new IOException("Bad Content-Length from "+host+":"+port+": "+value);
+                        }
+                        break;
+                    case "transfer-encoding":
+                        chunked = value.contains("chunked");
+                        break;
+                    case "connection":
+                        if (value.contains("close")) {
+                            keepAlive = false;
+                        } else if (value.contains("keep-alive")) {
+                            keepAlive = true;
+                        }
+                        break;
+                }
+            }
+            
+            if (status == 204 || status == 304) {
+                length = 0;
+                chunked = false;
+            } else if (!chunked && length < 0) {
+                // body runs to the end of the connection
+                keepAlive = false;
+            }
+            
+            int space = statusLine.indexOf(' ', statusLine.indexOf(' ') + 1);
+            String reason = space < 0 ? "" : statusLine.substring(space + 1);
+            return new PooledResponse(this, status, reason, chunked, length, keepAlive);
+        }
+        
+        private int parseStatus(String statusLine) throws IOException {
+            int start = statusLine.indexOf(' ');
+            if (!statusLine.startsWith("HTTP/") || start < 0 || statusLine.length() < start + 4) {
+                throw new IOException("Bad status line from "+host+":"+port+": "+statusLine);
+            }
+            try {
+                return Integer.parseInt(statusLine.substring(start + 1, start + 4));
+            } catch (NumberFormatException e) {
+                throw new IOException("Bad status line from "+host+":"+port+": "+statusLine);
+            }
+        }
+        
+        String readLine() throws IOException {
+            StringBuilder line = new StringBuilder(64);
+            int b;
+            while ((b = in.read()) != '\n') {
+                if (b < 0) {
+                    throw new EOFException("Connection to "+host+":"+port+" closed");
+                }
+                if (line.length() >= MAX_LINE) {
+                    throw new IOException("Header line too long from "+host+":"+port);
+                }
+                line.append((char) b);
+            }
+            int len = line.length();
+            if (len > 0 && line.charAt(len - 1) == '\r') {
+                line.setLength(len - 1);
+            }
+            return line.toString();
+        }
+    }
+    
+    /**
+     * Thrown when a request failed before any of it was written, so it can be 
+     * sent again without the server having seen it
+     */
+    public static class UnsentRequestException extends IOException {
+        public UnsentRequestException(IOException cause) {
+            super(cause.getMessage(), cause);
+        }
+    }
+    
+    /**
+     * The response to a pooled request.  Closing it, or its input stream, hands
+     * the connection back to the pool if the response could be read to its end.
+     */
+    public class PooledResponse implements Closeable {
+        private final PooledConnection conn;
+        private final int status;
+        private final String reason;
+        private final boolean keepAlive;
+        private final BodyInputStream body;
+        private boolean closed = false;
+        
+        PooledResponse(PooledConnection conn, int status, String reason, 
+                boolean chunked, long length, boolean keepAlive) {
+            this.conn = conn;
+            this.status = status;
+            this.reason = reason;
+            this.keepAlive = keepAlive;
+            this.body = new BodyInputStream(conn, chunked, length);
+        }
+        
+        public int getStatus() {
+            return status;
+        }
+        
+        public String getReason() {
+            return reason;
+        }
+        
+        public InputStream getInputStream() {
+            return body;
+        }
+        
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            
+            boolean reuse = keepAlive;
+            if (reuse && !body.eof) {
+                // Read off what the caller left, unless there is too much of it
+                try {
+                    byte[] buf = new byte[4096];
+                    int drained = 0;
+                    while (drained < MAX_DRAIN && !body.eof) {
+                        int read = body.read(buf, 0, buf.length);
+                        if (read > 0) {
+                            drained += read;
+                        }
+                    }
+                    reuse = body.eof;
+                } catch (IOException e) {
+                    reuse = false;
+                }
+            }
+            if (reuse) {
+                release(conn);
+            } else {
+                conn.close();
+            }
+        }
+        
+        /**
+         * Reads just the body of the response, by length, by chunk, or to 
+         * the end of the connection if neither were given
+         */
+        private class BodyInputStream extends InputStream {
+            private final PooledConnection conn;
+            private final boolean chunked;
+            // left in the body or current chunk, -1 to read until closed
+            private long remaining;
+            private boolean firstChunk = true;
+            private boolean eof;
+            
+            BodyInputStream(PooledConnection conn, boolean chunked, long length) {
+                this.conn = conn;
+                this.chunked = chunked;
+                this.remaining = chunked ? 0 : length;
+                this.eof = !chunked && length == 0;
+            }
+            
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                int read;
+                do {
+                    read = read(b, 0, 1);
+                } while (read == 0);
+                return read < 0 ? -1 : b[0] & 0xff;
+            }
+            
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (eof) {
+                    return -1;
+                }
+                if (len == 0) {
+                    return 0;
+                }
+                if (chunked && remaining == 0 && !nextChunk()) {
+                    eof = true;
+                    return -1;
+                }
+                int max = remaining < 0 ? len : (int) Math.min(len, remaining);
+                int read = conn.in.read(b, off, max);
+                if (read < 0) {
+                    if (remaining < 0) {
+                        eof = true;
+                        return -1;
+                    }
+                    throw new EOFException("Connection to "+host+":"+port+" closed mid response");
+                }
+                if (remaining > 0) {
+                    remaining -= read;
+                    if (!chunked && remaining == 0) {
+                        eof = true;
+                    }
+                }
+                return read;
+            }
+            
+            private boolean nextChunk() throws IOException {
+                if (!firstChunk) {
+                    conn.readLine(); // end of the previous chunk
+                }
+                firstChunk = false;
+                
+                String line = conn.readLine();
+                int ext = line.indexOf(';');
+                if (ext >= 0) {
+                    line = line.substring(0, ext);
+                }
+                long size;
+                try {
+                    size = Long.parseLong(line.trim(), 16);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Bad chunk size from "+host+":"+port+": "+line);
+                }
+                if (size == 0) {
+                    // skip any trailers
+                    while (!conn.readLine().isEmpty()) {}
+                    return false;
+                }
+                remaining = size;
+                return true;
+            }
+            
+            @Override
+            public int available() throws IOException {
+                if (eof) {
+                    return 0;
+                }
+                int available = conn.in.available();
+                return remaining < 0 ? available : (int) Math.min(available, remaining);
+            }
+            
+            @Override
+            public void close() {
+                PooledResponse.this.close();
+            }
+        }
+    }
+}
@@ -15,6 +15,8 @@
  */
 package com.rhythm.louie.connection;
 
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.protobuf.Message;
 
 import com.rhythm.louie.server.Server;
@@ -23,6 +25,7 @@ import com.rhythm.pb.RequestProtos.IdentityPB;
 import com.rhythm.pb.RequestProtos.SessionKey;
 
 import java.net.URLConnection;
+import java.util.concurrent.Callable;
 
 import org.slf4j.LoggerFactory;
 
@@ -48,7 +51,7 @@ public class LouieConnectionFactory {
         CONNECTION.setSharedConnection(connection);
     }
     
-    static class SharedConnection implements LouieConnection {
+    static class SharedConnection implements AsyncLouieConnection {
         LouieConnection delegate;
         public SharedConnection() {
             delegate = getConnection(System.getProperty("com.rhythm.louiehost", "localhost"));
@@ -166,11 +169,38 @@ public class LouieConnectionFactory {
             }
         }
 
+        @Override
+        public void setBatching(int windowMillis, int maxSize) {
+            try {
+                LouieConnection conn = getDelegate();
+                if (conn instanceof AsyncLouieConnection) {
+                    ((AsyncLouieConnection) conn).setBatching(windowMillis, maxSize);
+                }
+            } catch (Exception ex) {
+                LoggerFactory.getLogger(LouieConnectionFactory.class)
+                        .error("Error setting batching", ex);
+            }
+        }
+
         @Override
         public <T extends Message> Response request(Request<T> req) throws Exception {
             return getDelegate().request(req);
         }
 
+        @Override
+        public BatchResponse request(BatchRequest batch) throws Exception {
+            return LouieConnectionFactory.request(getDelegate(), batch);
+        }
+
+        @Override
+        public <T extends Message> ListenableFuture<Response> requestAsync(Request<T> req) {
+            try {
+                return LouieConnectionFactory.requestAsync(getDelegate(), req);
+            } catch (Exception ex) {
+                return Futures.immediateFailedFuture(ex);
+            }
+        }
+
         @Override
         public void enableAuthPort(boolean enable) {
             try {
@@ -182,6 +212,53 @@ public class LouieConnectionFactory {
         }
     }
     
+    /**
+     * Sends a request without waiting on it.  A connection that is not an 
+     * AsyncLouieConnection has the blocking request run on the shared async 
+     * threads instead.
+     * 
+     * @param connection the connection to send on
+     * @param req the request
+     * @return the response, or the exception that request would have thrown
+     */
+    public static <T extends Message> ListenableFuture<Response> requestAsync(
+            final LouieConnection connection, final Request<T> req) {
+        if (connection instanceof AsyncLouieConnection) {
+            return ((AsyncLouieConnection) connection).requestAsync(req);
+        }
+        return AsyncRequestEngine.getExecutor().submit(new Callable<Response>() {
+            @Override
+            public Response call() throws Exception {
+                return connection.request(req);
+            }
+        });
+    }
+    
+    /**
+     * Sends every request of a batch.  A connection that is not an 
+     * AsyncLouieConnection sends them one at a time instead, in order.
+     * 
+     * @param connection the connection to send on
+     * @param batch the requests
+     * @return the outcome of each request, in the order added to the batch
+     * @throws Exception if the batch as a whole could not be sent
+     */
+    public static BatchResponse request(LouieConnection connection, BatchRequest batch) throws Exception {
+        if (connection instanceof AsyncLouieConnection) {
+            return ((AsyncLouieConnection) connection).request(batch);
+        }
+        Response[] responses = new Response[batch.size()];
+        Exception[] errors = new Exception[batch.size()];
+        for (int r = 0; r < batch.size(); r++) {
+            try {
+                responses[r] = connection.request(batch.getRequests().get(r));
+            } catch (Exception ex) {
+                errors[r] = ex;
+            }
+        }
+        return new BatchResponse(responses, errors);
+    }
+    
     public static LouieConnection getSecureConnection(IdentityPB id, SSLConfig sslConfig) {
         return new DefaultLouieConnection(id, sslConfig);
     }
@@ -243,6 +320,26 @@ public class LouieConnectionFactory {
     }
     
     
+    /**
+     * Creates a connection which sends requests over a persistent socket to the
+     * TransportServer of the remote host, rather than over http
+     * 
+     * @param host the remote host
+     * @param transportPort the transport port of the remote host
+     * @return a LouieConnection
+     */
+    public static LouieConnection getTransportConnection(String host, int transportPort) {
+        DefaultLouieConnection conn = new DefaultLouieConnection(Identity.getIdentity(),host);
+        conn.setTransportPort(transportPort);
+        return conn;
+    }
+    
+    public static LouieConnection getTransportConnectionForServer(Server server, int transportPort) {
+        DefaultLouieConnection conn = new DefaultLouieConnection(Identity.getIdentity(),server);
+        conn.setTransportPort(transportPort);
+        return conn;
+    }
+    
     public static LouieConnection getConnectionForServer(Server server) {
         return getConnectionForServer(server,Identity.getIdentity());
     }
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2015 Rhythm & Hues Studios.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rhythm.louie.connection;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.protobuf.Message;
+
+import com.rhythm.louie.connection.DefaultLouieConnection.BouncedException;
+import com.rhythm.louie.connection.DefaultLouieConnection.HttpException;
+import com.rhythm.louie.request.RequestContext;
+
+/**
+ * Coalesces requests made on a connection by different threads at about the
+ * same time into a single batch.  The first caller of a batch waits up to the
+ * window for others to join, or until the batch is full, then sends it; every
+ * caller waits for its own response.
+ * 
+ * @author cjohnson
+ */
+class RequestBatcher {
+    private final DefaultLouieConnection connection;
+    private final long windowNanos;
+    private final int maxSize;
+    
+    private final Object lock = new Object();
+    private List<Pending<?>> current = null; // guarded by lock
+    
+    RequestBatcher(DefaultLouieConnection connection, int windowMillis, int maxSize) {
+        this.connection = connection;
+        this.windowNanos = windowMillis * 1000000L;
+        this.maxSize = maxSize;
+    }
+    
+    <T extends Message> Response request(Request<T> req, RequestContext currentRequest) throws Exception {
+        Pending<T> pending = new Pending<>(req, currentRequest);
+        List<Pending<?>> batch;
+        boolean leader = false;
+        synchronized (lock) {
+            if (current == null) {
+                current = new ArrayList<>(maxSize);
+                leader = true;
+            }
+            batch = current;
+            batch.add(pending);
+            if (batch.size() >= maxSize) {
+                current = null;
+                lock.notifyAll();
+            }
+        }
+        
+        if (leader) {
+            boolean interrupted = waitForBatch(batch);
+            try {
+                send(batch);
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        
+        Response response;
+        try {
+            response = pending.result.get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof Exception) {
+                throw (Exception) ex.getCause();
+            }
+            throw ex;
+        }
+        if (response == null) {
+            // Failed in a way that request() would have retried
+            return connection.requestSingle(req, currentRequest);
+        }
+        return response;
+    }
+    
+    /**
+     * Waits until the window passes or the batch fills, closing the batch
+     * 
+     * @return true if interrupted while waiting
+     */
+    private boolean waitForBatch(List<Pending<?>> batch) {
+        boolean interrupted = false;
+        long deadline = System.nanoTime() + windowNanos;
+        synchronized (lock) {
+            long remaining = windowNanos;
+            while (current == batch && remaining > 0 && !interrupted) {
+                try {
+                    lock.wait(remaining / 1000000L, (int) (remaining % 1000000L));
+                } catch (InterruptedException ex) {
+                    // Others are waiting on this batch, so send it now
+                    interrupted = true;
+                }
+                remaining = deadline - System.nanoTime();
+            }
+            if (current == batch) {
+                current = null;
+            }
+        }
+        return interrupted;
+    }
+    
+    private void send(List<Pending<?>> batch) {
+        try {
+            if (batch.size() == 1) {
+                Pending<?> pending = batch.get(0);
+                pending.result.set(connection.requestSingle(pending.req, pending.currentRequest));
+                return;
+            }
+            
+            List<Request<? extends Message>> requests = new ArrayList<>(batch.size());
+            List<RequestContext> contexts = new ArrayList<>(batch.size());
+            for (Pending<?> pending : batch) {
+                requests.add(pending.req);
+                contexts.add(pending.currentRequest);
+            }
+            BatchResponse responses = connection.requestBatch(requests, contexts);
+            for (int i = 0; i < batch.size(); i++) {
+                Exception error = responses.getException(i);
+                if (error == null) {
+                    batch.get(i).result.set(responses.getResponse(i));
+                } else if (error instanceof BouncedException 
+                        || (error instanceof HttpException && ((HttpException) error).getErrorCode()==407)) {
+                    // let the caller retry it alone
+                    batch.get(i).result.set(null);
+                } else {
+                    batch.get(i).result.setException(error);
+                }
+            }
+        } catch (Throwable t) {
+            for (Pending<?> pending : batch) {
+                pending.result.setException(t);
+            }
+        }
+    }
+    
+    private static class Pending<T extends Message> {
+        private final Request<T> req;
+        private final RequestContext currentRequest;
+        private final SettableFuture<Response> result = SettableFuture.create();
+        
+        Pending(Request<T> req, RequestContext currentRequest) {
+            this.req = req;
+            this.currentRequest = currentRequest;
+        }
+    }
+}
@@ -0,0 +1,465 @@
+/*
+ * Copyright 2015 Rhythm & Hues Studios.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rhythm.louie.embedded;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rhythm.louie.embedded.HttpConnection.HttpException;
+import com.rhythm.louie.embedded.HttpConnection.HttpRequest;
+import com.rhythm.louie.exception.LouieRouteException;
+import com.rhythm.louie.request.JsonProcessor;
+import com.rhythm.louie.request.ProtoProcess;
+import com.rhythm.louie.request.ProtoProcessor;
+import com.rhythm.louie.request.RequestProperties;
+import com.rhythm.louie.server.RequestExecutor;
+import com.rhythm.louie.server.Server;
+import com.rhythm.louie.server.ServiceManager;
+import com.rhythm.louie.services.auth.UnauthorizedSessionException;
+
+/**
+ * Serves the pb and json endpoints directly, without a servlet container.
+ *
+ * A single selector thread accepts connections and does all of the socket
+ * reads and writes. Once a full request has been read it is handed to the async
+ * request pool, and the finished response is handed back to the selector to be
+ * written. Requests are served at /{gateway}/pb and /{gateway}/json, the
+ * same urls as the web module.
+ *
+ * When the request pool is full a request is answered with a 503 rather than
+ * run on the selector thread, and connections that make no progress reading a
+ * request or taking a response for IDLE_TIMEOUT are closed.
+ *
+ * @author cjohnson
+ */
+public class EmbeddedServer {
+    private static final Logger LOGGER = LoggerFactory.getLogger(EmbeddedServer.class);
+
+    private static final String PB_CONTENT = "application/x-protobuf";
+    private static final String JSON_CONTENT = "application/json";
+    private static final long IDLE_TIMEOUT = 60*1000;
+    private static final long SWEEP_INTERVAL = 5*1000;
+
+    private final int port;
+    private final String gateway;
+    private final Queue<Runnable> selectorTasks = new ConcurrentLinkedQueue<>();
+
+    private ProtoProcess protoProcessor;
+    private JsonProcessor jsonProcessor;
+    private String localIp;
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private Thread selectorThread;
+    private volatile boolean running = false;
+
+    /**
+     * @param port the port to listen on
+     * @param gateway the gateway to serve, as the first element of the url path
+     */
+    public EmbeddedServer(int port, String gateway) {
+        this.port = port;
+        this.gateway = gateway;
+    }
+
+    public synchronized void start() throws IOException {
+        if (running) {
+            return;
+        }
+        try {
+            localIp = InetAddress.getLocalHost().getHostAddress();
+        } catch (UnknownHostException ex) {
+            LOGGER.error("Error retrieving localhost IP", ex);
+            localIp = "UNKNOWN_ADDRESS";
+        }
+        protoProcessor = new ProtoProcessor();
+        jsonProcessor = new JsonProcessor();
+
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.configureBlocking(false);
+        serverChannel.socket().setReuseAddress(true);
+        serverChannel.socket().bind(new InetSocketAddress(port));
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+        running = true;
+        selectorThread = new ThreadFactoryBuilder()
+                .setNameFormat("louie-embedded-%d")
+                .build()
+                .newThread(new SelectorLoop());
+        selectorThread.start();
+        LOGGER.info("Embedded server listening on port {} for gateway {}", port, gateway);
+    }
+
+    public synchronized void shutdown() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        selector.wakeup();
+        try {
+            selectorThread.join(5000);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Runs a task on the selector thread, the only thread that may touch the keys
+     */
+    private void runOnSelector(Runnable task) {
+        selectorTasks.add(task);
+        selector.wakeup();
+    }
+
+    private class SelectorLoop implements Runnable {
+        @Override
+        public void run() {
+            long lastSweep = System.currentTimeMillis();
+            try {
+                while (running) {
+                    selector.select(SWEEP_INTERVAL);
+
+                    Runnable task;
+                    while ((task = selectorTasks.poll()) != null) {
+                        task.run();
+                    }
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        try {
+                            if (key.isAcceptable()) {
+                                accept();
+                            } else if (key.isReadable()) {
+                                read(key);
+                            } else if (key.isWritable()) {
+                                write(key);
+                            }
+                        } catch (IOException ex) {
+                            LOGGER.debug("Closing embedded connection: {}", ex.toString());
+                            close(key);
+                        }
+                    }
+                    
+                    long now = System.currentTimeMillis();
+                    if (now - lastSweep >= SWEEP_INTERVAL) {
+                        closeIdle(now);
+                        lastSweep = now;
+                    }
+                }
+            } catch (Exception ex) {
+                LOGGER.error("Embedded server selector failed", ex);
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    close(key);
+                }
+                try {
+                    selector.close();
+                } catch (IOException ex) {}
+                running = false;
+            }
+        }
+    }
+
+    /**
+     * Closes the connections waiting on the client that have not made progress
+     * within the idle timeout.  Connections whose request is being processed 
+     * have no interest set, and are left alone.
+     */
+    private void closeIdle(long now) {
+        for (SelectionKey key : selector.keys()) {
+            if (!key.isValid() || key.interestOps() == 0 
+                    || !(key.attachment() instanceof HttpConnection)) {
+                continue;
+            }
+            HttpConnection conn = (HttpConnection) key.attachment();
+            if (now - conn.getLastActivity() > IDLE_TIMEOUT) {
+                LOGGER.debug("Closing idle embedded connection from {}", 
+                        conn.getChannel().socket().getRemoteSocketAddress());
+                close(key);
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        channel.register(selector, SelectionKey.OP_READ, new HttpConnection(channel));
+    }
+
+    private void read(SelectionKey key) throws IOException {
+        HttpConnection conn = (HttpConnection) key.attachment();
+        if (!conn.read()) {
+            close(key);
+            return;
+        }
+        processNext(key);
+    }
+
+    private void write(SelectionKey key) throws IOException {
+        HttpConnection conn = (HttpConnection) key.attachment();
+        if (!conn.write()) {
+            return;
+        }
+        if (conn.isCloseAfterWrite()) {
+            close(key);
+            return;
+        }
+        key.interestOps(SelectionKey.OP_READ);
+        // A pipelined request may already be waiting
+        processNext(key);
+    }
+
+    /**
+     * If a full request has been read, stop reading and dispatch it to a worker
+     */
+    private void processNext(SelectionKey key) {
+        HttpConnection conn = (HttpConnection) key.attachment();
+        HttpRequest request;
+        try {
+            request = conn.parseRequest();
+        } catch (HttpException ex) {
+            key.interestOps(0);
+            respond(key, error(ex.getStatus(), ex.getMessage(), false), false);
+            return;
+        }
+        if (request == null) {
+            return;
+        }
+        key.interestOps(0);
+        RequestProperties props = RequestProperties.create(
+                conn.getChannel().socket().getInetAddress().getHostAddress(),
+                port, gateway, localIp);
+        if (!RequestExecutor.getInstance().tryDispatch(new RequestTask(key, request, props))) {
+            LOGGER.warn("Embedded requests are saturated, rejecting request");
+            respond(key, error(503, "Server Busy", request.isKeepAlive()), request.isKeepAlive());
+        }
+    }
+
+    /**
+     * Queues a complete response to be written by the selector thread
+     */
+    private void respond(final SelectionKey key, final ByteBuffer response, final boolean keepAlive) {
+        runOnSelector(new Runnable() {
+            @Override
+            public void run() {
+                if (!key.isValid()) {
+                    return;
+                }
+                HttpConnection conn = (HttpConnection) key.attachment();
+                conn.setResponse(response, keepAlive);
+                key.interestOps(SelectionKey.OP_WRITE);
+            }
+        });
+    }
+
+    private static void close(SelectionKey key) {
+        key.cancel();
+        Object attachment = key.attachment();
+        if (attachment instanceof HttpConnection) {
+            ((HttpConnection) attachment).close();
+        } else {
+            try {
+                key.channel().close();
+            } catch (IOException ex) {}
+        }
+    }
+
+    private class RequestTask implements Runnable {
+        private final SelectionKey key;
+        private final HttpRequest request;
+        private final RequestProperties props;
+
+        public RequestTask(SelectionKey key, HttpRequest request, RequestProperties props) {
+            this.key = key;
+            this.request = request;
+            this.props = props;
+        }
+
+        @Override
+        public void run() {
+            ByteBuffer response;
+            try {
+                response = process();
+            } catch (Exception ex) {
+                LOGGER.error("Error Processing Embedded Request", ex);
+                response = error(500, ex.toString(), request.isKeepAlive());
+            }
+            respond(key, response, request.isKeepAlive());
+        }
+
+        private ByteBuffer process() throws Exception {
+            String path = request.getPath();
+            String prefix = "/" + gateway + "/";
+            if (!path.startsWith(prefix)) {
+                return error(404, "Not Found: "+path, request.isKeepAlive());
+            }
+            if (!"POST".equals(request.getMethod())) {
+                return error(405, "Method Not Allowed: "+request.getMethod(), request.isKeepAlive());
+            }
+
+            String endpoint = path.substring(prefix.length());
+            String contentType = request.getHeader("content-type");
+            switch (endpoint) {
+                case "pb":
+                    return processProto(contentType);
+                case "json":
+                    return processJson(contentType);
+                default:
+                    return error(404, "Not Found: "+path, request.isKeepAlive());
+            }
+        }
+
+        private ByteBuffer processProto(String contentType) {
+            try {
+                if (contentType == null || !contentType.startsWith(PB_CONTENT)) {
+                    throw new Exception("This servlet is not configured to deal with content of type: " + contentType);
+                }
+                ByteArrayOutputStream output = new ByteArrayOutputStream();
+                protoProcessor.processRequest(new ByteArrayInputStream(request.getBody()), output, props);
+                return response(200, PB_CONTENT, output.toByteArray(), request.isKeepAlive());
+            } catch (LouieRouteException ex) {
+                LOGGER.error(ex.toString());
+                return error(404, ex.getMessage(), request.isKeepAlive());
+            } catch (UnauthorizedSessionException ex) {
+                LOGGER.error(ex.toString());
+                return error(407, "Invalid Session Key", request.isKeepAlive());
+            } catch (Exception e) {
+                String errorMessage = e.getMessage()==null ? e.toString(): e.getMessage();
+                LOGGER.error("Error Processing Request", e);
+                return error(400, errorMessage, request.isKeepAlive());
+            }
+        }
+
+        private ByteBuffer processJson(String contentType) {
+            if (contentType == null || !contentType.contains(JSON_CONTENT)) {
+                return error(415, "Only application/json requests are supported", request.isKeepAlive());
+            }
+            try {
+                // the response is sized up front, so a streaming result is sent once complete
+                boolean ndjson = JsonProcessor.acceptsNdjson(request.getHeader("accept"));
+                ByteArrayOutputStream output = new ByteArrayOutputStream();
+                try (Writer writer = new OutputStreamWriter(output, StandardCharsets.UTF_8)) {
+                    jsonProcessor.processRequest(
+                            new InputStreamReader(new ByteArrayInputStream(request.getBody()), StandardCharsets.UTF_8),
+                            writer, request.getHeader("user-agent"), props, ndjson);
+                }
+                return response(200, ndjson ? JsonProcessor.NDJSON_CONTENT : JSON_CONTENT, 
+                        output.toByteArray(), request.isKeepAlive());
+            } catch (Exception e) {
+                String errorMessage = e.getMessage()==null ? e.toString(): e.getMessage();
+                LOGGER.error(errorMessage);
+                return error(400, errorMessage, request.isKeepAlive());
+            }
+        }
+    }
+
+    private static ByteBuffer error(int status, String message, boolean keepAlive) {
+        byte[] body = (message == null ? "" : message).getBytes(StandardCharsets.UTF_8);
+        return response(status, "text/plain; charset=UTF-8", body, keepAlive);
+    }
+
+    private static ByteBuffer response(int status, String contentType, byte[] body, boolean keepAlive) {
+        StringBuilder head = new StringBuilder();
+        head.append("HTTP/1.1 ").append(status).append(' ').append(reason(status)).append("\r\n")
+            .append("Server: Louie\r\n")
+            .append("Content-Type: ").append(contentType).append("\r\n")
+            .append("Content-Length: ").append(body.length).append("\r\n")
+            .append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n")
+            .append("\r\n");
+        byte[] headBytes = head.toString().getBytes(StandardCharsets.ISO_8859_1);
+        ByteBuffer buffer = ByteBuffer.allocate(headBytes.length + body.length);
+        buffer.put(headBytes).put(body);
+        buffer.flip();
+        return buffer;
+    }
+
+    private static String reason(int status) {
+        switch (status) {
+            case 200: return "OK";
+            case 400: return "Bad Request";
+            case 404: return "Not Found";
+            case 405: return "Method Not Allowed";
+            case 407: return "Proxy Authentication Required";
+            case 411: return "Length Required";
+            case 413: return "Request Entity Too Large";
+            case 415: return "Unsupported Media Type";
+            case 431: return "Request Header Fields Too Large";
+            case 503: return "Service Unavailable";
+            default: return "Internal Server Error";
+        }
+    }
+
+    /**
+     * Starts a standalone server.
+     *
+     * Usage: EmbeddedServer [louie.xml] [gateway] [port]
+     *
+     * If louie.xml is not given, it is loaded from the classpath. The gateway and
+     * port default to those configured for the local server.
+     *
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        URL louieXml = null;
+        if (args.length > 0) {
+            louieXml = new File(args[0]).toURI().toURL();
+        } else {
+            louieXml = EmbeddedServer.class.getResource("/louie.xml");
+        }
+        String gateway = args.length > 1 ? args[1] : null;
+
+        ServiceManager.initialize(louieXml, gateway);
+
+        if (gateway == null) {
+            gateway = Server.getLocal().getGateway();
+        }
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : Server.getLocal().getPort();
+
+        final EmbeddedServer server = new EmbeddedServer(port, gateway);
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                server.shutdown();
+                ServiceManager.shutdown();
+            }
+        }, "louie-embedded-shutdown"));
+        server.start();
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright 2015 Rhythm & Hues Studios.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rhythm.louie.embedded;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The state of a single client connection to the EmbeddedServer.
+ *
+ * Only the selector thread reads from or writes to the channel. A connection
+ * has at most one request in flight, any bytes of a pipelined request that
+ * arrive early are held until the current response has been written.
+ *
+ * @author cjohnson
+ */
+class HttpConnection {
+    static final int MAX_HEADER_SIZE = 16 * 1024;
+    static final int MAX_BODY_SIZE = 64 << 20;
+
+    private static final byte[] HEADER_END = {'\r', '\n', '\r', '\n'};
+
+    private final SocketChannel channel;
+    private ByteBuffer input = ByteBuffer.allocate(8192);
+    private ByteBuffer output;
+    private boolean closeAfterWrite = false;
+    private long lastActivity = System.currentTimeMillis();
+
+    HttpConnection(SocketChannel channel) {
+        this.channel = channel;
+    }
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * @return the last time bytes were read or written, or a response was set
+     */
+    long getLastActivity() {
+        return lastActivity;
+    }
+
+    /**
+     * Reads whatever is available on the channel
+     *
+     * @return false if the client closed the connection
+     * @throws IOException
+     */
+    boolean read() throws IOException {
+        if (!input.hasRemaining()) {
+            ByteBuffer larger = ByteBuffer.allocate(input.capacity() * 2);
+            input.flip();
+            larger.put(input);
+            input = larger;
+        }
+        int read = channel.read(input);
+        if (read > 0) {
+            lastActivity = System.currentTimeMillis();
+        }
+        return read >= 0;
+    }
+
+    /**
+     * Attempts to parse a complete request out of the bytes read so far.
+     *
+     * @return the request, or null if more bytes are needed
+     * @throws HttpException if the request is malformed or too large
+     */
+    HttpRequest parseRequest() throws HttpException {
+        int headerEnd = indexOf(input, HEADER_END);
+        if (headerEnd < 0) {
+            if (input.position() > MAX_HEADER_SIZE) {
+                throw new HttpException(431, "Request Header Fields Too Large");
+            }
+            return null;
+        }
+
+        String head = new String(input.array(), 0, headerEnd, StandardCharsets.ISO_8859_1);
+        String[] lines = head.split("\r\n");
+        String[] requestLine = lines[0].split(" ");
+        if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/1.")) {
+            throw new HttpException(400, "Malformed request line: "+lines[0]);
+        }
+
+        Map<String, String> headers = new HashMap<>();
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon <= 0) {
+                throw new HttpException(400, "Malformed header: "+lines[i]);
+            }
+            headers.put(lines[i].substring(0, colon).trim().toLowerCase(),
+                    lines[i].substring(colon + 1).trim());
+        }
+
+        if (headers.containsKey("transfer-encoding")) {
+            throw new HttpException(411, "Length Required");
+        }
+        int length = 0;
+        String contentLength = headers.get("content-length");
+        if (contentLength != null) {
+            try {
+                length = Integer.parseInt(contentLength);
+            } catch (NumberFormatException ex) {
+                throw new HttpException(400, "Bad Content-Length: "+contentLength);
+            }
+            if (length < 0 || length > MAX_BODY_SIZE) {
+                throw new HttpException(413, "Request Entity Too Large");
+            }
+        }
+
+        int bodyStart = headerEnd + HEADER_END.length;
+        if (input.position() < bodyStart + length) {
+            return null;
+        }
+
+        byte[] body = new byte[length];
+        System.arraycopy(input.array(), bodyStart, body, 0, length);
+
+        // Retain anything past this request for the next one
+        input.flip();
+        input.position(bodyStart + length);
+        input.compact();
+
+        String path = requestLine[1];
+        int query = path.indexOf('?');
+        if (query >= 0) {
+            path = path.substring(0, query);
+        }
+
+        boolean keepAlive;
+        String connection = headers.get("connection");
+        if (requestLine[2].equals("HTTP/1.0")) {
+            keepAlive = "keep-alive".equalsIgnoreCase(connection);
+        } else {
+            keepAlive = !"close".equalsIgnoreCase(connection);
+        }
+
+        return new HttpRequest(requestLine[0], path, headers, body, keepAlive);
+    }
+
+    private static int indexOf(ByteBuffer buffer, byte[] target) {
+        byte[] data = buffer.array();
+        int limit = buffer.position() - target.length;
+        outer:
+        for (int i = 0; i <= limit; i++) {
+            for (int j = 0; j < target.length; j++) {
+                if (data[i + j] != target[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    void setResponse(ByteBuffer response, boolean keepAlive) {
+        this.output = response;
+        this.closeAfterWrite = !keepAlive;
+        lastActivity = System.currentTimeMillis();
+    }
+
+    /**
+     * Writes as much of the pending response as the channel will take
+     *
+     * @return true if the response has been completely written
+     * @throws IOException
+     */
+    boolean write() throws IOException {
+        if (channel.write(output) > 0) {
+            lastActivity = System.currentTimeMillis();
+        }
+        if (output.hasRemaining()) {
+            return false;
+        }
+        output = null;
+        return true;
+    }
+
+    boolean isCloseAfterWrite() {
+        return closeAfterWrite;
+    }
+
+    void close() {
+        try {
+            channel.close();
+        } catch (IOException ex) {}
+    }
+
+    /**
+     * A fully read request
+     */
+    static class HttpRequest {
+        private final String method;
+        private final String path;
+        private final Map<String, String> headers;
+        private final byte[] body;
+        private final boolean keepAlive;
+
+        HttpRequest(String method, String path, Map<String, String> headers,
+                byte[] body, boolean keepAlive) {
+            this.method = method;
+            this.path = path;
+            this.headers = headers;
+            this.body = body;
+            this.keepAlive = keepAlive;
+        }
+
+        String getMethod() {
+            return method;
+        }
+
+        String getPath() {
+            return path;
+        }
+
+        /**
+         * @param name the lower case name of the header
+         * @return the value of the header, or null
+         */
+        String getHeader(String name) {
+            return headers.get(name);
+        }
+
+        byte[] getBody() {
+            return body;
+        }
+
+        boolean isKeepAlive() {
+            return keepAlive;
+        }
+    }
+
+    /**
+     * A request that cannot be processed, answered with the given status
+     */
+    static class HttpException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        HttpException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+
+        int getStatus() {
+            return status;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright 2015 Rhythm & Hues Studios.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rhythm.louie.exception;
+
+/**
+ * Thrown when a service sheds a request rather than queue it, returned to pb
+ * clients as a 503 so they may retry elsewhere
+ * 
+ * @author cjohnson
+ */
+public class LouieOverloadException extends LouieException {
+
+    public LouieOverloadException(String message) {
+        super(message);
+    }
+}
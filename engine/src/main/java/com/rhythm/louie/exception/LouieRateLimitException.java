@@ -0,0 +1,38 @@
+/*
+ * Copyright 2015 Rhythm & Hues Studios.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rhythm.louie.exception;
+
+/**
+ * Thrown when a session or user has exceeded its request rate, returned to pb
+ * clients as a 429 along with how long to back off
+ * 
+ * @author cjohnson
+ */
+public class LouieRateLimitException extends LouieException {
+    private final long retryAfter;
+
+    public LouieRateLimitException(String message, long retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * @return the millis until the request would be accepted
+     */
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+}
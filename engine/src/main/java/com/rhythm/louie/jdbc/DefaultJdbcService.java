@@ -21,6 +21,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
 import java.sql.Statement;
 
 import net.sf.log4jdbc.ConnectionSpy;
@@ -29,6 +30,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
 
+import com.rhythm.louie.request.RequestContext;
+import com.rhythm.louie.request.RequestContextManager;
+
 /**
  * @author cjohnson
  Created: Feb 11, 2011 2:15:31 PM
@@ -113,21 +117,37 @@ public class DefaultJdbcService implements JdbcService {
         return serialID;
     }
 
+    /**
+     * Limits the statement to the time left before the deadline of the 
+     * current request, if it has one
+     */
+    private PreparedStatement applyDeadline(PreparedStatement statement) throws SQLException {
+        RequestContext request = RequestContextManager.getRequest();
+        if (request != null && request.hasDeadline()) {
+            long remaining = request.getRemainingMillis();
+            if (remaining <= 0) {
+                throw new SQLTimeoutException("Request deadline passed, not executing: "+sqlString);
+            }
+            statement.setQueryTimeout((int) Math.min(Integer.MAX_VALUE, (remaining + 999) / 1000));
+        }
+        return statement;
+    }
+    
     // Executes a prepared statement
     @Override
     public boolean execute() throws SQLException {
-        return getPreparedStatement().execute();
+        return applyDeadline(getPreparedStatement()).execute();
     }
     
     // Executes a prepared statement
     @Override
     public int executeUpdate() throws SQLException {
-        return getPreparedStatement().executeUpdate();
+        return applyDeadline(getPreparedStatement()).executeUpdate();
     }
     
     @Override
     public ResultSet executeQuery() throws SQLException {
-        return getPreparedStatement().executeQuery();
+        return applyDeadline(getPreparedStatement()).executeQuery();
     }
     
     @Override
@@ -38,8 +38,13 @@ public class MessageManager {
     private static JmsAdapter jmsAdapter = null;
     
     private final Map<String, List<MessageProcessor>> messageProcessors = new ConcurrentHashMap<>();
+    // ANY_TYPE processors by the destination of their service
+    private final Map<String, List<MessageProcessor>> destinationProcessors = new ConcurrentHashMap<>();
     
+    // guarded by this
     private final List<ManagedListener> listeners = new ArrayList<>();
+    // guarded by this, so that each destination is only listened to once
+    private final Set<String> listenedDestinations = new HashSet<>();
     
     private MessageManager() {}
     
@@ -86,22 +91,29 @@ public class MessageManager {
     public void registerClientListener(String service, MessageHandler mh) throws MessageAdapterException {
         loadJMSAdapterIfNeeded();
 
-        listenTo(MessagingProperties.getClientType(),
-                 MessagingProperties.getClientPrefix()+ service);
+        String destName = MessagingProperties.getClientPrefix()+ service;
+        listenTo(MessagingProperties.getClientType(), destName);
         
-        addMessageHandler(mh);
+        for(MessageProcessor processor : mh.getMessageProcessors() ) {
+            addMessageProcessor(destName, processor);
+        }
     }
     
     public void registerServerListener(String service, MessageHandler mh) throws MessageAdapterException {
         loadJMSAdapterIfNeeded();
 
-        listenTo(MessagingProperties.getServerType(),
-                 MessagingProperties.getServerPrefix()+ service);
+        String destName = MessagingProperties.getServerPrefix()+ service;
+        listenTo(MessagingProperties.getServerType(), destName);
         
-        addMessageHandler(mh);
+        for(MessageProcessor processor : mh.getMessageProcessors() ) {
+            addMessageProcessor(destName, processor);
+        }
     }
     
-    private void listenTo(String destinationType, String destinationName) {
+    synchronized private void listenTo(String destinationType, String destinationName) {
+        if (!listenedDestinations.add(destinationName)) {
+            return;
+        }
         switch (destinationType) {
             case "queue":
                 listeners.add(new ManagedQueueListener(destinationName));
@@ -110,27 +122,30 @@ public class MessageManager {
                 listeners.add(new ManagedTopicListener(destinationName));
                 break;
             default:
+                listenedDestinations.remove(destinationName);
                 LOGGER.error("Unable to create message! Unknown Message Type: {}", destinationType);
         }
     }
     
-    private void addMessageHandler(MessageHandler mh) throws MessageAdapterException {
-        for(MessageProcessor processor : mh.getMessageProcessors() ) {
-            addMessageProcessor(processor.getType(), processor);
+    private void addMessageProcessor(String destName, MessageProcessor messageProcessor) {
+        if (MessageProcessor.ANY_TYPE.equals(messageProcessor.getType())) {
+            addMessageProcessor(destinationProcessors, destName, messageProcessor);
+        } else {
+            addMessageProcessor(messageProcessors, messageProcessor.getType(), messageProcessor);
         }
     }
     
-    private void addMessageProcessor(String type, MessageProcessor messageProcessor) {
-        List<MessageProcessor> messageProcessorList = messageProcessors.get(type);
+    private static void addMessageProcessor(Map<String, List<MessageProcessor>> processorMap, 
+            String key, MessageProcessor messageProcessor) {
+        List<MessageProcessor> messageProcessorList = processorMap.get(key);
         if (messageProcessorList == null) {
             messageProcessorList = new ArrayList<>();
         }
         messageProcessorList.add(messageProcessor);
-        messageProcessors.put(type, messageProcessorList);
+        processorMap.put(key, messageProcessorList);
     }
    
-    private void processMessage(MessageAction action, String type, Data data) {
-        List<MessageProcessor> messageProcessorList = messageProcessors.get(type);
+    private void processMessage(MessageAction action, Data data, List<MessageProcessor> messageProcessorList) {
         if (messageProcessorList != null) {
             for (MessageProcessor mp : messageProcessorList) {
                 try {
@@ -142,7 +157,7 @@ public class MessageManager {
         }
     }
     
-    private void processBytesMessage(BytesMessage message) {
+    private void processBytesMessage(BytesMessage message, String destName) {
         try {
             byte[] by = new byte[(int) message.getBodyLength()];
             message.readBytes(by);
@@ -156,7 +171,8 @@ public class MessageManager {
                 ContentPB content = msgInfo.getNextContent();
                 Data data = Data.newPBData(content.getContent().toByteArray());
                 String type = content.getType();
-                processMessage(msgInfo.getAction(), type, data);
+                processMessage(msgInfo.getAction(), data, messageProcessors.get(type));
+                processMessage(msgInfo.getAction(), data, destinationProcessors.get(destName));
             }
         } catch (Exception e) {
             LOGGER.error("Error processBytesMessage", e);
@@ -165,12 +181,14 @@ public class MessageManager {
         }
     }
     
-    public void shutdown() {
+    synchronized public void shutdown() {
         for (ManagedListener listener : listeners) {
             listener.stop();
         }
         listeners.clear();
+        listenedDestinations.clear();
         messageProcessors.clear();
+        destinationProcessors.clear();
     }
     
     // Message Listeners
@@ -197,7 +215,7 @@ public class MessageManager {
         public void onMessage(Message msg) {
             try {
                 if (msg instanceof BytesMessage) {
-                    processBytesMessage((BytesMessage) msg);
+                    processBytesMessage((BytesMessage) msg, destName);
                 } else {
                     LOGGER.error("Unsupported message type: {}", msg.getClass().getName());
                 }
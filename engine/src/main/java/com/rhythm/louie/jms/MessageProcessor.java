@@ -22,6 +22,11 @@ import com.rhythm.louie.request.data.Data;
  * @author cjohnson
  */
 public interface MessageProcessor {
+    /**
+     * The type of a processor that is given every message sent for the 
+     * service it is registered to, whatever its content
+     */
+    public static final String ANY_TYPE = "*";
     
     public String getType();
     
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2015 Rhythm & Hues Studios.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rhythm.louie.json;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.EnumValueDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Message;
+import com.googlecode.protobuf.format.JsonFormat;
+
+/**
+ * Writes messages as json straight to a Writer, in the same format as 
+ * JsonFormat, but without building a string per message.  The fields of each 
+ * message type are resolved once into a cached writer, so writing a message 
+ * does not sort its fields or build a map of them.
+ * 
+ * Types that can hold bytes, groups or extensions, and messages carrying 
+ * unknown fields, are handed to JsonFormat.
+ * 
+ * @author cjohnson
+ */
+public class JsonMessageWriter {
+    private static final ConcurrentMap<Descriptor, MessageWriter> writers = new ConcurrentHashMap<>();
+    
+    private static final BigInteger UNSIGNED_LONG_OFFSET = BigInteger.ONE.shiftLeft(64);
+    
+    private JsonMessageWriter() {}
+    
+    /**
+     * Writes the message as a json object
+     */
+    public static void write(Message message, Writer writer) throws IOException {
+        MessageWriter messageWriter = getWriter(message.getDescriptorForType());
+        if (messageWriter == null || !message.getUnknownFields().asMap().isEmpty()) {
+            JsonFormat.print(message, writer);
+        } else {
+            messageWriter.write(message, writer);
+        }
+    }
+    
+    /**
+     * Writes the string as a quoted and escaped json string
+     */
+    public static void writeString(String value, Writer writer) throws IOException {
+        writer.write('"');
+        int start = 0;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            String escape;
+            switch (c) {
+                case '\b': escape = "\\b"; break;
+                case '\f': escape = "\\f"; break;
+                case '\n': escape = "\\n"; break;
+                case '\r': escape = "\\r"; break;
+                case '\t': escape = "\\t"; break;
+                case '\\': escape = "\\\\"; break;
+                case '"': escape = "\\\""; break;
+                default:
+                    if (c < 0x20 || Character.isSurrogate(c)) {
+                        escape = unicodeEscape(c);
+                    } else {
+                        continue;
+                    }
+            }
+            writer.write(value, start, i - start);
+            writer.write(escape);
+            start = i + 1;
+        }
+        writer.write(value, start, length - start);
+        writer.write('"');
+    }
+    
+    private static String unicodeEscape(char c) {
+        String hex = Integer.toHexString(c);
+        return "\\u0000".substring(0, 6 - hex.length()) + hex;
+    }
+    
+    /**
+     * @return the writer for the type, or null if the type is left to JsonFormat
+     */
+    private static MessageWriter getWriter(Descriptor descriptor) {
+        MessageWriter messageWriter = writers.get(descriptor);
+        if (messageWriter == null) {
+            messageWriter = new MessageWriter(descriptor);
+            MessageWriter existing = writers.putIfAbsent(descriptor, messageWriter);
+            if (existing != null) {
+                messageWriter = existing;
+            }
+        }
+        return messageWriter.isSupported() ? messageWriter : null;
+    }
+    
+    private static class MessageWriter {
+        private final FieldDescriptor[] fields;
+        private final String[] prefixes;
+        private final boolean supported;
+        
+        MessageWriter(Descriptor descriptor) {
+            List<FieldDescriptor> sorted = new ArrayList<>(descriptor.getFields());
+            // JsonFormat writes fields in field number order
+            Collections.sort(sorted, new Comparator<FieldDescriptor>() {
+                @Override
+                public int compare(FieldDescriptor o1, FieldDescriptor o2) {
+                    return Integer.compare(o1.getNumber(), o2.getNumber());
+                }
+            });
+            fields = sorted.toArray(new FieldDescriptor[sorted.size()]);
+            prefixes = new String[fields.length];
+            
+            boolean ok = descriptor.getExtensions().isEmpty() 
+                    && descriptor.toProto().getExtensionRangeCount() == 0;
+            for (int f = 0; f < fields.length; f++) {
+                FieldDescriptor.Type type = fields[f].getType();
+                if (type == FieldDescriptor.Type.BYTES || type == FieldDescriptor.Type.GROUP) {
+                    ok = false;
+                }
+                prefixes[f] = "\"" + fields[f].getName() + "\": ";
+            }
+            supported = ok;
+        }
+        
+        boolean isSupported() {
+            return supported;
+        }
+        
+        void write(Message message, Writer writer) throws IOException {
+            writer.write('{');
+            boolean firstField = true;
+            for (int f = 0; f < fields.length; f++) {
+                FieldDescriptor field = fields[f];
+                if (field.isRepeated()) {
+                    int count = message.getRepeatedFieldCount(field);
+                    if (count == 0) {
+                        continue;
+                    }
+                    if (!firstField) {
+                        writer.write(',');
+                    }
+                    writer.write(prefixes[f]);
+                    writer.write('[');
+                    for (int i = 0; i < count; i++) {
+                        if (i > 0) {
+                            writer.write(',');
+                        }
+                        writeValue(field, message.getRepeatedField(field, i), writer);
+                    }
+                    writer.write(']');
+                } else {
+                    if (!message.hasField(field)) {
+                        continue;
+                    }
+                    if (!firstField) {
+                        writer.write(',');
+                    }
+                    writer.write(prefixes[f]);
+                    writeValue(field, message.getField(field), writer);
+                }
+                firstField = false;
+            }
+            writer.write('}');
+        }
+        
+        private void writeValue(FieldDescriptor field, Object value, Writer writer) throws IOException {
+            switch (field.getType()) {
+                case UINT32:
+                case FIXED32:
+                    int i = (Integer) value;
+                    writer.write(i >= 0 ? Integer.toString(i) : Long.toString(i & 0xFFFFFFFFL));
+                    break;
+                case UINT64:
+                case FIXED64:
+                    long l = (Long) value;
+                    writer.write(l >= 0 ? Long.toString(l) 
+                            : BigInteger.valueOf(l).add(UNSIGNED_LONG_OFFSET).toString());
+                    break;
+                case STRING:
+                    writeString((String) value, writer);
+                    break;
+                case ENUM:
+                    writer.write('"');
+                    writer.write(((EnumValueDescriptor) value).getName());
+                    writer.write('"');
+                    break;
+                case MESSAGE:
+                    JsonMessageWriter.write((Message) value, writer);
+                    break;
+                default:
+                    // signed ints, floats and bools
+                    writer.write(value.toString());
+            }
+        }
+    }
+}
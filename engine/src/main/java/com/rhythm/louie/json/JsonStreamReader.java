@@ -0,0 +1,271 @@
+/*
+ * Copyright 2015 Rhythm & Hues Studios.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rhythm.louie.json;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Reads json a token at a time straight off of a Reader, without first 
+ * buffering the whole document.  Values other than strings can be read as 
+ * their raw json text, which is how arguments are handed to JsonFormat.
+ * 
+ * @author cjohnson
+ */
+public class JsonStreamReader {
+    private final Reader reader;
+    private int peeked = -2;
+    
+    // whether the next element at each depth is the first, to place commas
+    private boolean[] first = new boolean[8];
+    private int depth = 0;
+    
+    public JsonStreamReader(Reader reader) {
+        this.reader = reader;
+    }
+    
+    private int peekChar() throws IOException {
+        if (peeked == -2) {
+            peeked = reader.read();
+        }
+        return peeked;
+    }
+    
+    private int readChar() throws IOException {
+        int c = peekChar();
+        peeked = -2;
+        return c;
+    }
+    
+    private int peekNonWhitespace() throws IOException {
+        int c = peekChar();
+        while (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+            readChar();
+            c = peekChar();
+        }
+        return c;
+    }
+    
+    private void expect(char expected) throws IOException {
+        int c = peekNonWhitespace();
+        if (c != expected) {
+            throw syntaxError("Expected '"+expected+"'", c);
+        }
+        readChar();
+    }
+    
+    private IOException syntaxError(String message, int c) {
+        return new IOException("JSON Parse Exception, "+message+" but found "
+                +(c == -1 ? "EOF" : "'"+(char) c+"'"));
+    }
+    
+    private void push() {
+        if (++depth == first.length) {
+            first = Arrays.copyOf(first, first.length * 2);
+        }
+        first[depth] = true;
+    }
+    
+    public void beginObject() throws IOException {
+        expect('{');
+        push();
+    }
+    
+    public void endObject() throws IOException {
+        expect('}');
+        depth--;
+    }
+    
+    public void beginArray() throws IOException {
+        expect('[');
+        push();
+    }
+    
+    public void endArray() throws IOException {
+        expect(']');
+        depth--;
+    }
+    
+    /**
+     * @return true if the current object or array has another element, 
+     * consuming the comma before it
+     */
+    public boolean hasNext() throws IOException {
+        int c = peekNonWhitespace();
+        if (c == '}' || c == ']') {
+            return false;
+        }
+        if (first[depth]) {
+            first[depth] = false;
+        } else if (c == ',') {
+            readChar();
+        } else {
+            throw syntaxError("Expected ','", c);
+        }
+        return true;
+    }
+    
+    /**
+     * @return the name of the next member of the current object
+     */
+    public String nextName() throws IOException {
+        expect('"');
+        String name = readString();
+        expect(':');
+        return name;
+    }
+    
+    /**
+     * @return true if the next value is an array, which is left unread
+     */
+    public boolean peekArray() throws IOException {
+        return peekNonWhitespace() == '[';
+    }
+    
+    /**
+     * @return true if the next value is an object, which is left unread
+     */
+    public boolean peekObject() throws IOException {
+        return peekNonWhitespace() == '{';
+    }
+    
+    /**
+     * Reads the next value as a string.  A string value is unescaped, null is 
+     * returned as null, and any other value is returned as its json text.
+     */
+    public String nextString() throws IOException {
+        int c = peekNonWhitespace();
+        if (c == '"') {
+            readChar();
+            return readString();
+        }
+        StringBuilder raw = new StringBuilder();
+        readRaw(raw);
+        if (raw.length() == 4 && raw.toString().equals("null")) {
+            return null;
+        }
+        return raw.toString();
+    }
+    
+    public void skipValue() throws IOException {
+        readRaw(null);
+    }
+    
+    /**
+     * Copies the next value, dropping whitespace between tokens
+     */
+    private void readRaw(StringBuilder raw) throws IOException {
+        int c = peekNonWhitespace();
+        if (c == '{' || c == '[') {
+            char close = c == '{' ? '}' : ']';
+            append(raw, readChar());
+            boolean firstMember = true;
+            while (peekNonWhitespace() != close) {
+                if (!firstMember) {
+                    expect(',');
+                    append(raw, ',');
+                }
+                firstMember = false;
+                if (close == '}') {
+                    readRaw(raw);
+                    expect(':');
+                    append(raw, ':');
+                }
+                readRaw(raw);
+            }
+            append(raw, readChar());
+        } else if (c == '"') {
+            append(raw, readChar());
+            while (true) {
+                c = readChar();
+                if (c == -1) {
+                    throw syntaxError("Unterminated string", c);
+                }
+                append(raw, c);
+                if (c == '\\') {
+                    append(raw, readChar());
+                } else if (c == '"') {
+                    break;
+                }
+            }
+        } else {
+            int length = 0;
+            while ((c >= '0' && c <= '9') || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+                    || c == '-' || c == '+' || c == '.') {
+                append(raw, readChar());
+                length++;
+                c = peekChar();
+            }
+            if (length == 0) {
+                throw syntaxError("Expected a value", c);
+            }
+        }
+    }
+    
+    private static void append(StringBuilder raw, int c) {
+        if (raw != null) {
+            raw.append((char) c);
+        }
+    }
+    
+    /**
+     * Reads the rest of a string whose opening quote has been consumed
+     */
+    private String readString() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        while (true) {
+            int c = readChar();
+            switch (c) {
+                case -1:
+                    throw syntaxError("Unterminated string", c);
+                case '"':
+                    return sb.toString();
+                case '\\':
+                    c = readChar();
+                    switch (c) {
+                        case 'b': sb.append('\b'); break;
+                        case 'f': sb.append('\f'); break;
+                        case 'n': sb.append('\n'); break;
+                        case 'r': sb.append('\r'); break;
+                        case 't': sb.append('\t'); break;
+                        case 'u':
+                            char[] hex = new char[4];
+                            for (int i = 0; i < 4; i++) {
+                                int h = readChar();
+                                if (h == -1) {
+                                    throw syntaxError("Unterminated string", h);
+                                }
+                                hex[i] = (char) h;
+                            }
+                            try {
+                                sb.append((char) Integer.parseInt(new String(hex), 16));
+                            } catch (NumberFormatException ex) {
+                                throw new IOException("JSON Parse Exception, Invalid unicode escape \\u"+new String(hex));
+                            }
+                            break;
+                        case -1:
+                            throw syntaxError("Unterminated string", c);
+                        default:
+                            sb.append((char) c);
+                    }
+                    break;
+                default:
+                    sb.append((char) c);
+            }
+        }
+    }
+}
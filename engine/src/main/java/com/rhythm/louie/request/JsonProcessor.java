@@ -15,10 +15,8 @@
  */
 package com.rhythm.louie.request;
 
-import com.google.common.base.Joiner;
 import com.google.common.base.Strings;
 import com.google.protobuf.Message;
-import com.googlecode.protobuf.format.JsonFormat;
 
 import com.rhythm.pb.DataTypeProtos;
 import com.rhythm.pb.DataTypeProtos.IntPB;
@@ -28,12 +26,17 @@ import com.rhythm.pb.DataTypeProtos.UIntPB;
 import com.rhythm.pb.RequestProtos.RequestHeaderPB;
 import com.rhythm.pb.RequestProtos.RequestPB;
 
+import com.rhythm.louie.json.JsonMessageWriter;
+import com.rhythm.louie.json.JsonStreamReader;
 import com.rhythm.louie.request.data.DataType;
 import com.rhythm.louie.request.data.Param;
 import com.rhythm.louie.request.data.Result;
+import com.rhythm.louie.server.RequestStats;
 
+import java.io.FilterWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -42,10 +45,6 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import net.sf.json.JSONArray;
-import net.sf.json.JSONObject;
-import net.sf.json.JSONSerializer;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -62,6 +61,13 @@ public class JsonProcessor implements JsonProcess {
     private static final String SYSTEM = "system";
     private static final String METHOD = "method";
     private static final String PARAMS = "params";
+    private static final String TYPES = "types";
+    private static final String ARG = "arg";
+    private static final String TYPE = "type";
+    private static final String VALUE = "value";
+    
+    public static final String JSON_CONTENT = "application/json";
+    public static final String NDJSON_CONTENT = "application/x-ndjson";
     
     private static final String UINT_TYPE = UIntPB.getDescriptor().getFullName();
     private static final String INT_TYPE = IntPB.getDescriptor().getFullName();
@@ -93,148 +99,252 @@ public class JsonProcessor implements JsonProcess {
                 }]
        }";
     */
-    @SuppressWarnings("deprecation")
     private void processJsonRequest(HttpServletRequest req,
             HttpServletResponse resp) throws IOException {
-        resp.setContentType("application/json");
+        boolean ndjson = acceptsNdjson(req.getHeader("Accept"));
+        resp.setContentType(ndjson ? NDJSON_CONTENT : JSON_CONTENT);
         
         try {
-            long start=System.nanoTime();
-            
-            StringBuilder sb = new StringBuilder();
-            String line;
-            while((line = req.getReader().readLine()) != null) {
-                sb.append(line);
-            }
-            
-            JSONObject json = (JSONObject) JSONSerializer.toJSON(sb.toString());
-            
-            String version = json.optString(VERSION);
-            
-            String who = json.optString(USER);
-            if (who == null || who.equals("")) {
-                who = "unknown";
-            }
-            String agent = json.optString(AGENT);
-            String service = json.optString(SYSTEM);
-            String method = json.optString(METHOD);
-            
-            if (service == null || service.isEmpty()) {
-                throw new Exception("Improper Request format!  Missing System.");
-            }
-            if(method == null || method.isEmpty()) {
-                throw new Exception("Improper Request format!  Missing Method.");
+            processRequest(req.getReader(), resp.getWriter(), 
+                    req.getHeader("user-agent"), RequestProperties.fromHttpRequest(req), ndjson);
+        } catch(Exception e) {
+            String errorMessage = e.getMessage()==null ? e.toString(): e.getMessage();
+            sendError(resp, errorMessage);
+            LOGGER.error(errorMessage);
+        }
+    }
+    
+    /**
+     * Sends the error as the status of the response, unless part of a result 
+     * has already been sent. Then the error record written by handleResult 
+     * ends the response instead.
+     */
+    private static void sendError(HttpServletResponse resp, String errorMessage) throws IOException {
+        if (!resp.isCommitted()) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST,errorMessage);
+        }
+    }
+    
+    /**
+     * Processes a json request read from input, writing the json result to output.
+     * This is independent of the servlet api so that it can be hosted elsewhere,
+     * such as by the EmbeddedServer
+     * 
+     * @param input the body of the request
+     * @param output where the result is written
+     * @param userAgent the user-agent of the caller, used if the request does not specify an agent
+     * @param props the properties of the request
+     * @throws Exception if the request is malformed or could not be processed
+     */
+    public void processRequest(Reader input, Writer output, String userAgent,
+            RequestProperties props) throws Exception {
+        processRequest(input, output, userAgent, props, false);
+    }
+    
+    /**
+     * Processes a json request read from input, writing the json result to output,
+     * either as a json array or as newline delimited json, one message per line.
+     * A streaming result is flushed as it is written, in either format.
+     * 
+     * @param input the body of the request
+     * @param output where the result is written
+     * @param userAgent the user-agent of the caller, used if the request does not specify an agent
+     * @param props the properties of the request
+     * @param ndjson true to write newline delimited json
+     * @throws Exception if the request is malformed or could not be processed
+     */
+    @SuppressWarnings("deprecation")
+    public void processRequest(Reader input, Writer output, String userAgent,
+            RequestProperties props, boolean ndjson) throws Exception {
+        long start=System.nanoTime();
+
+        String version = "";
+        String who = null;
+        String agent = null;
+        String service = null;
+        String method = null;
+        List<String> types = null;
+        List<JsonParam> params = null;
+        
+        // Parsed as it is read, the arguments are kept as json text for JsonFormat
+        JsonStreamReader json = new JsonStreamReader(input);
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case VERSION: version = Strings.nullToEmpty(json.nextString()); break;
+                case USER: who = json.nextString(); break;
+                case AGENT: agent = json.nextString(); break;
+                case SYSTEM: service = json.nextString(); break;
+                case METHOD: method = json.nextString(); break;
+                case TYPES: types = readStrings(json); break;
+                case PARAMS: params = readParams(json); break;
+                default: json.skipValue();
             }
-            
-            RequestHeaderPB requestHeader = RequestHeaderPB.newBuilder()
-                    .setUser(who)
-                    .setAgent(req.getHeader("user-agent"))
-                    .setCount(1)
-                    .build();
-            RequestPB.Builder reqBuilder = RequestPB.newBuilder()
-                    .setId(1)
-                    .setService(service)
-                    .setMethod(method);
-            
-            List<String> args = new ArrayList<>();
-            
-            /****************************
-             *         VERSION 1        *
-             ****************************/
-            if (version.isEmpty() || version.equals("1")) {
-                JSONArray types = json.optJSONArray("types");
-                if (types != null) {
-                    for (int i = 0; i < types.size(); i++) {
-                        String type = types.getString(i);
-                        if (type == null || type.isEmpty()) {
-                            throw new Exception("Improper Request format!  Type cannot by blank.");
-                        }
-                        if (type.equals(UINT_TYPE)){
-                            type = INT_TYPE;
-                        } else if (type.equals(UINT_LISTTYPE)) {
-                            type = INT_LISTTYPE;
-                        }
-                        reqBuilder.addType(type);
-                    }
-                }
-                JSONArray params = json.optJSONArray(PARAMS);
-                if (params != null) {
-                    if (params.size()>1) {
-                        throw new Exception("Multiple Parameter sets is not supported!");
+        }
+        json.endObject();
+        
+        if (who == null || who.equals("")) {
+            who = "unknown";
+        }
+        
+        if (service == null || service.isEmpty()) {
+            throw new Exception("Improper Request format!  Missing System.");
+        }
+        if(method == null || method.isEmpty()) {
+            throw new Exception("Improper Request format!  Missing Method.");
+        }
+        
+        RequestHeaderPB requestHeader = RequestHeaderPB.newBuilder()
+                .setUser(who)
+                .setAgent(Strings.nullToEmpty(userAgent))
+                .setCount(1)
+                .build();
+        RequestPB.Builder reqBuilder = RequestPB.newBuilder()
+                .setId(1)
+                .setService(service)
+                .setMethod(method);
+        
+        List<String> args = new ArrayList<>();
+        
+        /****************************
+         *         VERSION 1        *
+         ****************************/
+        if (version.isEmpty() || version.equals("1")) {
+            if (types != null) {
+                for (String type : types) {
+                    if (type == null || type.isEmpty()) {
+                        throw new Exception("Improper Request format!  Type cannot by blank.");
                     }
-                    if (params.size()==1) {
-                        JSONObject param = params.getJSONObject(0);
-                        JSONArray argsArray = param.getJSONArray("arg");
-                        if (argsArray != null) {
-                            for (int i = 0; i < argsArray.size(); i++) {
-                                String arg = argsArray.getString(i);
-                                args.add(arg);
-                            }
-                        }
+                    if (type.equals(UINT_TYPE)){
+                        type = INT_TYPE;
+                    } else if (type.equals(UINT_LISTTYPE)) {
+                        type = INT_LISTTYPE;
                     }
+                    reqBuilder.addType(type);
                 }
-                
-             /****************************
-             *         VERSION 2        *
-             ****************************/
-            } else if (version.equals("2")) {
-                JSONArray params = json.optJSONArray(PARAMS);
-                if (params != null) {
-                    for (int i = 0; i < params.size(); i++) {
-                        JSONObject param = params.getJSONObject(i);
-                        String type = param.optString("type");
-                        String value = param.optString("value");
-                        if (type == null || type.isEmpty()) {
-                            throw new Exception("Improper Request format!  Type cannot by blank.");
-                        }
-                        if (type.equals(UINT_TYPE)){
-                            type = INT_TYPE;
-                        } else if (type.equals(UINT_LISTTYPE)) {
-                            type = INT_LISTTYPE;
-                        }
-                        reqBuilder.addType(type);
-                        args.add(value);
+            }
+            if (params != null) {
+                if (params.size()>1) {
+                    throw new Exception("Multiple Parameter sets is not supported!");
+                }
+                if (params.size()==1) {
+                    List<String> argsArray = params.get(0).arg;
+                    if (argsArray != null) {
+                        args.addAll(argsArray);
                     }
                 }
-                
-            /****************************
-             *         VERSION ???      *
-             ****************************/
-            } else {
-                throw new Exception("Unable to process JSON request!  Uknown version: "+version);
             }
             
-            RequestPB request = reqBuilder.build();
+         /****************************
+         *         VERSION 2        *
+         ****************************/
+        } else if (version.equals("2")) {
+            if (params != null) {
+                for (JsonParam param : params) {
+                    String type = param.type;
+                    if (type == null || type.isEmpty()) {
+                        throw new Exception("Improper Request format!  Type cannot by blank.");
+                    }
+                    if (type.equals(UINT_TYPE)){
+                        type = INT_TYPE;
+                    } else if (type.equals(UINT_LISTTYPE)) {
+                        type = INT_LISTTYPE;
+                    }
+                    reqBuilder.addType(type);
+                    args.add(Strings.nullToEmpty(param.value));
+                }
+            }
             
-            RequestProperties props = RequestProperties.fromHttpRequest(req);
+        /****************************
+         *         VERSION ???      *
+         ****************************/
+        } else {
+            throw new Exception("Unable to process JSON request!  Uknown version: "+version);
+        }
+        
+        RequestPB request = reqBuilder.build();
+        
+        RequestContext pbReq = new RequestContext(requestHeader, request, DataType.JSON, props);
+        pbReq.addParam(Param.buildJsonParam(args));
+        pbReq.setRoute(props.createRoute(request.getService()));
 
-            RequestContext pbReq = new RequestContext(requestHeader, request, DataType.JSON, props);
-            pbReq.addParam(Param.buildJsonParam(args));
-            pbReq.setRoute(props.createRoute(request.getService()));
+        if (agent != null && !agent.isEmpty()) {
+            pbReq.setUserAgent(agent);
+        } else {
+            pbReq.setUserAgent(Strings.nullToEmpty(userAgent));
+        }
 
-            if (agent != null && !agent.isEmpty()) {
-                pbReq.setUserAgent(agent);
-            } else {
-                pbReq.setUserAgent(Strings.nullToEmpty(req.getHeader("user-agent")));
+        Result result = RequestHandler.processSingleRequest(pbReq);
+        long execEnd = System.nanoTime();
+        result.setExecTime((execEnd-start) / 1000000);
+        handleResult(pbReq.getRequest().getService(), result, output, ndjson);
+        long end = System.nanoTime();
+        result.setDuration((end-start) / 1000000);
+        
+        RequestHandler.logRequest(pbReq, result);
+        RequestStats.record(pbReq, result, end-start, execEnd-start, end-execEnd);
+    }
+    
+    /**
+     * @return the strings of an array, or null if the value is not an array
+     */
+    private static List<String> readStrings(JsonStreamReader json) throws IOException {
+        if (!json.peekArray()) {
+            json.skipValue();
+            return null;
+        }
+        List<String> values = new ArrayList<>();
+        json.beginArray();
+        while (json.hasNext()) {
+            values.add(json.nextString());
+        }
+        json.endArray();
+        return values;
+    }
+    
+    /**
+     * @return the parameters, or null if the value is not an array
+     */
+    private static List<JsonParam> readParams(JsonStreamReader json) throws IOException {
+        if (!json.peekArray()) {
+            json.skipValue();
+            return null;
+        }
+        List<JsonParam> params = new ArrayList<>();
+        json.beginArray();
+        while (json.hasNext()) {
+            JsonParam param = new JsonParam();
+            json.beginObject();
+            while (json.hasNext()) {
+                switch (json.nextName()) {
+                    case ARG: param.arg = readStrings(json); break;
+                    case TYPE: param.type = json.nextString(); break;
+                    case VALUE: param.value = json.nextString(); break;
+                    default: json.skipValue();
+                }
             }
-
-            Result result = RequestHandler.processSingleRequest(pbReq);
-            result.setExecTime((System.nanoTime()-start) / 1000000);
-            handleResult(result,resp);
-            result.setDuration((System.nanoTime()-start) / 1000000);
-            
-            RequestHandler.logRequest(pbReq, result);
-        } catch(Exception e) {
-            String errorMessage = e.getMessage()==null ? e.toString(): e.getMessage();
-            resp.sendError(HttpServletResponse.SC_BAD_REQUEST,errorMessage);
-            LOGGER.error(errorMessage);
+            json.endObject();
+            params.add(param);
         }
+        json.endArray();
+        return params;
+    }
+    
+    /**
+     * A parameter of a json request, version 1 lists its args, while version 2 
+     * has a single typed value
+     */
+    private static class JsonParam {
+        List<String> arg;
+        String type;
+        String value;
     }
     
     @SuppressWarnings("deprecation")
     private void processFormRequest(HttpServletRequest req,
             HttpServletResponse resp) throws IOException {
-        resp.setContentType("application/json");
+        boolean ndjson = acceptsNdjson(req.getHeader("Accept"));
+        resp.setContentType(ndjson ? NDJSON_CONTENT : JSON_CONTENT);
         
         //if (true) throw new UnsupportedOperationException();
         
@@ -291,48 +401,171 @@ public class JsonProcessor implements JsonProcess {
             pbReq.setUserAgent(Strings.nullToEmpty(req.getHeader("user-agent")));
 
             Result result = RequestHandler.processSingleRequest(pbReq);
-            result.setExecTime((System.nanoTime() - start) / 1000000);
-            handleResult(result, resp);
-            result.setDuration((System.nanoTime() - start) / 1000000);
+            long execEnd = System.nanoTime();
+            result.setExecTime((execEnd - start) / 1000000);
+            handleResult(pbReq.getRequest().getService(), result, resp.getWriter(), ndjson);
+            long end = System.nanoTime();
+            result.setDuration((end - start) / 1000000);
 
             RequestHandler.logRequest(pbReq, result);
+            RequestStats.record(pbReq, result, end - start, execEnd - start, end - execEnd);
         } catch (Exception e) {
             String errorMessage = e.getMessage()==null ? e.toString(): e.getMessage();
-            resp.sendError(HttpServletResponse.SC_BAD_REQUEST,errorMessage);
+            sendError(resp, errorMessage);
             LOGGER.error(errorMessage,e);
         }
     }
     
-    private void handleResult(Result result,HttpServletResponse resp) throws Exception {
-        PrintWriter writer = resp.getWriter();
-        writer.write("[");
+    /**
+     * @param accept the Accept header of the request
+     * @return true if the caller asked for newline delimited json
+     */
+    public static boolean acceptsNdjson(String accept) {
+        return accept != null && accept.contains(NDJSON_CONTENT);
+    }
+    
+    /**
+     * Writes the messages as a json array, or one per line for ndjson.  A 
+     * streaming result is flushed the same as on the pb endpoint, the first 
+     * message right away, then batched by size or time, whichever comes first.
+     * 
+     * If reading the messages fails partway, as a streaming result can, an 
+     * error record {"error":message} is written as the last element before 
+     * the exception is thrown, since the messages before it may already have 
+     * been sent with a successful status.
+     */
+    void handleResult(String service, Result result, Writer output, boolean ndjson) throws Exception {
+        CountingWriter writer = new CountingWriter(output);
+        String separator = ndjson ? "\n" : ",";
+        if (!ndjson) {
+            writer.write("[");
+        }
         if (result != null && !result.getMessages().isEmpty()) {
-            int totalSize = 0;
+            StreamFlusher flusher = null;
+            if (result.isStreaming()) {
+                flusher = new StreamFlusher(writer, service);
+            }
+            
+            long totalSize = 0;
             boolean first = true;
-            for (Message message : result.getMessages()) {
-                if (first) {
+            try {
+                // may block between messages of a streaming result, the flusher's timer flushes meanwhile
+                for (Message message : result.getMessages()) {
+                    if (flusher == null) {
+                        totalSize += writeMessage(message, writer, separator, ndjson, first);
+                    } else {
+                        synchronized (flusher) {
+                            long size = writeMessage(message, writer, separator, ndjson, first);
+                            totalSize += size;
+                            flusher.written((int) size);
+                        }
+                    }
                     first = false;
-                } else {
-                    writer.write(",");
                 }
-
-                String s = printToJson(message);
-                writer.write(s);
-                totalSize += s.length();
+            } catch (Exception e) {
+                writeError(e, writer, ndjson, first);
+                throw e;
+            } finally {
+                if (flusher != null) {
+                    flusher.close();
+                }
             }
             result.setSize(totalSize);
         }
-        writer.write("]");
+        if (!ndjson) {
+            writer.write("]");
+        }
+    }
+    
+    /**
+     * Writes a message as the next element of the response
+     * 
+     * @return the size of the message itself, without any separator
+     */
+    private long writeMessage(Message message, CountingWriter writer, String separator, 
+            boolean ndjson, boolean first) throws IOException {
+        if (!first && !ndjson) {
+            writer.write(separator);
+        }
+        long before = writer.getCount();
+        writeJson(message, writer, separator);
+        long size = writer.getCount() - before;
+        if (ndjson) {
+            writer.write(separator);
+        }
+        return size;
+    }
+    
+    /**
+     * Ends the response with an error record in place of the rest of the 
+     * messages, closing the array if not ndjson
+     */
+    private void writeError(Exception e, Writer writer, boolean ndjson, boolean first) {
+        String errorMessage = e.getMessage()==null ? e.toString(): e.getMessage();
+        try {
+            if (!first && !ndjson) {
+                writer.write(",");
+            }
+            writer.write("{\"error\":");
+            JsonMessageWriter.writeString(errorMessage, writer);
+            writer.write(ndjson ? "}\n" : "}]");
+            writer.flush();
+        } catch (IOException ex) {
+            // the caller most likely went away, which is what failed the result
+            LOGGER.debug("Unable to write error record: {}", ex.toString());
+        }
     }
     
-    private String printToJson(Message message) {
+    /**
+     * Writes the message straight to the writer, a StringListPB is written as 
+     * its bare strings, split by the separator
+     */
+    private void writeJson(Message message, Writer writer, String separator) throws IOException {
         if (message instanceof StringListPB) {
-            StringListPB list = (StringListPB) message;
-            return Joiner.on("\",\"")
-                    .appendTo(new StringBuilder("\""), list.getValuesList())
-                    .append("\"")
-                    .toString();
+            boolean first = true;
+            for (String value : ((StringListPB) message).getValuesList()) {
+                if (first) {
+                    first = false;
+                } else {
+                    writer.write(separator);
+                }
+                JsonMessageWriter.writeString(value, writer);
+            }
+            return;
+        }
+        JsonMessageWriter.write(message, writer);
+    }
+    
+    /**
+     * Counts the chars written through it, to size the response
+     */
+    private static class CountingWriter extends FilterWriter {
+        private long count = 0;
+        
+        public CountingWriter(Writer out) {
+            super(out);
+        }
+        
+        @Override
+        public void write(int c) throws IOException {
+            out.write(c);
+            count++;
+        }
+        
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            out.write(cbuf, off, len);
+            count += len;
+        }
+        
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            out.write(str, off, len);
+            count += len;
+        }
+        
+        public long getCount() {
+            return count;
         }
-        return JsonFormat.printToString(message);
     }
 }
@@ -31,6 +31,7 @@ public class LogVars {
     public static final String REQID        = "reqid";
     public static final String MODULE       = "module";
     public static final String LANGUAGE     = "language";
+    public static final String PHASES       = "phases";
     
     // Used By Auth Logs
     public static final String USER         = "user";
@@ -17,7 +17,9 @@ package com.rhythm.louie.request;
 
 import java.io.*;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -36,8 +38,15 @@ import org.joda.time.format.PeriodFormatterBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.rhythm.louie.compression.Codec;
+import com.rhythm.louie.compression.Codecs;
+import com.rhythm.louie.compression.CompressedOutputStream;
 import com.rhythm.louie.email.EmailService;
+import com.rhythm.louie.exception.LouieDeadlineException;
+import com.rhythm.louie.exception.LouieOverloadException;
+import com.rhythm.louie.exception.LouieRateLimitException;
 import com.rhythm.louie.request.data.DataType;
+import com.rhythm.louie.request.data.EncodedResponse;
 import com.rhythm.louie.request.data.Result;
 import com.rhythm.louie.server.*;
 import com.rhythm.louie.services.auth.*;
@@ -59,11 +68,24 @@ public class ProtoProcessor implements ProtoProcess {
     private final Logger LOGGER = LoggerFactory.getLogger(ProtoProcessor.class);
     private final Pattern userCN;
     private final boolean secured;
-    private static final Map<Long, RequestContext> currentRequestMap = new ConcurrentHashMap<>();
+    private static boolean monitorStarted = false;
     
     public ProtoProcessor() {
         secured = Server.getLocal().isSecure();
         userCN = Pattern.compile(".*CN=([\\w\\s]+),*.*");
+        startMonitor();
+    }
+    
+    /**
+     * Starts the Request Monitor, once, no matter how many processors are created
+     */
+    private void startMonitor() {
+        synchronized (ProtoProcessor.class) {
+            if (monitorStarted) {
+                return;
+            }
+            monitorStarted = true;
+        }
         AlertProperties prop = AlertProperties.getProperties(AlertProperties.REQUEST);
         if (prop != null) {
             int cycle = prop.getMonitorPollCycle();
@@ -79,14 +101,13 @@ public class ProtoProcessor implements ProtoProcess {
         long start = System.nanoTime();
 
         RequestHeaderPB header = RequestHeaderPB.parseDelimitedFrom(input);
-        if (header.getCount()>1) {
-            throw new Exception("Batching Requests is not supported!");
-        }
         
+        long sessionStart = System.nanoTime();
         IdentityPB identity = null;
         SessionKey sessionKey = null;
+        SessionStat session = null;
         if (header.hasKey()) {
-            SessionStat session = AuthUtils.accessSession(header.getKey());
+            session = AuthUtils.accessSession(header.getKey());
             identity = session.getIdentity();
         } else { //initial request, we will handle creating and returning a key
             if (header.hasIdentity()) { //to make backwards compatible
@@ -113,15 +134,29 @@ public class ProtoProcessor implements ProtoProcess {
                 throw new UnauthenticatedException("Unable to create a Session Key, likely due to authentication failure");
             }
         }
+        long sessionNanos = System.nanoTime() - sessionStart;
         
         ResponseHeaderPB.Builder responseHeader = ResponseHeaderPB.newBuilder();
         responseHeader.setCount(header.getCount());
         if (sessionKey != null) {
             responseHeader.setKey(sessionKey);
         }
+        Codec codec = null;
+        if (CompressionProperties.isEnabled()) {
+            codec = Codecs.negotiate(header.getAcceptCodecList());
+            if (codec != null) {
+                responseHeader.setCodec(codec.getName());
+            }
+        }
+        if (header.getCount() > 1) {
+            processBatch(header, responseHeader.build(), identity, sessionKey, session, sessionNanos, 
+                    input, output, props, codec);
+            return;
+        }
         responseHeader.build().writeDelimitedTo(output);
         
         for (int r = 0; r < header.getCount(); r++) {
+            long parseStart = System.nanoTime();
             RequestPB request = RequestPB.parseDelimitedFrom(input);
             if (request == null) {
                 throw new Exception("Improper Request format! Reached EOF prematurely! @ProtoProcessor.processRequest()");
@@ -132,6 +167,7 @@ public class ProtoProcessor implements ProtoProcess {
             
             RequestContext requestContext = null;
             Result result = null;
+            long execEnd = 0;
 
             RoutePB localRoute = props.createRoute(request.getService());
             for (RoutePB route : request.getRouteList()) {
@@ -146,13 +182,17 @@ public class ProtoProcessor implements ProtoProcess {
                     requestContext.setSessionKey(sessionKey);
                 }
                 requestContext.setIdentity(identity);
+                requestContext.setSession(session);
                 requestContext.readPBParams(input);
+                requestContext.addPhaseTime(RequestPhase.SESSION, sessionNanos);
+                requestContext.addPhaseTime(RequestPhase.PARSE, System.nanoTime() - parseStart);
                 requestContext.setRoute(localRoute);
                 requestContext.setThreadId(Thread.currentThread().getId());
-                currentRequestMap.put(requestContext.getThreadID(), requestContext);
+                RequestTracker.getInstance().track(requestContext);
                 result = RequestHandler.processSingleRequest(requestContext);
-                result.setExecTime((System.nanoTime() - start) / 1000000);
-                handleResult(requestContext, result, output);
+                execEnd = System.nanoTime();
+                result.setExecTime((execEnd - start) / 1000000);
+                handleResult(requestContext, result, output, codec);
             } catch (Exception e) {
                 String errorMessage = e.getMessage() == null ? e.toString() : e.getMessage();
                 LOGGER.error("ProtoProcessor caught error: "+errorMessage,e);
@@ -175,22 +215,250 @@ public class ProtoProcessor implements ProtoProcess {
                     } catch (Exception le) {
                         LOGGER.error("Error Logging: {}", le.getMessage());
                     }
+                    if (execEnd == 0) {
+                        execEnd = end;
+                    }
+                    RequestStats.record(requestContext, result, end - start, execEnd - start, end - execEnd);
+                }
+                if (requestContext != null) {
+                    RequestTracker.getInstance().untrack(requestContext);
                 }
-                currentRequestMap.remove(Thread.currentThread().getId());
                 start = end;
             }
         }
     }
 
-    private void handleResult(RequestContext requestContext,Result result,OutputStream output) throws Exception {
-        CodedOutputStream codedOutput = CodedOutputStream.newInstance(output);
+    /**
+     * Reads every request of a batch off of the stream, then dispatches them in
+     * parallel. Responses are written in request order, unless the header
+     * specifies any_order, in which case each is written as it completes.
+     * 
+     * Nothing is written until the whole batch has been read, so a malformed
+     * batch fails as a whole.  A request that may not be executed, such as one
+     * that loops, fails on its own with an error response.
+     * 
+     * No more requests of a batch are in flight than there are request threads.
+     * If the pool is full, the next request waits for one of the batch to 
+     * complete, and only runs on this thread if none of the batch are running.
+     */
+    private void processBatch(RequestHeaderPB header, ResponseHeaderPB responseHeader, 
+            IdentityPB identity, SessionKey sessionKey, SessionStat session, long sessionNanos, 
+            InputStream input, OutputStream output, RequestProperties props, Codec codec) throws Exception {
+        List<BatchTask> tasks = new ArrayList<>(header.getCount());
+        for (int r = 0; r < header.getCount(); r++) {
+            long parseStart = System.nanoTime();
+            RequestPB request = RequestPB.parseDelimitedFrom(input);
+            if (request == null) {
+                throw new Exception("Improper Request format! Reached EOF prematurely! @ProtoProcessor.processBatch()");
+            }
+            
+            RoutePB localRoute = props.createRoute(request.getService());
+            RequestContext requestContext = new RequestContext(header, request, DataType.PB, props);
+            if (header.hasIdentity()) {
+                requestContext.setSessionKey(sessionKey);
+            }
+            requestContext.setIdentity(identity);
+            requestContext.setSession(session);
+            requestContext.readPBParams(input);
+            requestContext.addPhaseTime(RequestPhase.SESSION, sessionNanos);
+            requestContext.addPhaseTime(RequestPhase.PARSE, System.nanoTime() - parseStart);
+            requestContext.setRoute(localRoute);
+            BatchTask task = new BatchTask(tasks.size(), requestContext);
+            
+            if (request.hasRouteUser() && identity == null) {
+                task.fail(new Exception("User Route Permission Denied!"));
+            }
+            for (RoutePB route : request.getRouteList()) {
+                if (route.equals(localRoute)) {
+                    task.fail(new Exception("Route Loop Detected! "+route.getHostIp()+"/"+route.getGateway()+" visited twice!"));
+                    break;
+                }
+            }
+            tasks.add(task);
+        }
+        responseHeader.writeDelimitedTo(output);
+        
+        BatchWriter writer = new BatchWriter(tasks.size(), header.getAnyOrder(), output, codec);
+        CompletionService<BatchTask> completion = RequestExecutor.getInstance().newCompletionService();
+        int limit = Math.max(1, RequestExecutorProperties.getThreadPoolSize());
+        int running = 0;
+        for (BatchTask task : tasks) {
+            boolean submitted = false;
+            while (!submitted && !task.isDone()) {
+                if (running < limit) {
+                    try {
+                        completion.submit(task);
+                        running++;
+                        submitted = true;
+                        continue;
+                    } catch (RejectedExecutionException ex) {
+                        // the pool is full, wait on the batch's own requests
+                    }
+                }
+                if (running == 0) {
+                    task.call();
+                } else {
+                    writer.completed(completion.take().get());
+                    running--;
+                }
+            }
+            if (!submitted) {
+                writer.completed(task);
+            }
+        }
+        for (; running > 0; running--) {
+            writer.completed(completion.take().get());
+        }
+    }
+    
+    /**
+     * Writes the results of a batch as they complete, holding them back to 
+     * request order unless any order was requested
+     */
+    private class BatchWriter {
+        private final BatchTask[] completed;
+        private final boolean anyOrder;
+        private final OutputStream output;
+        private final Codec codec;
+        private int next = 0;
+        
+        public BatchWriter(int count, boolean anyOrder, OutputStream output, Codec codec) {
+            this.completed = new BatchTask[count];
+            this.anyOrder = anyOrder;
+            this.output = output;
+            this.codec = codec;
+        }
+        
+        public void completed(BatchTask task) {
+            if (anyOrder) {
+                writeBatchResult(task, output, codec);
+                return;
+            }
+            completed[task.getIndex()] = task;
+            while (next < completed.length && completed[next] != null) {
+                writeBatchResult(completed[next], output, codec);
+                completed[next++] = null;
+            }
+        }
+    }
+    
+    private void writeBatchResult(BatchTask task, OutputStream output, Codec codec) {
+        RequestContext requestContext = task.getContext();
+        Result result = task.getResult();
+        long writeStart = System.nanoTime();
+        try {
+            handleResult(requestContext, result, output, codec);
+        } catch (Exception e) {
+            String errorMessage = e.getMessage() == null ? e.toString() : e.getMessage();
+            LOGGER.error("ProtoProcessor caught error: "+errorMessage,e);
+            result.addError(e);
+        } finally {
+            long end = System.nanoTime();
+            result.setDuration((end - task.getStart()) / 1000000);
+            try {
+                RequestHandler.logRequest(requestContext, result);
+            } catch (Exception le) {
+                LOGGER.error("Error Logging: {}", le.getMessage());
+            }
+            RequestStats.record(requestContext, result, end - task.getStart(), 
+                    task.getExecEnd() - task.getStart(), end - writeStart);
+        }
+    }
+    
+    /**
+     * Executes a single request of a batch on a pooled thread
+     */
+    private static class BatchTask implements Callable<BatchTask> {
+        private final int index;
+        private final RequestContext context;
+        private final long start;
+        private long execEnd;
+        private volatile Result result;
+        
+        public BatchTask(int index, RequestContext context) {
+            this.index = index;
+            this.context = context;
+            this.start = System.nanoTime();
+        }
+        
+        /**
+         * Completes the request with an error, without executing it
+         */
+        public void fail(Exception e) {
+            result = Result.errorResult(e);
+            execEnd = System.nanoTime();
+        }
+        
+        public boolean isDone() {
+            return result != null;
+        }
+        
+        @Override
+        public BatchTask call() {
+            context.setThreadId(Thread.currentThread().getId());
+            RequestTracker.getInstance().track(context);
+            try {
+                result = RequestHandler.processSingleRequest(context);
+            } catch (Exception e) {
+                result = Result.errorResult(e);
+            } finally {
+                execEnd = System.nanoTime();
+                result.setExecTime((execEnd - start) / 1000000);
+                RequestTracker.getInstance().untrack(context);
+            }
+            return this;
+        }
+        
+        public int getIndex() {
+            return index;
+        }
+        
+        public RequestContext getContext() {
+            return context;
+        }
+        
+        public Result getResult() {
+            return result;
+        }
+        
+        public long getStart() {
+            return start;
+        }
+        
+        public long getExecEnd() {
+            return execEnd;
+        }
+    }
+    
+    /**
+     * Writes the response and its messages. If the client accepted a codec, the
+     * messages are compressed once they cross the threshold. Streaming 
+     * responses cannot be sized up front, so are always compressed.
+     * 
+     * Time blocked on the connection is recorded as the write phase of the 
+     * request, the rest as the serialize phase.
+     */
+    private void handleResult(RequestContext requestContext,Result result,OutputStream rawOutput,Codec codec) throws Exception {
+        long serializeStart = System.nanoTime();
+        TimedOutputStream output = new TimedOutputStream(rawOutput);
+        
         ResponsePB.Builder responseBuilder = ResponsePB.newBuilder();
         responseBuilder.setId(requestContext.getRequest().getId());
         
         if (result.isError()) {
             ErrorPB.Builder error = ErrorPB.newBuilder();
-            error.setCode(500);
             Exception ex = result.getException();
+            if (ex instanceof LouieOverloadException) {
+                error.setCode(503);
+            } else if (ex instanceof LouieRateLimitException) {
+                error.setCode(429);
+                error.setRetryAfter((int) Math.min(Integer.MAX_VALUE, 
+                        ((LouieRateLimitException) ex).getRetryAfter()));
+            } else if (ex instanceof LouieDeadlineException) {
+                error.setCode(504);
+            } else {
+                error.setCode(500);
+            }
             if (ex!=null) {
                 error.setType(ex.getClass().getSimpleName());
                 if (ex.getMessage()!=null) {
@@ -206,62 +474,134 @@ public class ProtoProcessor implements ProtoProcess {
                 .setRoute(requestContext.getRoute())
                 .addAllPath(requestContext.getDesinationRoutes());
         
-        if (result.getMessages().isEmpty()) {
+        EncodedResponse encoded = result.getEncoded();
+        if (encoded != null) {
+            // Already serialized, possibly by the response cache
+            responseBuilder.setCount(encoded.getCount());
+            if (encoded.getType() != null) {
+                responseBuilder.setType(encoded.getType());
+            }
+            boolean compress = codec != null && encoded.getSize() >= CompressionProperties.getThreshold();
+            if (compress) {
+                responseBuilder.setCompressed(true);
+            }
+            writeResponse(responseBuilder.build(), output);
+            if (compress) {
+                CompressedOutputStream compressed = new CompressedOutputStream(output, codec);
+                compressed.write(encoded.getBytes());
+                compressed.finish();
+            } else {
+                output.write(encoded.getBytes());
+            }
+            result.setSize(encoded.getSize());
+        } else if (result.getMessages().isEmpty()) {
             responseBuilder.setCount(0);
-            ResponsePB response = responseBuilder.build();
-            codedOutput.writeRawVarint32(response.getSerializedSize());
-            response.writeTo(codedOutput);
+            writeResponse(responseBuilder.build(), output);
         } else {
             responseBuilder.setCount(result.getMessages().size());
-            boolean first = true;
+            // Iterated once, streaming results may be produced as they are read
+            Iterator<? extends Message> messages = result.getMessages().iterator();
+            Message message = messages.next();
+            responseBuilder.setType(message.getDescriptorForType().getFullName());
+            
+            boolean compress = false;
+            if (codec != null) {
+                if (result.isStreaming()) {
+                    compress = true;
+                } else {
+                    long encodedSize = 0;
+                    for (Message m : result.getMessages()) {
+                        int serializedSize = m.getSerializedSize();
+                        encodedSize += CodedOutputStream.computeRawVarint32Size(serializedSize) + serializedSize;
+                    }
+                    compress = encodedSize >= CompressionProperties.getThreshold();
+                }
+            }
+            if (compress) {
+                responseBuilder.setCompressed(true);
+            }
+            writeResponse(responseBuilder.build(), output);
+            
+            CompressedOutputStream compressed = null;
+            OutputStream body = output;
+            if (compress) {
+                compressed = new CompressedOutputStream(output, codec);
+                body = compressed;
+            }
+            final CodedOutputStream codedOutput = CodedOutputStream.newInstance(body);
             long totalSize = 0;
-            for (Object oMessage : result.getMessages()) {
-                Message message = (Message) oMessage;
-                if (first) {
-                    responseBuilder.setType(message.getDescriptorForType().getFullName());
-
-                    ResponsePB response = responseBuilder.build();
-                    codedOutput.writeRawVarint32(response.getSerializedSize());
-                    response.writeTo(codedOutput);
-                    first = false;
+            
+            // Streaming flushes the first message right away, then batches 
+            // further flushes by size or time, whichever comes first
+            StreamFlusher flusher = null;
+            if (result.isStreaming()) {
+                final OutputStream flushBody = body;
+                flusher = new StreamFlusher(new Flushable() {
+                    @Override
+                    public void flush() throws IOException {
+                        codedOutput.flush();
+                        // a compressed stream cuts a chunk on each flush
+                        flushBody.flush();
+                    }
+                }, requestContext.getRequest().getService());
+            }
+            try {
+                while (message != null) {
+                    int serializedSize = message.getSerializedSize();
+                    if (flusher == null) {
+                        writeMessage(message, serializedSize, codedOutput);
+                    } else {
+                        synchronized (flusher) {
+                            writeMessage(message, serializedSize, codedOutput);
+                            flusher.written(serializedSize);
+                        }
+                    }
+                    totalSize+=serializedSize;
+                    // may block on a streaming result, the flusher's timer flushes meanwhile
+                    message = messages.hasNext() ? messages.next() : null;
                 }
-                int serializedSize = message.getSerializedSize();
-                codedOutput.writeRawVarint32(serializedSize);
-                message.writeTo(codedOutput);
-                if (result.isStreaming()) {
-                    codedOutput.flush();
-                    output.flush();
+            } finally {
+                if (flusher != null) {
+                    flusher.close();
                 }
-                totalSize+=serializedSize;
+            }
+            codedOutput.flush();
+            if (compressed != null) {
+                compressed.finish();
             }
             result.setSize(totalSize);
         }
-        codedOutput.flush();
         output.flush();
+        
+        requestContext.addPhaseTime(RequestPhase.WRITE, output.getNanos());
+        requestContext.addPhaseTime(RequestPhase.SERIALIZE, 
+                System.nanoTime() - serializeStart - output.getNanos());
+    }
+    
+    private static void writeMessage(Message message, int serializedSize, CodedOutputStream codedOutput) throws IOException {
+        codedOutput.writeRawVarint32(serializedSize);
+        message.writeTo(codedOutput);
+    }
+    
+    private void writeResponse(ResponsePB response, OutputStream output) throws IOException {
+        CodedOutputStream codedOutput = CodedOutputStream.newInstance(output);
+        codedOutput.writeRawVarint32(response.getSerializedSize());
+        response.writeTo(codedOutput);
+        codedOutput.flush();
     }
     
     public static List<RequestPB> getActiveRequests() {
         List<RequestPB> reqs = new ArrayList<>();
-        for (RequestContext ctx : currentRequestMap.values()) {
+        for (RequestContext ctx : RequestTracker.getInstance().getActive()) {
             reqs.add(ctx.getRequestThreadContext());
         }
         return reqs;
     }
     
-    private List<RequestContext> getLongRunningRequests(long msDuration) {
-        List<RequestContext> longrunning = new ArrayList<>();
-        long currentTime = System.nanoTime()/1000000;
-        for (RequestContext ctx : currentRequestMap.values()) {
-            if (currentTime - ctx.getCreateInstant() > msDuration) {
-                longrunning.add(ctx);
-            }
-        }
-        return longrunning;
-    }
-    
     private class RequestMonitor implements Runnable {
         
-        private Set<Long> trackedThreads = new HashSet<>();
+        // requests already warned about, tracked by request as they may move between threads
+        private Set<RequestContext> trackedRequests = new HashSet<>();
         private final DateTimeFormatter fmt;
         private long duration = 120000L;
         private final int summaryHour;
@@ -296,15 +636,15 @@ public class ProtoProcessor implements ProtoProcess {
             }
             hour = currentHour;
             
-            List<RequestContext> requests = getLongRunningRequests(duration);
+            List<RequestContext> requests = RequestTracker.getInstance().getOverdue(duration);
             Server local = Server.getLocal();
             String subject = local.getHostName() +" ("+ local.getIp() +"/"+ local.getGateway() 
                     +") ["+ local.getName() +"] Louie Request Monitor";
             if (!requests.isEmpty()) {
-                Set<Long> foundThreads = new HashSet<>();
+                Set<RequestContext> foundRequests = new HashSet<>();
                 StringBuilder sb = new StringBuilder();
                 for (RequestContext ctx : requests) {
-                    if (!trackedThreads.contains(ctx.getThreadID()) || genSummary) { //warn only once per request or for summary
+                    if (!trackedRequests.contains(ctx) || genSummary) { //warn only once per request or for summary
                         sb.append("Thread ID:  ").append(ctx.getThreadID()).append("\n");
                         sb.append("SessionKey: ").append(ctx.getSessionKey()).append("\n");
                         sb.append("User:       ").append(ctx.getWho()).append("\n");
@@ -333,19 +673,19 @@ public class ProtoProcessor implements ProtoProcess {
                         sb.append(ThreadInspector.INSTANCE.dumpStack(ctx.getThreadID(), 15));
                         sb.append("\n\n");
                     }
-                    foundThreads.add(ctx.getThreadID());
+                    foundRequests.add(ctx);
                 }
                 
-                Set<Long> cleared = new HashSet<>(trackedThreads);
-                cleared.removeAll(foundThreads);
+                Set<RequestContext> cleared = new HashSet<>(trackedRequests);
+                cleared.removeAll(foundRequests);
                 if (!cleared.isEmpty()) {
                     sb.append("Cleared thread IDs:\t");
-                    for (long l : cleared) {
-                        sb.append(l).append("\t");
+                    for (RequestContext ctx : cleared) {
+                        sb.append(ctx.getThreadID()).append("\t");
                     }
                 }
                 
-                trackedThreads = foundThreads;
+                trackedRequests = foundRequests;
                 
                 if (sb.length() > 0) {
                     LOGGER.info("Request Monitor Update:\n{}",sb.toString());
@@ -358,13 +698,13 @@ public class ProtoProcessor implements ProtoProcess {
                 }
                 
             } else {
-                if (!trackedThreads.isEmpty()) {
+                if (!trackedRequests.isEmpty()) {
                     StringBuilder sb = new StringBuilder();
                     sb.append("Cleared thread IDs:\t");
-                    for (long l : trackedThreads) {
-                        sb.append(l).append("\t");
+                    for (RequestContext ctx : trackedRequests) {
+                        sb.append(ctx.getThreadID()).append("\t");
                     }
-                    trackedThreads.clear();
+                    trackedRequests.clear();
                     
                     LOGGER.info("Request Monitor Update:\n{}",sb.toString());
                     try {
@@ -15,6 +15,7 @@
  */
 package com.rhythm.louie.request;
 
+import com.rhythm.louie.exception.LouieDeadlineException;
 import com.rhythm.louie.request.data.DataType;
 import com.rhythm.louie.request.data.Param;
 
@@ -22,8 +23,10 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
 
-import com.rhythm.louie.generator.TypeUtils;
+import com.google.protobuf.Message;
 
 import com.rhythm.pb.RequestProtos.IdentityPB;
 import com.rhythm.pb.RequestProtos.RequestHeaderPB;
@@ -32,7 +35,11 @@ import com.rhythm.pb.RequestProtos.RoutePB;
 import com.rhythm.pb.RequestProtos.RoutePathPB;
 import com.rhythm.pb.RequestProtos.SessionKey;
 
+import com.rhythm.louie.server.ServiceManager;
+import com.rhythm.louie.service.AnnotatedService;
+import com.rhythm.louie.service.Service;
 import com.rhythm.louie.service.command.PBParamType;
+import com.rhythm.louie.services.auth.SessionStat;
 
 /**
  * @author cjohnson
@@ -52,6 +59,7 @@ public class RequestContext {
     
     private IdentityPB identity;
     private SessionKey sessionKey = null;
+    private SessionStat session = null;
     private RoutePB route;
     private boolean enableRouteUser = true;
     
@@ -59,7 +67,13 @@ public class RequestContext {
     
     private final long createInstant;
     private final long createTime;
-    private long threadId;
+    private final long deadline;
+    private volatile long threadId;
+    private final AtomicLongArray phaseNanos = new AtomicLongArray(RequestPhase.values().length);
+    
+    // maintained by the RequestTracker
+    volatile Set<RequestContext> trackedIn;
+    volatile boolean untracked = false;
     
     public RequestContext(RequestHeaderPB header, RequestPB request,
             DataType dataType, RequestProperties props) {
@@ -70,18 +84,13 @@ public class RequestContext {
         this.props = props;
         this.params = new ArrayList<>();
         
-        List<String> convertedTypes = new ArrayList<>(request.getTypeCount());
-        for (String param : request.getTypeList()) {
-            if (param.startsWith("rh.pb")) {
-                param = TypeUtils.legacyConvert(param);
-            }
-            convertedTypes.add(param);
-        }
-        
-        type = PBParamType.typeForNames(convertedTypes);
+        type = PBParamType.forRequestTypes(request.getTypeList());
         destinations = null;
         createInstant = System.nanoTime()/1000000;
         createTime = System.currentTimeMillis();
+        // The caller sends how long it will wait rather than when it gives up,
+        // so that the deadline is kept on this server's clock
+        deadline = request.getTimeout() > 0 ? createTime + request.getTimeout() : 0;
     }
     
     public void enableRouteUser(boolean enable) {
@@ -180,6 +189,17 @@ public class RequestContext {
         this.sessionKey = key;
     }
     
+    /**
+     * @return the session of a request made with a session key, otherwise null
+     */
+    public SessionStat getSession() {
+        return session;
+    }
+    
+    public void setSession(SessionStat session) {
+        this.session = session;
+    }
+    
     public void setThreadId(long id) {
         this.threadId = id;
     }
@@ -227,6 +247,57 @@ public class RequestContext {
         return threadId;
     }
     
+    /**
+     * Adds to the time spent in a phase of processing this request
+     * 
+     * @param phase the phase
+     * @param nanos the time spent
+     */
+    public void addPhaseTime(RequestPhase phase, long nanos) {
+        phaseNanos.addAndGet(phase.ordinal(), nanos);
+    }
+    
+    /**
+     * @return the nanos spent in the phase, 0 if it did not apply to this request
+     */
+    public long getPhaseTime(RequestPhase phase) {
+        return phaseNanos.get(phase.ordinal());
+    }
+    
+    public boolean hasDeadline() {
+        return deadline > 0;
+    }
+    
+    /**
+     * @return the epoch millis, by this server's clock, after which the caller
+     * no longer waits for a response, or 0 if there is no deadline
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+    
+    /**
+     * @return the millis left until the deadline, or Long.MAX_VALUE if there 
+     * is no deadline
+     */
+    public long getRemainingMillis() {
+        if (!hasDeadline()) {
+            return Long.MAX_VALUE;
+        }
+        return deadline - System.currentTimeMillis();
+    }
+    
+    /**
+     * @throws LouieDeadlineException if the deadline has passed
+     */
+    public void checkDeadline() throws LouieDeadlineException {
+        long remaining = getRemainingMillis();
+        if (remaining <= 0) {
+            throw new LouieDeadlineException("Deadline passed "+(-remaining)+"ms ago, abandoning "
+                    +request.getService()+":"+request.getMethod());
+        }
+    }
+    
     public void addParam(Param param) {
         params.add(param);
     }
@@ -237,8 +308,15 @@ public class RequestContext {
         if (request.hasParamCount() && request.getParamCount()>0) {
             paramCount = request.getParamCount();
         }
+        
+        // Resolve the argument types up front, so that they can be parsed as they are read
+        List<? extends Message> templates = null;
+        Service service = ServiceManager.getService(request.getService());
+        if (service instanceof AnnotatedService) {
+            templates = ((AnnotatedService) service).getArgTemplates(this);
+        }
         for (int d = 0; d < paramCount; d++) {
-            addParam(Param.readPBParam(input, request.getTypeCount()));
+            addParam(Param.readPBParam(input, request.getTypeCount(), templates));
         }
     }
     
@@ -20,6 +20,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 import com.google.common.base.Joiner;
 import com.google.protobuf.ByteString;
@@ -31,6 +32,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
 
+import com.rhythm.louie.server.Bulkhead;
+import com.rhythm.louie.server.RequestExecutor;
 import com.rhythm.louie.server.ServiceManager;
 import com.rhythm.louie.service.Service;
 
@@ -65,7 +68,7 @@ public class RequestHandler {
         MDC.put(LogVars.LANGUAGE,request.getLanguage());
         MDC.put(LogVars.TIME,Long.toString(result.getDuration()));
         MDC.put(LogVars.EXECTIME,Long.toString(result.getExecTime()));
-        MDC.put(LogVars.ROWS, Integer.toString(result.getMessages().size()));
+        MDC.put(LogVars.ROWS, Integer.toString(result.getMessageCount()));
         
         // Note this should be efficient if the message has been serialized,
         // since the size is cached, else this is unnecessarily expensive
@@ -77,6 +80,7 @@ public class RequestHandler {
             result.setSize(totalSize);
         }
         MDC.put(LogVars.BYTES, Long.toString(result.getSize()));
+        MDC.put(LogVars.PHASES, phaseString(request));
         
         StringBuilder logtext = new StringBuilder();
         logtext.append(request.getRequest().getService()).append(":")
@@ -105,6 +109,24 @@ public class RequestHandler {
         }
     }
     
+    /**
+     * @return the millis spent in each phase that applied to the request
+     */
+    private static String phaseString(RequestContext request) {
+        StringBuilder phases = new StringBuilder();
+        for (RequestPhase phase : RequestPhase.values()) {
+            long nanos = request.getPhaseTime(phase);
+            if (nanos > 0) {
+                if (phases.length() > 0) {
+                    phases.append(" ");
+                }
+                phases.append(phase.getLabel()).append("=")
+                        .append(String.format("%.3f", nanos / 1000000.0));
+            }
+        }
+        return phases.toString();
+    }
+    
     protected static void appendListString(StringBuilder logtext, Collection list) {
         boolean first = true;
         for (Object o : list) {
@@ -258,8 +280,16 @@ public class RequestHandler {
             if (service == null) {
                 throw new Exception("No such service: " + serviceName);
             }
+            // May have waited in a queue, skip it if the caller has given up
+            pbreq.checkDeadline();
             
-            Result result =  service.executeCommand(pbreq);
+            Result result;
+            Bulkhead bulkhead = RequestExecutor.getInstance().getBulkhead(service);
+            if (bulkhead == null) {
+                result = service.executeCommand(pbreq);
+            } else {
+                result = bulkhead.execute(new ServiceTask(service, pbreq), pbreq.getRemainingMillis());
+            }
             if (result == null) {
                 LoggerFactory.getLogger("").error("Result is null!?");
                 result = Result.emptyResult();
@@ -280,4 +310,45 @@ public class RequestHandler {
             RequestContextManager.clearRequest();
         }
     }
+    
+    /**
+     * Executes a request on a bulkhead pool thread, in the context of the 
+     * request and with the logging context of the calling thread
+     */
+    private static class ServiceTask implements Callable<Result> {
+        private final Service service;
+        private final RequestContext pbreq;
+        private final Map<String,String> mdc;
+        
+        public ServiceTask(Service service, RequestContext pbreq) {
+            this.service = service;
+            this.pbreq = pbreq;
+            this.mdc = MDC.getCopyOfContextMap();
+        }
+        
+        @Override
+        public Result call() throws Exception {
+            Map<String,String> poolMdc = MDC.getCopyOfContextMap();
+            setContextMap(mdc);
+            RequestContextManager.setRequest(pbreq);
+            // so the request monitor dumps the thread actually executing the request
+            long callerThread = pbreq.getThreadID();
+            pbreq.setThreadId(Thread.currentThread().getId());
+            try {
+                return service.executeCommand(pbreq);
+            } finally {
+                pbreq.setThreadId(callerThread);
+                RequestContextManager.clearRequest();
+                setContextMap(poolMdc);
+            }
+        }
+        
+        private static void setContextMap(Map<String,String> context) {
+            if (context == null) {
+                MDC.clear();
+            } else {
+                MDC.setContextMap(context);
+            }
+        }
+    }
 }
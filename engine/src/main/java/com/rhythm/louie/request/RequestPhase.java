@@ -0,0 +1,44 @@
+/*
+ * Copyright 2015 Rhythm & Hues Studios.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rhythm.louie.request;
+
+/**
+ * The phases of processing a request, timed separately in the RequestContext
+ * 
+ * @author cjohnson
+ */
+public enum RequestPhase {
+    /** Looking up, or creating, the session of the request */
+    SESSION("session"),
+    /** Reading the request and parsing its arguments */
+    PARSE("parse"),
+    /** Within the service method itself */
+    EXECUTE("exec"),
+    /** Encoding and compressing the response, including producing a streamed result */
+    SERIALIZE("serialize"),
+    /** Blocked writing the response to the connection */
+    WRITE("write");
+    
+    private final String label;
+    
+    private RequestPhase(String label) {
+        this.label = label;
+    }
+    
+    public String getLabel() {
+        return label;
+    }
+}
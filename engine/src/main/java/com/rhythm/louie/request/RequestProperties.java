@@ -56,6 +56,26 @@ public class RequestProperties {
         return fromHttpRequest(req, hostIp); 
     }
     
+    /**
+     * Creates properties for a request that did not come in through a servlet
+     *
+     * @param remoteAddress the address of the caller
+     * @param localPort the port the request was received on
+     * @param gateway the gateway being served
+     * @param hostIp the ip of this host
+     * @return the RequestProperties
+     */
+    public static RequestProperties create(String remoteAddress, int localPort, String gateway, String hostIp) {
+        RequestProperties props = new RequestProperties();
+        props.remoteAddress = remoteAddress;
+        props.localPort = localPort;
+        props.gateway = gateway;
+        props.hostIp = hostIp;
+        props.remoteUser = null;
+        props.authenticated = false;
+        return props;
+    }
+
     private RequestProperties() {}
 
     private boolean authenticated;
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2015 Rhythm & Hues Studios.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rhythm.louie.request;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the requests in progress on a hashed timing wheel of one second 
+ * slots, keyed by the second each request started. Tracking a request is an
+ * add to, and a remove from, the set of its slot, so concurrent requests are 
+ * spread across the slots of the last few seconds rather than sharing one map.
+ * 
+ * Requests are tracked independently of the threads executing them. The 
+ * monitor only visits the slots that have aged past its threshold since it
+ * last looked, moving anything still running in them to the overdue set.
+ * A request tracked into a slot the monitor has already passed, such as one 
+ * that waited in a queue, is also held as a late candidate for the next look.
+ *
+ * @author cjohnson
+ */
+public class RequestTracker {
+    // Larger than any sensible monitor threshold plus poll cycle
+    private static final int WHEEL_SIZE = 1024;
+    
+    private final Set<RequestContext>[] wheel;
+    private final Set<RequestContext> overdue = newSet();
+    // tracked into a slot that had already been scanned
+    private final Set<RequestContext> late = newSet();
+    private volatile long scannedTick = Long.MIN_VALUE;
+    
+    @SuppressWarnings("unchecked")
+    RequestTracker() {
+        wheel = new Set[WHEEL_SIZE];
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel[i] = newSet();
+        }
+    }
+
+    public static RequestTracker getInstance() {
+        return RequestTrackerHolder.INSTANCE;
+    }
+
+    private static class RequestTrackerHolder {
+        private static final RequestTracker INSTANCE = new RequestTracker();
+    }
+    
+    private static Set<RequestContext> newSet() {
+        return Collections.newSetFromMap(new ConcurrentHashMap<RequestContext,Boolean>());
+    }
+    
+    private static long tick(long millis) {
+        return TimeUnit.MILLISECONDS.toSeconds(millis);
+    }
+    
+    private Set<RequestContext> slot(long tick) {
+        return wheel[(int) ((tick % WHEEL_SIZE + WHEEL_SIZE) % WHEEL_SIZE)];
+    }
+    
+    public void track(RequestContext ctx) {
+        long tick = tick(ctx.getCreateInstant());
+        Set<RequestContext> slot = slot(tick);
+        ctx.trackedIn = slot;
+        slot.add(ctx);
+        // Checked after adding, as the monitor advances scannedTick before 
+        // scanning, so either the scan sees it in the slot or this sees the tick
+        if (tick < scannedTick) {
+            late.add(ctx);
+        }
+    }
+    
+    public void untrack(RequestContext ctx) {
+        ctx.untracked = true;
+        Set<RequestContext> tracked = ctx.trackedIn;
+        if (tracked != null) {
+            tracked.remove(ctx);
+            // Moved to overdue concurrently
+            if (ctx.trackedIn != tracked) {
+                ctx.trackedIn.remove(ctx);
+            }
+        }
+    }
+    
+    /**
+     * @return every request in progress
+     */
+    public List<RequestContext> getActive() {
+        List<RequestContext> active = new ArrayList<>(overdue);
+        for (Set<RequestContext> slot : wheel) {
+            if (!slot.isEmpty()) {
+                active.addAll(slot);
+            }
+        }
+        return active;
+    }
+    
+    /**
+     * Moves requests that have now exceeded the duration to the overdue set.
+     * Intended to be called from a single monitoring thread.
+     * 
+     * @param duration ms a request has been running to be overdue
+     * @return every request in progress that has exceeded the duration
+     */
+    public List<RequestContext> getOverdue(long duration) {
+        return getOverdue(duration, System.nanoTime() / 1000000);
+    }
+    
+    /**
+     * @param now the current instant, in the millis of System.nanoTime
+     */
+    synchronized List<RequestContext> getOverdue(long duration, long now) {
+        long cutoff = now - duration;
+        long lastTick = tick(cutoff);
+        long firstTick = Math.max(scannedTick, lastTick - WHEEL_SIZE + 1);
+        // The last slot may still receive requests younger than the cutoff
+        scannedTick = Math.max(scannedTick, lastTick);
+        
+        for (long tick = firstTick; tick <= lastTick; tick++) {
+            for (RequestContext ctx : slot(tick)) {
+                if (ctx.getCreateInstant() <= cutoff && ctx.trackedIn != overdue) {
+                    markOverdue(ctx);
+                }
+            }
+        }
+        
+        Iterator<RequestContext> lateIter = late.iterator();
+        while (lateIter.hasNext()) {
+            RequestContext ctx = lateIter.next();
+            if (ctx.untracked || ctx.trackedIn == overdue) {
+                lateIter.remove();
+            } else if (ctx.getCreateInstant() <= cutoff) {
+                markOverdue(ctx);
+                lateIter.remove();
+            }
+        }
+        
+        List<RequestContext> result = new ArrayList<>(overdue.size());
+        for (RequestContext ctx : overdue) {
+            if (!ctx.untracked) {
+                result.add(ctx);
+            }
+        }
+        return result;
+    }
+    
+    private void markOverdue(RequestContext ctx) {
+        Set<RequestContext> slot = ctx.trackedIn;
+        ctx.trackedIn = overdue;
+        overdue.add(ctx);
+        slot.remove(ctx);
+        if (ctx.untracked) {
+            overdue.remove(ctx);
+        }
+    }
+}
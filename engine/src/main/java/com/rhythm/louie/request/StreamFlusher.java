@@ -0,0 +1,119 @@
+/*
+ * Copyright 2015 Rhythm & Hues Studios.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rhythm.louie.request;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import com.rhythm.louie.server.ServiceProperties;
+
+/**
+ * Batches the flushes of a streaming response.  The first message is flushed
+ * right away, further messages once enough bytes are waiting, or from a timer
+ * once the oldest waiting message has waited long enough, so that a slow 
+ * producer does not hold back what has already been written.
+ * 
+ * Messages must be written while holding the lock of the flusher, as the timer
+ * flushes from its own thread.
+ * 
+ * @author cjohnson
+ */
+class StreamFlusher implements Runnable {
+    private final Flushable output;
+    private final int flushBytes;
+    private final long flushMs;
+    
+    private int unflushedBytes = 0;
+    private boolean flushed = false;
+    private boolean closed = false;
+    private ScheduledFuture<?> timer;
+    private IOException timerError;
+    
+    /**
+     * @param output flushes everything written so far through to the client
+     * @param service the service whose flush settings are used
+     */
+    StreamFlusher(Flushable output, String service) {
+        this.output = output;
+        ServiceProperties serviceProps = ServiceProperties.getServiceProperties(service);
+        this.flushBytes = serviceProps.getStreamFlushBytes();
+        this.flushMs = serviceProps.getStreamFlushMs();
+    }
+    
+    /**
+     * Called after writing a message, flushes if the message is the first or 
+     * enough bytes are waiting, otherwise makes sure the timer will flush it
+     * 
+     * @param bytes the size of the message
+     * @throws IOException if flushing failed, here or from the timer
+     */
+    synchronized void written(int bytes) throws IOException {
+        if (timerError != null) {
+            throw timerError;
+        }
+        unflushedBytes += bytes;
+        if (!flushed || unflushedBytes >= flushBytes) {
+            flush();
+        } else if (timer == null) {
+            timer = Scheduler.INSTANCE.schedule(this, flushMs, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    private void flush() throws IOException {
+        if (timer != null) {
+            timer.cancel(false);
+            timer = null;
+        }
+        output.flush();
+        flushed = true;
+        unflushedBytes = 0;
+    }
+    
+    @Override
+    public synchronized void run() {
+        timer = null;
+        if (closed || unflushedBytes == 0) {
+            return;
+        }
+        try {
+            flush();
+        } catch (IOException e) {
+            timerError = e;
+        }
+    }
+    
+    /**
+     * Stops the timer, the response must be flushed or finished by the caller
+     */
+    synchronized void close() {
+        closed = true;
+        if (timer != null) {
+            timer.cancel(false);
+            timer = null;
+        }
+    }
+    
+    private static class Scheduler {
+        private static final ScheduledExecutorService INSTANCE = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("louie-stream-flush-%d").setDaemon(true).build());
+    }
+}
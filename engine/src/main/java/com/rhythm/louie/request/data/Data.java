@@ -16,9 +16,13 @@
 package com.rhythm.louie.request.data;
 
 import java.io.InputStream;
+import java.util.Arrays;
 
+import com.google.common.io.ByteStreams;
+import com.google.protobuf.ByteString;
 import com.google.protobuf.Message.Builder;
 import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.protobuf.Message;
 import com.googlecode.protobuf.format.JsonFormat;
 
@@ -27,9 +31,29 @@ import com.googlecode.protobuf.format.JsonFormat;
  * Created: Jul 31, 2011 7:59:56 PM
  */
 public abstract class Data {
+    /** 
+     * Messages up to this size are read into a per thread buffer and parsed 
+     * from there, larger messages are parsed straight off of the stream
+     */
+    static final int MAX_POOLED_SIZE = 1 << 20;
+    
+    private static final ThreadLocal<byte[]> buffers = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[8192];
+        }
+    };
+    
     abstract public <T extends Builder> T merge(T Builder) throws Exception;
     abstract public <T extends Message> T parse(T template) throws Exception;
     
+    /**
+     * @return the pb encoding of this data, or null if it is not pb data
+     */
+    public ByteString toByteString() {
+        return null;
+    }
+    
     private static class PBDataImpl extends Data {
         private final byte[] bytes;
         
@@ -46,7 +70,46 @@ public abstract class Data {
         @Override
         @SuppressWarnings("unchecked")
         public <T extends Message> T parse(T template) throws Exception {
-            return (T) template.newBuilderForType().mergeFrom(bytes).build();
+            return (T) template.getParserForType().parseFrom(bytes);
+        }
+        
+        @Override
+        public ByteString toByteString() {
+            return ByteString.copyFrom(bytes);
+        }
+    };
+    
+    /**
+     * Data that was parsed as it was read
+     */
+    private static class MessageDataImpl extends Data {
+        private final Message message;
+        
+        public MessageDataImpl(Message message) {
+            this.message = message;
+        }
+        
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T extends Builder> T merge(T builder) throws Exception {
+            if (builder.getDescriptorForType() == message.getDescriptorForType()) {
+                return (T) builder.mergeFrom(message);
+            }
+            return (T) builder.mergeFrom(message.toByteString());
+        }
+        
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T extends Message> T parse(T template) throws Exception {
+            if (template.getDescriptorForType() == message.getDescriptorForType()) {
+                return (T) message;
+            }
+            return (T) template.getParserForType().parseFrom(message.toByteString());
+        }
+        
+        @Override
+        public ByteString toByteString() {
+            return message.toByteString();
         }
     };
     
@@ -82,11 +145,7 @@ public abstract class Data {
     }
     
     public static Data readPBData(InputStream input) throws Exception {
-        int firstByte = input.read();
-        if (firstByte == -1) {
-            throw new Exception("Improper Request format!  Reached EOF prematurely!");
-        }
-        int size = CodedInputStream.readRawVarint32(firstByte, input);
+        int size = readSize(input);
         
         byte[] bytes = new byte[size];
         readFully(input,bytes,size);
@@ -100,6 +159,83 @@ public abstract class Data {
         return new PBDataImpl(bytes);
     }
     
+    /**
+     * Reads a delimited argument, parsing it immediately when the type is known.
+     * If it does not parse, the raw bytes are kept so that the error surfaces 
+     * when the command executes, as it would have without a template.
+     * 
+     * @param input the request stream
+     * @param template the type of the argument, or null if unknown
+     * @return the Data
+     * @throws Exception 
+     */
+    public static Data readPBData(InputStream input, Message template) throws Exception {
+        if (template == null) {
+            return readPBData(input);
+        }
+        int size = readSize(input);
+        if (size > MAX_POOLED_SIZE) {
+            return new MessageDataImpl(parseStream(input, size, template));
+        }
+        
+        byte[] buffer = borrowBuffer(size);
+        readFully(input, buffer, size);
+        try {
+            return new MessageDataImpl(template.getParserForType().parseFrom(buffer, 0, size));
+        } catch (InvalidProtocolBufferException ex) {
+            return new PBDataImpl(Arrays.copyOf(buffer, size));
+        }
+    }
+    
+    /**
+     * Reads and parses a single delimited message, without keeping a copy 
+     * of its bytes
+     * 
+     * @param <T> the type of message
+     * @param input the stream
+     * @param template the type of message
+     * @return the parsed message
+     * @throws Exception 
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends Message> T readPBMessage(InputStream input, T template) throws Exception {
+        int size = readSize(input);
+        if (size > MAX_POOLED_SIZE) {
+            return parseStream(input, size, template);
+        }
+        byte[] buffer = borrowBuffer(size);
+        readFully(input, buffer, size);
+        return (T) template.getParserForType().parseFrom(buffer, 0, size);
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static <T extends Message> T parseStream(InputStream input, int size, T template) throws Exception {
+        CodedInputStream coded = CodedInputStream.newInstance(ByteStreams.limit(input, size));
+        coded.setSizeLimit(size);
+        return (T) template.getParserForType().parseFrom(coded);
+    }
+    
+    private static int readSize(InputStream input) throws Exception {
+        int firstByte = input.read();
+        if (firstByte == -1) {
+            throw new Exception("Improper Request format!  Reached EOF prematurely!");
+        }
+        return CodedInputStream.readRawVarint32(firstByte, input);
+    }
+    
+    /**
+     * The buffer is only valid until the next borrow on this thread, it must be 
+     * fully parsed before then
+     */
+    private static byte[] borrowBuffer(int size) {
+        byte[] buffer = buffers.get();
+        if (buffer.length < size) {
+            buffer = new byte[Math.max(size, Math.min(buffer.length * 2, MAX_POOLED_SIZE))];
+            buffers.set(buffer);
+        }
+        return buffer;
+    }
+    
     private static void readFully(InputStream input, byte[] bytes, int size) throws Exception {
         int offset = 0;
         while (offset<size) {
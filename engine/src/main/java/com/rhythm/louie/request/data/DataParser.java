@@ -16,6 +16,7 @@
 package com.rhythm.louie.request.data;
 
 import com.google.protobuf.AbstractMessage.Builder;
+import com.google.protobuf.Message;
 
 /**
  * @author cjohnson
@@ -37,4 +38,21 @@ public interface DataParser<A> {
             return(A) data.merge(builder.clone()).build();
         }
     }
+    
+    /**
+     * Parses directly from the default instance of a PB, avoiding a builder 
+     * clone per argument
+     */
+    public class MessageParser<A extends Message> implements DataParser<A> {
+        private final A template;
+        
+        public MessageParser(A template) {
+            this.template = template;
+        }
+        
+        @Override
+        public A parseData(Data data) throws Exception {
+            return data.parse(template);
+        }
+    }
 }
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2015 Rhythm & Hues Studios.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rhythm.louie.request.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Message;
+
+/**
+ * The delimited pb encoding of the messages of a result, so that they can be
+ * written again without being reserialized.  Only the bytes are kept, the 
+ * messages are decoded again if something other than the pb endpoint needs 
+ * them.
+ *
+ * @author cjohnson
+ */
+public class EncodedResponse {
+    private final Message prototype;
+    private final int count;
+    private final byte[] bytes;
+
+    private EncodedResponse(Message prototype, int count, byte[] bytes) {
+        this.prototype = prototype;
+        this.count = count;
+        this.bytes = bytes;
+    }
+
+    public static EncodedResponse encode(List<? extends Message> messages) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CodedOutputStream coded = CodedOutputStream.newInstance(out);
+        Message prototype = null;
+        for (Message message : messages) {
+            if (prototype == null) {
+                prototype = message.getDefaultInstanceForType();
+            }
+            coded.writeRawVarint32(message.getSerializedSize());
+            message.writeTo(coded);
+        }
+        coded.flush();
+        return new EncodedResponse(prototype, messages.size(), out.toByteArray());
+    }
+
+    /**
+     * Decodes the messages from the bytes, which is done anew on each call
+     * 
+     * @return the messages
+     * @throws IOException if the bytes could not be parsed
+     */
+    public List<Message> decode() throws IOException {
+        if (prototype == null) {
+            return Collections.emptyList();
+        }
+        List<Message> messages = new ArrayList<>(count);
+        ByteArrayInputStream in = new ByteArrayInputStream(bytes);
+        for (int m = 0; m < count; m++) {
+            Message.Builder builder = prototype.newBuilderForType();
+            if (!builder.mergeDelimitedFrom(in)) {
+                throw new IOException("Encoded response ended after "+m+" of "+count+" messages");
+            }
+            messages.add(builder.build());
+        }
+        return messages;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return the full name of the message type, or null if there are no messages
+     */
+    public String getType() {
+        return prototype == null ? null : prototype.getDescriptorForType().getFullName();
+    }
+    /**
+     * @return the delimited messages, exactly as written to the response
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    public int getSize() {
+        return bytes.length;
+    }
+}
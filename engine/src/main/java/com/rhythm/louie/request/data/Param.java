@@ -24,6 +24,7 @@ import java.util.List;
 import java.util.Arrays;
 
 import com.google.common.base.Joiner;
+import com.google.protobuf.Message;
 
 /**
  * @author cjohnson
@@ -72,6 +73,33 @@ public class Param {
         return a;
     }
 
+    /**
+     * Reads a param, parsing each argument as it is read if its type is known
+     * 
+     * @param input the request stream
+     * @param argcount the number of arguments
+     * @param templates the type of each argument, or null if unknown
+     * @return the Param
+     * @throws Exception 
+     */
+    public static Param readPBParam(InputStream input, int argcount, List<? extends Message> templates) throws Exception {
+        if (templates == null || templates.size() != argcount) {
+            return readPBParam(input, argcount);
+        }
+        if (argcount==0) {
+            List<Data> args = Collections.emptyList();
+            return new Param(args);
+        } else if (argcount == 1) {
+            return new Param(Collections.singletonList(Data.readPBData(input, templates.get(0))));
+        } else {
+            List<Data> args = new ArrayList<>(argcount);
+            for (int a = 0; a < argcount; a++) {
+                args.add(Data.readPBData(input, templates.get(a)));
+            }
+            return new Param(args);
+        }
+    }
+    
     public static Param readPBParam(InputStream input, int argcount) throws Exception {
         if (argcount==0) {
             List<Data> args = Collections.emptyList();
@@ -15,6 +15,7 @@
  */
 package com.rhythm.louie.request.data;
 
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 
 import java.util.ArrayList;
@@ -39,6 +40,7 @@ public class Result {
     private Exception ex;
     private boolean streaming = false;
     private boolean sanitized = false;
+    private EncodedResponse encoded;
     
     public static Result emptyResult() {
         List<?> args = Collections.emptyList();
@@ -60,6 +62,18 @@ public class Result {
         return new Result(true, Collections.singletonList(arg), results);
     }
     
+    /**
+     * A result whose messages have already been encoded, such as from the response cache
+     */
+    public static Result encodedResults(Object arg, EncodedResponse encoded) {
+        // The messages are only decoded if something asks for them
+        Result result = new Result(true, Collections.singletonList(arg), null);
+        result.encoded = encoded;
+        result.sanitized = true;
+        result.size = encoded.getSize();
+        return result;
+    }
+    
     // TODO should deprecate/remove this as it is not a supported workflow
     public static Result multiArgResults(Map<? extends Object,List<Message>> results) {
         List<Message> messages = new ArrayList<>();
@@ -142,6 +156,13 @@ public class Result {
     }
     
     synchronized public List<? extends Message> getMessages() {
+        if (messages == null) {
+            try {
+                messages = encoded.decode();
+            } catch (IOException ex) {
+                throw new IllegalStateException("Unable to decode encoded response", ex);
+            }
+        }
         if (streaming || sanitized) {
             return messages;
         }
@@ -150,6 +171,27 @@ public class Result {
         return messages;
     }
 
+    /**
+     * @return the number of messages, without decoding an encoded result
+     */
+    synchronized public int getMessageCount() {
+        if (messages == null) {
+            return encoded.getCount();
+        }
+        return messages.size();
+    }
+
+    /**
+     * @return the encoded messages, or null if they have not been encoded
+     */
+    public EncodedResponse getEncoded() {
+        return encoded;
+    }
+
+    public void setEncoded(EncodedResponse encoded) {
+        this.encoded = encoded;
+    }
+
     public List<?> getArguments() {
         return arguments;
     }
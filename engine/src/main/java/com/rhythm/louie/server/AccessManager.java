@@ -16,9 +16,20 @@
 package com.rhythm.louie.server;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Optional;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 
 import org.jdom2.Element;
 
+import com.rhythm.louie.exception.LouieRateLimitException;
+import com.rhythm.louie.request.RequestContext;
+import com.rhythm.louie.services.auth.SessionStat;
+
 /**
  *
  * @author eyasukoc
@@ -28,6 +39,18 @@ public class AccessManager {
     private static final Set<String> adminUsers = new HashSet<>();
     private static final Map<String,Set<String>> groupUsers = new HashMap<>(); // group : list of users
     private static final Map<String,Set<String>> serviceUsers = new HashMap<>();// service : list of users (superset of groupUsers sets)
+    private static final Map<String,RateLimit> groupRateLimits = new ConcurrentHashMap<>(); // group : limit for each user
+    private static final Map<String,RateLimit> serviceRateLimits = new ConcurrentHashMap<>(); // service : limit for each session
+    
+    private static final LoadingCache<String,Optional<TokenBucket>> userBuckets = CacheBuilder.newBuilder()
+            .expireAfterAccess(1, TimeUnit.HOURS)
+            .build(new CacheLoader<String,Optional<TokenBucket>>() {
+                @Override
+                public Optional<TokenBucket> load(String user) {
+                    RateLimit limit = getUserRateLimit(user);
+                    return limit == null ? Optional.<TokenBucket>absent() : Optional.of(limit.newBucket());
+                }
+            });
     
     private static final String GROUP_NAME = "name";
     private static final String ADMIN = "admin";
@@ -55,6 +78,87 @@ public class AccessManager {
                     users.add(user.getTextTrim());
                 }
                 groupUsers.put(name,users);
+                
+                RateLimit limit = RateLimit.fromElement(group);
+                if (limit != null) {
+                    groupRateLimits.put(name, limit);
+                } else {
+                    groupRateLimits.remove(name);
+                }
+            }
+        }
+        userBuckets.invalidateAll();
+    }
+    
+    /**
+     * Limits the rate of requests each session may make to a service
+     * 
+     * @param service
+     * @param rateLimit an element with rate and burst attributes
+     */
+    protected static void loadServiceRateLimit(String service, Element rateLimit) {
+        RateLimit limit = RateLimit.fromElement(rateLimit);
+        if (limit != null) {
+            serviceRateLimits.put(service, limit);
+        }
+    }
+    
+    public static RateLimit getServiceRateLimit(String service) {
+        return serviceRateLimits.get(service);
+    }
+    
+    /**
+     * A user in several limited groups gets the most generous of their limits
+     * 
+     * @param user
+     * @return the limit, or null if none of the user's groups are limited
+     */
+    public static RateLimit getUserRateLimit(String user) {
+        RateLimit best = null;
+        for (Map.Entry<String,RateLimit> entry : groupRateLimits.entrySet()) {
+            if (isUserInGroup(user, entry.getKey())) {
+                if (best == null || entry.getValue().getRate() > best.getRate()) {
+                    best = entry.getValue();
+                }
+            }
+        }
+        return best;
+    }
+    
+    /**
+     * Takes a token from the bucket of the request's session for the service,
+     * and from the bucket of the requesting user. Reserved services are 
+     * exempt from user limits.
+     * 
+     * @param req the request
+     * @throws LouieRateLimitException if either bucket is empty
+     */
+    public static void checkRateLimit(RequestContext req) throws LouieRateLimitException {
+        if (serviceRateLimits.isEmpty() && groupRateLimits.isEmpty()) {
+            return;
+        }
+        long now = System.nanoTime();
+        String service = req.getRequest().getService();
+        
+        RateLimit serviceLimit = serviceRateLimits.get(service);
+        SessionStat session = req.getSession();
+        if (serviceLimit != null && session != null) {
+            long wait = session.getRateBucket(service, serviceLimit).tryAcquire(now);
+            if (wait > 0) {
+                throw new LouieRateLimitException("Session exceeded the rate limit of "
+                        +serviceLimit+" for "+service, TimeUnit.NANOSECONDS.toMillis(wait) + 1);
+            }
+        }
+        
+        if (!groupRateLimits.isEmpty() && !ServiceProperties.getServiceProperties(service).isReserved()) {
+            String user = req.getRequester();
+            Optional<TokenBucket> bucket = userBuckets.getUnchecked(user);
+            if (bucket.isPresent()) {
+                long wait = bucket.get().tryAcquire(now);
+                if (wait > 0) {
+                    throw new LouieRateLimitException("User "+user+" exceeded the rate limit of "
+                            +getUserRateLimit(user), TimeUnit.NANOSECONDS.toMillis(wait) + 1);
+                }
             }
         }
     }
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2015 Rhythm & Hues Studios.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rhythm.louie.server;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import com.rhythm.louie.exception.LouieDeadlineException;
+import com.rhythm.louie.exception.LouieOverloadException;
+
+/**
+ * A pool dedicated to executing the requests of a group of services, so that
+ * a saturated service can only exhaust its own threads. A task submitted 
+ * while the pool and its queue are full is rejected rather than run by the
+ * caller.
+ * 
+ * Only the call to the service runs on the pool, the lazily produced rows of 
+ * a @Streaming method are written by the calling thread afterwards.
+ *
+ * @author cjohnson
+ */
+public class Bulkhead {
+    private static final ThreadLocal<Bulkhead> current = new ThreadLocal<>();
+    
+    private final String name;
+    private final List<String> services;
+    private final ThreadPoolExecutor executor;
+    private final int queueSize;
+    private final AtomicLong rejected = new AtomicLong(0);
+
+    Bulkhead(String name, List<String> services, int poolSize, int queueSize) {
+        this.name = name;
+        this.services = Collections.unmodifiableList(services);
+        this.queueSize = queueSize;
+        ThreadFactory threadFactory = new ThreadFactoryBuilder()
+                .setNameFormat("louie-pool-"+name+"-%d").build();
+        BlockingQueue<Runnable> queue;
+        if (queueSize > 0) {
+            queue = new ArrayBlockingQueue<>(queueSize);
+        } else {
+            queue = new SynchronousQueue<>();
+        }
+        executor = new ThreadPoolExecutor(poolSize, poolSize,
+                60L, TimeUnit.SECONDS,
+                queue,
+                threadFactory,
+                new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Executes the task on this pool, waiting for it to complete. A task 
+     * submitted from a thread of this pool is run directly, so nested calls
+     * cannot deadlock the pool.
+     * 
+     * @param <T> the result type
+     * @param task the task
+     * @param timeout ms to wait for the result, or Long.MAX_VALUE to wait indefinitely
+     * @return the result of the task
+     * @throws LouieOverloadException if the pool is saturated
+     * @throws LouieDeadlineException if the timeout passes first, the task is interrupted
+     * @throws Exception thrown by the task
+     */
+    public <T> T execute(final Callable<T> task, long timeout) throws Exception {
+        if (current.get() == this) {
+            return task.call();
+        }
+        
+        Future<T> future;
+        try {
+            future = executor.submit(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    current.set(Bulkhead.this);
+                    try {
+                        return task.call();
+                    } finally {
+                        current.remove();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            rejected.incrementAndGet();
+            throw new LouieOverloadException("Pool "+name+" is saturated ("
+                    +executor.getMaximumPoolSize()+" executing, "+queueSize+" queued)");
+        }
+        
+        try {
+            if (timeout == Long.MAX_VALUE) {
+                return future.get();
+            }
+            return future.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException ex) {
+            future.cancel(true);
+            throw new LouieDeadlineException("Deadline passed while executing on pool "+name);
+        } catch (InterruptedException ex) {
+            future.cancel(true);
+            throw ex;
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof Exception) {
+                throw (Exception) ex.getCause();
+            }
+            throw ex;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the services explicitly assigned to this pool
+     */
+    public List<String> getServices() {
+        return services;
+    }
+
+    public int getPoolSize() {
+        return executor.getMaximumPoolSize();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public int getQueuedCount() {
+        return executor.getQueue().size();
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public long getCompletedCount() {
+        return executor.getCompletedTaskCount();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+}
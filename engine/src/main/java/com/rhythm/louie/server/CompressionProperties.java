@@ -0,0 +1,61 @@
+/*
+ * Copyright 2015 Rhythm & Hues Studios.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rhythm.louie.server;
+
+import org.jdom2.Element;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Configuration for compressing pb responses, for clients that accept it
+ *
+ * @author cjohnson
+ */
+public class CompressionProperties {
+
+    private static final String ENABLE = "enable";
+    private static final String THRESHOLD = "threshold";
+
+    private static boolean enabled = true;
+    private static int threshold = 16 * 1024;
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the encoded size in bytes at which a response is compressed
+     */
+    public static int getThreshold() {
+        return threshold;
+    }
+
+    public static void processProperties(Element compression) {
+        for (Element child : compression.getChildren()) {
+            String elemName = child.getName().toLowerCase();
+            String elemValue = child.getTextTrim();
+            switch (elemName) {
+                case ENABLE: enabled = Boolean.parseBoolean(elemValue);
+                    break;
+                case THRESHOLD: threshold = Integer.parseInt(elemValue);
+                    break;
+                default: LoggerFactory.getLogger(LouieProperties.class)
+                            .warn("Unexpected compression property  {}:{}",elemName,elemValue);
+                    break;
+            }
+        }
+    }
+
+}
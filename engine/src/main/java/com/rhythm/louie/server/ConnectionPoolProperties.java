@@ -0,0 +1,113 @@
+/*
+ * Copyright 2015 Rhythm & Hues Studios.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rhythm.louie.server;
+
+import org.jdom2.Element;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Configuration for the pool of persistent http connections that 
+ * LouieConnections use to call remote servers
+ *
+ * @author cjohnson
+ */
+public class ConnectionPoolProperties {
+
+    private static final String ENABLE = "enable";
+    private static final String SIZE = "size";
+    private static final String IDLE_TIMEOUT = "idle_timeout";
+    private static final String ASYNC_THREADS = "async_threads";
+    private static final String BATCH_WINDOW = "batch_window";
+    private static final String BATCH_SIZE = "batch_size";
+
+    private static boolean enabled = false;
+    private static int size = 8;
+    private static int idleTimeout = 10000;
+    private static int asyncThreads = 16;
+    private static int batchWindow = 0;
+    private static int batchSize = 32;
+
+    /**
+     * @return true if http connections are pooled, off unless configured
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the maximum number of idle connections kept open per host.  It
+     * does not limit the connections open at once, as each concurrent request
+     * takes its own connection.
+     */
+    public static int getSize() {
+        return size;
+    }
+
+    /**
+     * @return the millis an idle connection is kept open, which should be 
+     * shorter than the keep-alive timeout of the remote servers
+     */
+    public static int getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * @return the threads shared by asynchronous client calls
+     */
+    public static int getAsyncThreads() {
+        return asyncThreads;
+    }
+
+    /**
+     * @return the millis a request waits for concurrent requests to join it 
+     * in a batch, 0 if requests are not batched
+     */
+    public static int getBatchWindow() {
+        return batchWindow;
+    }
+
+    /**
+     * @return the most requests coalesced into one batch
+     */
+    public static int getBatchSize() {
+        return batchSize;
+    }
+
+    public static void processProperties(Element pool) {
+        for (Element child : pool.getChildren()) {
+            String elemName = child.getName().toLowerCase();
+            String elemValue = child.getTextTrim();
+            switch (elemName) {
+                case ENABLE: enabled = Boolean.parseBoolean(elemValue);
+                    break;
+                case SIZE: size = Integer.parseInt(elemValue);
+                    break;
+                case IDLE_TIMEOUT: idleTimeout = Integer.parseInt(elemValue);
+                    break;
+                case ASYNC_THREADS: asyncThreads = Integer.parseInt(elemValue);
+                    break;
+                case BATCH_WINDOW: batchWindow = Integer.parseInt(elemValue);
+                    break;
+                case BATCH_SIZE: batchSize = Integer.parseInt(elemValue);
+                    break;
+                default: LoggerFactory.getLogger(LouieProperties.class)
+                            .warn("Unexpected connection_pool property  {}:{}",elemName,elemValue);
+                    break;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2015 Rhythm & Hues Studios.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rhythm.louie.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A lock free histogram of non negative values, bucketed log linearly in the 
+ * style of HdrHistogram.  Each power of two is split into 32 sub buckets, so 
+ * any recorded value is reported to within ~3%.  Values of 2^36 and above are 
+ * counted in the last bucket.
+ * 
+ * The counts of each power of two are only allocated once a value is recorded
+ * in it, so a histogram costs little until it is used.
+ * 
+ * Recording is a few atomic increments, so is cheap enough for every request. 
+ * Reads are not atomic across buckets, so a percentile taken while recording 
+ * may be off by the values recorded during the read.
+ * 
+ * @author cjohnson
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final long MAX_TRACKABLE = (1L << 36) - 1;
+    private static final int BUCKETS = indexFor(MAX_TRACKABLE) + 1;
+    private static final int CHUNKS = (BUCKETS + SUB_COUNT - 1) / SUB_COUNT;
+    
+    // SUB_COUNT buckets per chunk, allocated on first use
+    private final AtomicReferenceArray<AtomicLongArray> chunks = new AtomicReferenceArray<>(CHUNKS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+    
+    static int indexFor(long value) {
+        if (value < 2 * SUB_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return shift * SUB_COUNT + (int) (value >>> shift);
+    }
+    
+    /**
+     * @return the largest value that is counted in the bucket
+     */
+    static long highestValueAt(int index) {
+        if (index < 2 * SUB_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_COUNT - 1;
+        long sub = index % SUB_COUNT + SUB_COUNT;
+        return ((sub + 1) << shift) - 1;
+    }
+    
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        int index = indexFor(Math.min(value, MAX_TRACKABLE));
+        chunk(index / SUB_COUNT).incrementAndGet(index % SUB_COUNT);
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+    
+    private AtomicLongArray chunk(int index) {
+        AtomicLongArray chunk = chunks.get(index);
+        if (chunk == null) {
+            chunks.compareAndSet(index, null, new AtomicLongArray(SUB_COUNT));
+            chunk = chunks.get(index);
+        }
+        return chunk;
+    }
+    
+    public long getCount() {
+        return count.get();
+    }
+    
+    public long getMax() {
+        return max.get();
+    }
+    
+    public double getMean() {
+        long c = count.get();
+        return c == 0 ? 0 : (double) sum.get() / c;
+    }
+    
+    /**
+     * @param percentile between 0 and 100
+     * @return the value that the given percent of recorded values are at or 
+     * below, or 0 if nothing has been recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * total));
+        long seen = 0;
+        for (int c = 0; c < CHUNKS; c++) {
+            AtomicLongArray chunk = chunks.get(c);
+            if (chunk == null) {
+                continue;
+            }
+            for (int sub = 0; sub < SUB_COUNT; sub++) {
+                seen += chunk.get(sub);
+                if (seen >= target) {
+                    int i = c * SUB_COUNT + sub;
+                    // the last bucket also holds every value beyond the trackable range
+                    return i == BUCKETS - 1 ? max.get() : Math.min(highestValueAt(i), max.get());
+                }
+            }
+        }
+        return max.get();
+    }
+}
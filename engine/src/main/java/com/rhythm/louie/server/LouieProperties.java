@@ -61,8 +61,15 @@ public class LouieProperties {
     private static final String REMOTE_SERVER = "remote_server";
     private static final String READ_ONLY = "read_only";
     private static final String CACHING = "caching";
+    private static final String RESPONSE_CACHE = "response_cache";
+    private static final String STREAM_FLUSH_BYTES = "stream_flush_bytes";
+    private static final String STREAM_FLUSH_MS = "stream_flush_ms";
+    private static final String MAX_CONCURRENT = "max_concurrent";
+    private static final String MAX_QUEUED = "max_queued";
+    private static final String QUEUE_TIMEOUT = "queue_timeout";
     private static final String PROVIDER_CL = "provider_class";
     private static final String RESPECTED_GROUPS = "respected_groups";
+    private static final String RATE_LIMIT = "rate_limit";
     
     private static final String LAYERS = "layers";
     private static final String LAYER = "layer";
@@ -70,6 +77,10 @@ public class LouieProperties {
     private static final String LAYER_CACHE = "cache";
     private static final String LAYER_ROUTER = "router";
     private static final String LAYER_REMOTE = "remote";
+    private static final String TRANSPORT = "transport";
+    private static final String TRANSPORT_PORT = "transport_port";
+    private static final String TRANSPORT_HTTP = "http";
+    private static final String TRANSPORT_SOCKET = "socket";
     
     //servers
     private static final String SERVER = "server";
@@ -95,6 +106,18 @@ public class LouieProperties {
     private static final String SCHEDULER = "scheduler";
     private static final String POOL_SIZE = "thread_pool_size";
     
+    //request executor
+    private static final String REQUEST_EXECUTOR = "request_executor";
+    
+    //socket transport
+    private static final String TRANSPORT_PARENT = "transport";
+    
+    //response compression
+    private static final String COMPRESSION = "compression";
+    
+    //client connection pool
+    private static final String CONNECTION_POOL = "connection_pool";
+    
     //alerts
     private static final String ALERTS = "alerts";
     
@@ -182,6 +205,18 @@ public class LouieProperties {
                 case SCHEDULER:
                     TaskSchedulerProperties.processProperties(elem);
                     break;
+                case REQUEST_EXECUTOR:
+                    RequestExecutorProperties.processProperties(elem);
+                    break;
+                case TRANSPORT_PARENT:
+                    TransportProperties.processProperties(elem);
+                    break;
+                case COMPRESSION:
+                    CompressionProperties.processProperties(elem);
+                    break;
+                case CONNECTION_POOL:
+                    ConnectionPoolProperties.processProperties(elem);
+                    break;
                 case ALERTS:
                     AlertProperties.processProperties(elem);
                     break;
@@ -419,12 +454,26 @@ public class LouieProperties {
                 if (null != propName) switch (propName) {
                     case CACHING: prop.setCaching(Boolean.valueOf(propValue));
                         break;
+                    case RESPONSE_CACHE: prop.setResponseCacheSpec(propValue);
+                        break;
+                    case STREAM_FLUSH_BYTES: prop.setStreamFlushBytes(Integer.parseInt(propValue));
+                        break;
+                    case STREAM_FLUSH_MS: prop.setStreamFlushMs(Integer.parseInt(propValue));
+                        break;
+                    case MAX_CONCURRENT: prop.setMaxConcurrent(Integer.parseInt(propValue));
+                        break;
+                    case MAX_QUEUED: prop.setMaxQueued(Integer.parseInt(propValue));
+                        break;
+                    case QUEUE_TIMEOUT: prop.setQueueTimeout(Integer.parseInt(propValue));
+                        break;
                     case READ_ONLY: prop.setReadOnly(Boolean.valueOf(propValue));
                         break;
                     case PROVIDER_CL: prop.setProviderClass(propValue);
                         break;
                     case RESPECTED_GROUPS: AccessManager.loadServiceAccess(serviceName, serviceProp);
                         break;
+                    case RATE_LIMIT: AccessManager.loadServiceRateLimit(serviceName, serviceProp);
+                        break;
                     case RESERVED: 
                         if (internal) prop.setReserved(Boolean.valueOf(propValue));
                         break;
@@ -466,18 +515,28 @@ public class LouieProperties {
                     String host = layer.getAttributeValue(HOST);
                     String gateway = layer.getAttributeValue(GATEWAY);
                     String port = layer.getAttributeValue(PORT);
+                    String transport = layer.getAttributeValue(TRANSPORT);
+                    String transportPort = layer.getAttributeValue(TRANSPORT_PORT);
+                    RemoteServiceLayer remote;
                     if (server != null) {
-                        props.addLayer(new RemoteServiceLayer(server));
+                        remote = new RemoteServiceLayer(server);
                     } else if (host != null && gateway != null && port != null) {
-                        props.addLayer(new RemoteServiceLayer(host,gateway,Integer.parseInt(port)));
+                        remote = new RemoteServiceLayer(host,gateway,Integer.parseInt(port));
                     } else {
                         String defaultServer = ServiceProperties.getDefaultRemoteServer();
                         if (defaultServer == null) {
                             LoggerFactory.getLogger(LouieProperties.class)
                                     .error("Failed to configure remote layer for service {}. Check configs.", props.getName());
                         }
-                        props.addLayer(new RemoteServiceLayer(defaultServer));
+                        remote = new RemoteServiceLayer(defaultServer);
+                    }
+                    if (TRANSPORT_SOCKET.equalsIgnoreCase(transport)) {
+                        remote.setSocketTransport(transportPort == null ? 0 : Integer.parseInt(transportPort));
+                    } else if (transport != null && !TRANSPORT_HTTP.equalsIgnoreCase(transport)) {
+                        LoggerFactory.getLogger(LouieProperties.class)
+                                .warn("Unknown transport {} for service {}, using http", transport, props.getName());
                     }
+                    props.addLayer(remote);
                     break;
                 default:
                     LoggerFactory.getLogger(LouieProperties.class)
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2015 Rhythm & Hues Studios.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rhythm.louie.server;
+
+import org.jdom2.Element;
+
+/**
+ * A configured request rate, from which a TokenBucket is made for each 
+ * session or user it applies to
+ *
+ * @author cjohnson
+ */
+public class RateLimit {
+    private static final String RATE = "rate";
+    private static final String BURST = "burst";
+    
+    private final double rate;
+    private final int burst;
+
+    public RateLimit(double rate, int burst) {
+        this.rate = rate;
+        this.burst = burst;
+    }
+    
+    /**
+     * @param elem an element with a rate attribute, and optionally a burst
+     * @return the RateLimit, or null if there is no rate
+     */
+    public static RateLimit fromElement(Element elem) {
+        String rate = elem.getAttributeValue(RATE);
+        if (rate == null) {
+            return null;
+        }
+        double perSecond = Double.parseDouble(rate);
+        String burst = elem.getAttributeValue(BURST);
+        if (burst == null) {
+            return new RateLimit(perSecond, (int) Math.max(1, Math.ceil(perSecond)));
+        }
+        return new RateLimit(perSecond, Integer.parseInt(burst));
+    }
+
+    /**
+     * @return requests per second
+     */
+    public double getRate() {
+        return rate;
+    }
+
+    /**
+     * @return the number of requests that may be made at once after idling
+     */
+    public int getBurst() {
+        return burst;
+    }
+    
+    public TokenBucket newBucket() {
+        return new TokenBucket(rate, burst);
+    }
+
+    @Override
+    public String toString() {
+        return rate+"/s (burst "+burst+")";
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2015 Rhythm & Hues Studios.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rhythm.louie.server;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.slf4j.LoggerFactory;
+
+import com.rhythm.louie.service.Service;
+
+/**
+ * Bounded pools used to dispatch the requests of a batch in parallel, and to
+ * run servlet requests off of the container threads when async is enabled.
+ *
+ * The two are kept separate so that batches executing on the async pool can
+ * never starve their own requests. When a pool and its queue are full the
+ * submitting thread runs the request itself, so the backlog can never grow 
+ * without bound, unless it was offered to be rejected instead.
+ * 
+ * Services may also be assigned to bulkhead pools, with the reserved services
+ * sharing a pool of their own, so that they keep answering while other 
+ * services are saturated.
+ *
+ * @author cjohnson
+ */
+public class RequestExecutor {
+
+    private ThreadPoolExecutor executor;
+    private ThreadPoolExecutor asyncExecutor;
+    
+    private volatile Map<String,Bulkhead> bulkheadsByService;
+    private List<Bulkhead> bulkheads = Collections.emptyList();
+    private Bulkhead reservedBulkhead;
+
+    private RequestExecutor() {}
+
+    public static RequestExecutor getInstance() {
+        return RequestExecutorHolder.INSTANCE;
+    }
+
+    private static class RequestExecutorHolder {
+        private static final RequestExecutor INSTANCE = new RequestExecutor();
+    }
+
+    private synchronized ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            executor = createExecutor("louie-request-%d",
+                    RequestExecutorProperties.getThreadPoolSize(),
+                    RequestExecutorProperties.getQueueSize());
+        }
+        return executor;
+    }
+    
+    private synchronized ThreadPoolExecutor getAsyncExecutor() {
+        if (asyncExecutor == null) {
+            asyncExecutor = createExecutor("louie-async-%d",
+                    RequestExecutorProperties.getAsyncThreadPoolSize(),
+                    RequestExecutorProperties.getAsyncQueueSize());
+        }
+        return asyncExecutor;
+    }
+    
+    private Map<String,Bulkhead> getBulkheadsByService() {
+        Map<String,Bulkhead> byService = bulkheadsByService;
+        if (byService == null) {
+            synchronized (this) {
+                if (bulkheadsByService == null) {
+                    createBulkheads();
+                }
+                byService = bulkheadsByService;
+            }
+        }
+        return byService;
+    }
+    
+    private void createBulkheads() {
+        Map<String,Bulkhead> byService = new HashMap<>();
+        List<Bulkhead> all = new ArrayList<>();
+        for (RequestExecutorProperties.PoolProperties pool : RequestExecutorProperties.getPools()) {
+            Bulkhead bulkhead = new Bulkhead(pool.getName(), pool.getServices(), 
+                    pool.getPoolSize(), pool.getQueueSize());
+            all.add(bulkhead);
+            for (String service : pool.getServices()) {
+                if (byService.put(service, bulkhead) != null) {
+                    LoggerFactory.getLogger(RequestExecutor.class)
+                            .warn("Service {} is assigned to more than one pool, using {}", service, pool.getName());
+                }
+            }
+        }
+        if (RequestExecutorProperties.getReservedPoolSize() > 0) {
+            reservedBulkhead = new Bulkhead("reserved", Collections.<String>emptyList(),
+                    RequestExecutorProperties.getReservedPoolSize(), 
+                    RequestExecutorProperties.getReservedQueueSize());
+            all.add(reservedBulkhead);
+        }
+        bulkheads = Collections.unmodifiableList(all);
+        bulkheadsByService = Collections.unmodifiableMap(byService);
+    }
+    
+    /**
+     * @param service the service
+     * @return the pool the service executes on, or null to execute on the 
+     * calling thread
+     */
+    public Bulkhead getBulkhead(Service service) {
+        Bulkhead bulkhead = getBulkheadsByService().get(service.getServiceName());
+        if (bulkhead == null && service.isReserved()) {
+            return reservedBulkhead;
+        }
+        return bulkhead;
+    }
+    
+    /**
+     * @return every bulkhead pool, including the reserved pool
+     */
+    public synchronized List<Bulkhead> getBulkheads() {
+        getBulkheadsByService();
+        return bulkheads;
+    }
+    
+    private static ThreadPoolExecutor createExecutor(String nameFormat, int poolSize, int queueSize) {
+        ThreadFactory threadFactory = new ThreadFactoryBuilder()
+                .setNameFormat(nameFormat).build();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(poolSize, poolSize,
+                60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize),
+                threadFactory,
+                new CallerRunsPolicy());
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Creates a CompletionService backed by the request pool.  When the pool
+     * and its queue are full, submit throws a RejectedExecutionException 
+     * rather than running the task on the submitting thread.
+     *
+     * @param <T> the result type of the submitted tasks
+     * @return a new CompletionService
+     */
+    public <T> CompletionService<T> newCompletionService() {
+        return new ExecutorCompletionService<>(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                getExecutor().execute(new RejectableTask(command));
+            }
+        });
+    }
+
+    /**
+     * Executes a servlet request on the async pool
+     *
+     * @param command the request to execute
+     */
+    public void dispatch(Runnable command) {
+        getAsyncExecutor().execute(command);
+    }
+
+    /**
+     * Executes a request on the async pool, unless the pool and its queue are
+     * full.  For submitters that must not run requests themselves.
+     *
+     * @param command the request to execute
+     * @return false if the pool is full and the request was not accepted
+     */
+    public boolean tryDispatch(Runnable command) {
+        try {
+            getAsyncExecutor().execute(new RejectableTask(command));
+            return true;
+        } catch (RejectedExecutionException ex) {
+            return false;
+        }
+    }
+    
+    private static class RejectableTask implements Runnable {
+        private final Runnable command;
+
+        public RejectableTask(Runnable command) {
+            this.command = command;
+        }
+
+        @Override
+        public void run() {
+            command.run();
+        }
+    }
+    
+    /**
+     * Runs a task on the submitting thread when the pool is full, unless it 
+     * was offered to be rejected
+     */
+    private static class CallerRunsPolicy implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            if (r instanceof RejectableTask) {
+                throw new RejectedExecutionException("Request pool is full");
+            }
+            if (!executor.isShutdown()) {
+                r.run();
+            }
+        }
+    }
+
+    public synchronized int getActiveCount() {
+        return executor == null ? 0 : executor.getActiveCount();
+    }
+
+    public synchronized int getQueuedCount() {
+        return executor == null ? 0 : executor.getQueue().size();
+    }
+
+    public synchronized int getAsyncActiveCount() {
+        return asyncExecutor == null ? 0 : asyncExecutor.getActiveCount();
+    }
+
+    public synchronized int getAsyncQueuedCount() {
+        return asyncExecutor == null ? 0 : asyncExecutor.getQueue().size();
+    }
+
+    synchronized public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        if (asyncExecutor != null) {
+            asyncExecutor.shutdownNow();
+            asyncExecutor = null;
+        }
+        for (Bulkhead bulkhead : bulkheads) {
+            bulkhead.shutdown();
+        }
+        bulkheads = Collections.emptyList();
+        reservedBulkhead = null;
+        bulkheadsByService = null;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2015 Rhythm & Hues Studios.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rhythm.louie.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.jdom2.Element;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Configuration for the pools used to execute the requests of a batch in parallel,
+ * to execute servlet requests asynchronously of the container threads, and the
+ * bulkhead pools that isolate groups of services from one another
+ *
+ * @author cjohnson
+ */
+public class RequestExecutorProperties {
+
+    private static final String POOL_SIZE = "thread_pool_size";
+    private static final String QUEUE_SIZE = "queue_size";
+    private static final String ASYNC = "async";
+    private static final String ASYNC_POOL_SIZE = "async_thread_pool_size";
+    private static final String ASYNC_QUEUE_SIZE = "async_queue_size";
+    private static final String ASYNC_TIMEOUT = "async_timeout";
+    private static final String RESERVED_POOL_SIZE = "reserved_pool_size";
+    private static final String RESERVED_QUEUE_SIZE = "reserved_queue_size";
+    private static final String POOL = "pool";
+    private static final String POOL_NAME = "name";
+    private static final String POOL_SERVICE = "service";
+
+    private static int threadPoolSize = 16;
+    private static int queueSize = 256;
+    private static boolean async = false;
+    private static int asyncPoolSize = 64;
+    private static int asyncQueueSize = 1024;
+    private static long asyncTimeout = 0;
+    private static int reservedPoolSize = 0;
+    private static int reservedQueueSize = 64;
+    private static final List<PoolProperties> pools = new ArrayList<>();
+
+    public static int getThreadPoolSize() {
+        return threadPoolSize;
+    }
+
+    public static int getQueueSize() {
+        return queueSize;
+    }
+
+    public static boolean isAsync() {
+        return async;
+    }
+
+    public static int getAsyncThreadPoolSize() {
+        return asyncPoolSize;
+    }
+
+    public static int getAsyncQueueSize() {
+        return asyncQueueSize;
+    }
+
+    /**
+     * @return the AsyncContext timeout in ms, 0 meaning no timeout
+     */
+    public static long getAsyncTimeout() {
+        return asyncTimeout;
+    }
+
+    /**
+     * @return the size of the pool shared by the reserved services, 0 (the 
+     * default) to run them on the calling thread like any other service
+     */
+    public static int getReservedPoolSize() {
+        return reservedPoolSize;
+    }
+
+    public static int getReservedQueueSize() {
+        return reservedQueueSize;
+    }
+
+    /**
+     * @return the configured bulkhead pools
+     */
+    public static List<PoolProperties> getPools() {
+        return Collections.unmodifiableList(pools);
+    }
+
+    public static void processProperties(Element executor) {
+        for (Element child : executor.getChildren()) {
+            String elemName = child.getName().toLowerCase();
+            String elemValue = child.getTextTrim();
+            switch (elemName) {
+                case POOL_SIZE: threadPoolSize = Integer.parseInt(elemValue);
+                    break;
+                case QUEUE_SIZE: queueSize = Integer.parseInt(elemValue);
+                    break;
+                case ASYNC: async = Boolean.parseBoolean(elemValue);
+                    break;
+                case ASYNC_POOL_SIZE: asyncPoolSize = Integer.parseInt(elemValue);
+                    break;
+                case ASYNC_QUEUE_SIZE: asyncQueueSize = Integer.parseInt(elemValue);
+                    break;
+                case ASYNC_TIMEOUT: asyncTimeout = Long.parseLong(elemValue);
+                    break;
+                case RESERVED_POOL_SIZE: reservedPoolSize = Integer.parseInt(elemValue);
+                    break;
+                case RESERVED_QUEUE_SIZE: reservedQueueSize = Integer.parseInt(elemValue);
+                    break;
+                case POOL: processPool(child);
+                    break;
+                default: LoggerFactory.getLogger(LouieProperties.class)
+                            .warn("Unexpected request executor property  {}:{}",elemName,elemValue);
+                    break;
+            }
+        }
+    }
+    
+    private static void processPool(Element pool) {
+        PoolProperties props = new PoolProperties(pool.getAttributeValue(POOL_NAME));
+        for (Element child : pool.getChildren()) {
+            String elemName = child.getName().toLowerCase();
+            String elemValue = child.getTextTrim();
+            switch (elemName) {
+                case POOL_SIZE: props.poolSize = Integer.parseInt(elemValue);
+                    break;
+                case QUEUE_SIZE: props.queueSize = Integer.parseInt(elemValue);
+                    break;
+                case POOL_SERVICE: props.services.add(elemValue);
+                    break;
+                default: LoggerFactory.getLogger(LouieProperties.class)
+                            .warn("Unexpected pool property  {}:{}",elemName,elemValue);
+                    break;
+            }
+        }
+        pools.add(props);
+    }
+    
+    /**
+     * A bulkhead pool and the services that execute on it
+     */
+    public static class PoolProperties {
+        private final String name;
+        private int poolSize = 8;
+        private int queueSize = 64;
+        private final List<String> services = new ArrayList<>();
+
+        private PoolProperties(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getPoolSize() {
+            return poolSize;
+        }
+
+        public int getQueueSize() {
+            return queueSize;
+        }
+
+        public List<String> getServices() {
+            return Collections.unmodifiableList(services);
+        }
+    }
+
+}
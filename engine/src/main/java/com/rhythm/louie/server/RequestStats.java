@@ -0,0 +1,197 @@
+/*
+ * Copyright 2015 Rhythm & Hues Studios.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rhythm.louie.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.rhythm.louie.request.RequestContext;
+import com.rhythm.louie.request.RequestPhase;
+import com.rhythm.louie.request.data.Result;
+import com.rhythm.louie.service.Service;
+import com.rhythm.louie.service.command.PBCommand;
+
+/**
+ * Live latency and size histograms of the requests made to a single service 
+ * method, recorded by the request processors as each request completes.  
+ * Times are recorded in microseconds.  Only methods of the services that are
+ * loaded are recorded, so that requests for methods that do not exist cannot
+ * fill the table.
+ * 
+ * @author cjohnson
+ */
+public class RequestStats {
+    // a backstop, as only the methods of loaded services are recorded
+    private static final int MAX_METHODS = 4096;
+    
+    private static final ConcurrentMap<String, RequestStats> stats = new ConcurrentHashMap<>();
+    
+    private final String service;
+    private final String method;
+    private final AtomicLong errors = new AtomicLong();
+    private final LatencyHistogram totalTime = new LatencyHistogram();
+    private final LatencyHistogram execTime = new LatencyHistogram();
+    private final LatencyHistogram serializeTime = new LatencyHistogram();
+    private final LatencyHistogram bytes = new LatencyHistogram();
+    private final Map<RequestPhase, LatencyHistogram> phaseTimes = new EnumMap<>(RequestPhase.class);
+    
+    private RequestStats(String service, String method) {
+        this.service = service;
+        this.method = method;
+        for (RequestPhase phase : RequestPhase.values()) {
+            phaseTimes.put(phase, new LatencyHistogram());
+        }
+    }
+    
+    /**
+     * @return the stats of the method, or null if the service has no such 
+     * method or too many methods are tracked
+     */
+    public static RequestStats forMethod(String service, String method) {
+        String key = service + ":" + method;
+        RequestStats stat = stats.get(key);
+        if (stat == null) {
+            if (stats.size() >= MAX_METHODS || !hasMethod(service, method)) {
+                return null;
+            }
+            stat = new RequestStats(service, method);
+            RequestStats existing = stats.putIfAbsent(key, stat);
+            if (existing != null) {
+                stat = existing;
+            }
+        }
+        return stat;
+    }
+    
+    private static boolean hasMethod(String serviceName, String method) {
+        Service service;
+        try {
+            service = ServiceManager.getService(serviceName);
+        } catch (Exception e) {
+            return false;
+        }
+        if (service == null) {
+            return false;
+        }
+        for (PBCommand command : service.getCommands()) {
+            if (command.getCommandName().equals(method)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Records a completed request
+     * 
+     * @param request the request
+     * @param result the result, sized once it has been written
+     * @param totalNanos from reading the request through writing the response
+     * @param execNanos spent processing the request
+     * @param serializeNanos spent writing the response
+     */
+    public static void record(RequestContext request, Result result, 
+            long totalNanos, long execNanos, long serializeNanos) {
+        RequestStats stat = forMethod(request.getRequest().getService(), 
+                request.getRequest().getMethod());
+        if (stat == null) {
+            return;
+        }
+        stat.totalTime.record(TimeUnit.NANOSECONDS.toMicros(totalNanos));
+        stat.execTime.record(TimeUnit.NANOSECONDS.toMicros(execNanos));
+        stat.serializeTime.record(TimeUnit.NANOSECONDS.toMicros(serializeNanos));
+        stat.bytes.record(result.getSize());
+        for (RequestPhase phase : RequestPhase.values()) {
+            long phaseNanos = request.getPhaseTime(phase);
+            // skip phases that did not apply, such as the session of a json request
+            if (phaseNanos > 0) {
+                stat.phaseTimes.get(phase).record(TimeUnit.NANOSECONDS.toMicros(phaseNanos));
+            }
+        }
+        if (result.isError()) {
+            stat.errors.incrementAndGet();
+        }
+    }
+    
+    /**
+     * @return the stats of every method called, ordered by service and method
+     */
+    public static List<RequestStats> getAll() {
+        List<RequestStats> all = new ArrayList<>(stats.values());
+        Collections.sort(all, new Comparator<RequestStats>() {
+            @Override
+            public int compare(RequestStats o1, RequestStats o2) {
+                int c = o1.service.compareTo(o2.service);
+                return c != 0 ? c : o1.method.compareTo(o2.method);
+            }
+        });
+        return all;
+    }
+    
+    /**
+     * Discards every histogram, so that they only reflect requests from now on
+     */
+    public static void resetAll() {
+        stats.clear();
+    }
+    
+    public String getService() {
+        return service;
+    }
+    
+    public String getMethod() {
+        return method;
+    }
+    
+    public long getCount() {
+        return totalTime.getCount();
+    }
+    
+    public long getErrors() {
+        return errors.get();
+    }
+    
+    public LatencyHistogram getTotalTime() {
+        return totalTime;
+    }
+    
+    public LatencyHistogram getExecTime() {
+        return execTime;
+    }
+    
+    public LatencyHistogram getSerializeTime() {
+        return serializeTime;
+    }
+    
+    public LatencyHistogram getBytes() {
+        return bytes;
+    }
+    
+    /**
+     * @return the time spent in a phase, by the requests that went through it
+     */
+    public LatencyHistogram getPhaseTime(RequestPhase phase) {
+        return phaseTimes.get(phase);
+    }
+}
@@ -32,11 +32,15 @@ import org.slf4j.LoggerFactory;
 import com.rhythm.louie.Delegate;
 import com.rhythm.louie.ServiceProcessor;
 import com.rhythm.louie.cache.CacheManager;
+import com.rhythm.louie.connection.AsyncRequestEngine;
+import com.rhythm.louie.connection.HttpConnectionPool;
 import com.rhythm.louie.connection.Identity;
 import com.rhythm.louie.email.EmailService;
 import com.rhythm.louie.jms.*;
 import com.rhythm.louie.service.Service;
 import com.rhythm.louie.service.ServiceFactory;
+import com.rhythm.louie.transport.TransportClient;
+import com.rhythm.louie.transport.TransportServer;
 
 /**
  * @author cjohnson
@@ -53,11 +57,41 @@ public class ServiceManager {
     
     private ServiceManager() {};
     
+    /**
+     * Initializes without a servlet container, loading louie.xml from the root
+     * of the classpath if present
+     * 
+     * @throws MessageAdapterException 
+     */
     public static synchronized void initialize() throws MessageAdapterException {
-        initialize(null);
+        initialize((ServletContext) null);
     }
     
     public static synchronized void initialize(ServletContext context) throws MessageAdapterException {
+        if (context == null) {
+            initialize(ServiceManager.class.getResource("/" + LOUIE_PROPERTIES), null);
+            return;
+        }
+        
+        URL louieXml = null;
+        try {
+            louieXml = context.getResource(PROP_DIR + LOUIE_PROPERTIES);
+        } catch (MalformedURLException ex) {
+            LoggerFactory.getLogger(ServiceManager.class)
+                    .error("Failed to get URL for Properties file: {}",ex.toString());
+        }
+        String contextGateway = context.getContextPath().replaceFirst("/", "");
+        initialize(louieXml, contextGateway);
+    }
+    
+    /**
+     * Initializes from an explicit config, such as when running the EmbeddedServer
+     * 
+     * @param louieXml the louie.xml to load, or null to use defaults
+     * @param gateway the gateway being served, or null to use the configured default
+     * @throws MessageAdapterException 
+     */
+    public static synchronized void initialize(URL louieXml, String gateway) throws MessageAdapterException {
         if (init) return;
         
         Logger LOGGER = LoggerFactory.getLogger(ServiceManager.class);
@@ -84,7 +118,7 @@ public class ServiceManager {
         Identity.registerLouieIdentity();
         
         try {
-            loadProperties(context);
+            LouieProperties.processProperties(louieXml, gateway);
         } catch (Exception ex) {
             LOGGER.error(ex.toString());
             return;
@@ -121,6 +155,14 @@ public class ServiceManager {
         
         MemoryAlertManager.initializeMonitors(); //should be configurable
         
+        if (TransportProperties.isEnabled()) {
+            try {
+                TransportServer.getInstance().start();
+            } catch (Exception ex) {
+                LOGGER.error("Error starting socket transport", ex);
+            }
+        }
+        
         LOGGER.info(sb.toString());
     }
     
@@ -240,26 +282,6 @@ public class ServiceManager {
         }
     }
     
-    /**
-     * Attempts to locate a full file and path via a property set in web.xml
-     * If this fails, it will attempt to locate a URL as a servlet resource
-     * If that also fails, you will startup with a default set of properties for each service 
-     * but Servers will remain unconfigured (only localhost known)
-     * @param context The ServletContext for this deployment
-     * @throws Exception 
-     */
-    private static void loadProperties(ServletContext context) throws Exception{
-        URL louieXml = null;
-        try {
-            louieXml = context.getResource(PROP_DIR + LOUIE_PROPERTIES);
-        } catch (MalformedURLException ex) {
-            LoggerFactory.getLogger(ServiceManager.class)
-                    .error("Failed to get URL for Properties file: {}",ex.toString());
-        }
-        String contextGateway = context.getContextPath().replaceFirst("/", "");
-        LouieProperties.processProperties(louieXml, contextGateway);
-    }
-    
     private static void initializeService(ServiceFactory factory) throws Exception, MessageAdapterException {
         Service service = factory.getService();
         service.initialize();
@@ -282,6 +304,10 @@ public class ServiceManager {
         LOGGER.info("Louie Shutdown Initiated");
         
         MessageManager.getInstance().shutdown();
+        TransportServer.getInstance().shutdown();
+        AsyncRequestEngine.shutdown();
+        HttpConnectionPool.shutdown();
+        TransportClient.shutdown();
         
         for (Service service : getServices()) {
             try {
@@ -293,6 +319,7 @@ public class ServiceManager {
         
         MessageUpdate.getInstance().shutdown();
         TaskScheduler.getInstance().shutdown();
+        RequestExecutor.getInstance().shutdown();
         EmailService.getInstance().shutdown();
         CacheManager.shutdown();
         
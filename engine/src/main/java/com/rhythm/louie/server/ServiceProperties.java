@@ -47,6 +47,12 @@ public class ServiceProperties {
     private boolean caching;
     private boolean reserved = false;
     private String providerClass = null;
+    private String responseCacheSpec = null;
+    private int streamFlushBytes = 32 * 1024;
+    private int streamFlushMs = 50;
+    private int maxConcurrent = 0;
+    private int maxQueued = 0;
+    private int queueTimeout = 1000;
     
     private final List<ServiceLayer> layers;
     private final Map<String,String> properties;
@@ -117,6 +123,51 @@ public class ServiceProperties {
         return providerClass;
     }
     
+    /**
+     * @return the guava cache spec for the response cache, or null if disabled
+     */
+    public String getResponseCacheSpec() {
+        return responseCacheSpec;
+    }
+    
+    /**
+     * @return the number of bytes written to a streaming response before it is flushed
+     */
+    public int getStreamFlushBytes() {
+        return streamFlushBytes;
+    }
+    
+    /**
+     * @return the maximum time in ms that written messages of a streaming response 
+     * may wait before being flushed
+     */
+    public int getStreamFlushMs() {
+        return streamFlushMs;
+    }
+    
+    /**
+     * @return the maximum number of requests the service executes at once, 
+     * 0 for no limit
+     */
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+    
+    /**
+     * @return the number of requests that may wait for a slot once the service
+     * is executing its maximum, any more are rejected
+     */
+    public int getMaxQueued() {
+        return maxQueued;
+    }
+    
+    /**
+     * @return the maximum time in ms a request waits for a slot before being rejected
+     */
+    public int getQueueTimeout() {
+        return queueTimeout;
+    }
+    
     synchronized public List<ServiceLayer> getServiceLayers() {
         return Collections.unmodifiableList(layers);
     }
@@ -175,6 +226,26 @@ public class ServiceProperties {
         this.caching = caching;
     }
     
+    protected void setStreamFlushBytes(int streamFlushBytes) {
+        this.streamFlushBytes = streamFlushBytes;
+    }
+    
+    protected void setStreamFlushMs(int streamFlushMs) {
+        this.streamFlushMs = streamFlushMs;
+    }
+    
+    protected void setMaxConcurrent(int maxConcurrent) {
+        this.maxConcurrent = maxConcurrent;
+    }
+    
+    protected void setMaxQueued(int maxQueued) {
+        this.maxQueued = maxQueued;
+    }
+    
+    protected void setQueueTimeout(int queueTimeout) {
+        this.queueTimeout = queueTimeout;
+    }
+    
     protected void setReserved(boolean reserved) {
         this.reserved = reserved;
     }
@@ -182,6 +253,10 @@ public class ServiceProperties {
     protected void setProviderClass(String providerClass) {
         this.providerClass = providerClass;
     }
+    
+    protected void setResponseCacheSpec(String responseCacheSpec) {
+        this.responseCacheSpec = responseCacheSpec == null || responseCacheSpec.isEmpty() ? null : responseCacheSpec;
+    }
 
     synchronized protected void addLayer(ServiceLayer layer) {
         layers.add(layer);
@@ -231,6 +306,14 @@ public class ServiceProperties {
         out.append("<b>read_only:</b> ").append(isReadOnly()).append("<br/>\n");
         out.append("<b>caching:</b>   ").append(isCachingOn()).append("<br/>\n");
         out.append("<b>reserved:</b>  ").append(isReserved()).append("<br/>\n");
+        if (getResponseCacheSpec() != null) {
+            out.append("<b>response_cache:</b> ").append(getResponseCacheSpec()).append("<br/>\n");
+        }
+        if (getMaxConcurrent() > 0) {
+            out.append("<b>max_concurrent:</b> ").append(getMaxConcurrent())
+                    .append(" (queue ").append(getMaxQueued())
+                    .append(", ").append(getQueueTimeout()).append("ms)<br/>\n");
+        }
         if (getConstructedLayers() != null) {
             out.append("<b>layers:</b>    ").append(getConstructedLayers()).append("<br/>\n");
         }
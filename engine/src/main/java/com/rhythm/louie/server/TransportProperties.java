@@ -0,0 +1,73 @@
+/*
+ * Copyright 2015 Rhythm & Hues Studios.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rhythm.louie.server;
+
+import org.jdom2.Element;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Configuration for the persistent socket transport used for server to server calls
+ *
+ * @author cjohnson
+ */
+public class TransportProperties {
+
+    private static final String ENABLE = "enable";
+    private static final String PORT = "port";
+    private static final String TIMEOUT = "timeout";
+
+    private static boolean enabled = false;
+    private static int port = 8282;
+    private static int timeout = 30;
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the port the transport server listens on, and the default port
+     * for remote layers using the socket transport
+     */
+    public static int getPort() {
+        return port;
+    }
+
+    /**
+     * @return the number of seconds a client waits for a response
+     */
+    public static int getTimeout() {
+        return timeout;
+    }
+
+    public static void processProperties(Element transport) {
+        for (Element child : transport.getChildren()) {
+            String elemName = child.getName().toLowerCase();
+            String elemValue = child.getTextTrim();
+            switch (elemName) {
+                case ENABLE: enabled = Boolean.parseBoolean(elemValue);
+                    break;
+                case PORT: port = Integer.parseInt(elemValue);
+                    break;
+                case TIMEOUT: timeout = Integer.parseInt(elemValue);
+                    break;
+                default: LoggerFactory.getLogger(LouieProperties.class)
+                            .warn("Unexpected transport property  {}:{}",elemName,elemValue);
+                    break;
+            }
+        }
+    }
+
+}
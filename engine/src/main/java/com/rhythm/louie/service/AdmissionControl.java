@@ -0,0 +1,116 @@
+/*
+ * Copyright 2015 Rhythm & Hues Studios.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rhythm.louie.service;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.rhythm.louie.exception.LouieOverloadException;
+import com.rhythm.louie.request.RequestContext;
+import com.rhythm.louie.server.ServiceProperties;
+
+/**
+ * Bounds the concurrent executions of a service. Requests past the limit wait
+ * in a bounded queue, and are rejected once the queue is full or they have 
+ * waited for the queue timeout or their deadline, whichever is sooner.
+ * 
+ * A request holds its permit only until its method returns, the lazily 
+ * produced rows of a @Streaming method are written after it is released.
+ *
+ * @author cjohnson
+ */
+public class AdmissionControl {
+    private final String service;
+    private final int maxConcurrent;
+    private final int maxQueued;
+    private final long queueTimeout;
+    private final Semaphore permits;
+    private final AtomicInteger queued = new AtomicInteger(0);
+    private final AtomicLong rejected = new AtomicLong(0);
+
+    private AdmissionControl(String service, int maxConcurrent, int maxQueued, long queueTimeout) {
+        this.service = service;
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueued = maxQueued;
+        this.queueTimeout = queueTimeout;
+        this.permits = new Semaphore(maxConcurrent, true);
+    }
+
+    /**
+     * @param service the name of the service
+     * @return the AdmissionControl, or null if the service has no concurrency limit
+     */
+    public static AdmissionControl forService(String service) {
+        ServiceProperties props = ServiceProperties.getServiceProperties(service);
+        if (props.getMaxConcurrent() <= 0) {
+            return null;
+        }
+        return new AdmissionControl(service, props.getMaxConcurrent(),
+                Math.max(0, props.getMaxQueued()), props.getQueueTimeout());
+    }
+
+    /**
+     * Takes a slot to execute in, waiting in the queue if needed. Every 
+     * successful call must be paired with a call to release.
+     * 
+     * @param req the request to be executed
+     * @throws LouieOverloadException if the request is shed
+     * @throws InterruptedException 
+     */
+    public void acquire(RequestContext req) throws LouieOverloadException, InterruptedException {
+        if (permits.tryAcquire()) {
+            return;
+        }
+        if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            throw reject("queue is full");
+        }
+        boolean acquired;
+        try {
+            long wait = Math.min(queueTimeout, req.getRemainingMillis());
+            acquired = wait > 0 && permits.tryAcquire(wait, TimeUnit.MILLISECONDS);
+        } finally {
+            queued.decrementAndGet();
+        }
+        if (!acquired) {
+            throw reject("timed out in queue");
+        }
+    }
+
+    public void release() {
+        permits.release();
+    }
+    
+    private LouieOverloadException reject(String reason) {
+        rejected.incrementAndGet();
+        return new LouieOverloadException("Service "+service+" is at capacity ("
+                +maxConcurrent+" executing, "+maxQueued+" queued), "+reason);
+    }
+
+    public int getActive() {
+        return maxConcurrent - permits.availablePermits();
+    }
+
+    public int getQueued() {
+        return queued.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+}
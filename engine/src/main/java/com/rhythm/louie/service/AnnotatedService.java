@@ -19,8 +19,14 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.collect.ImmutableList;
+import com.google.protobuf.Message;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,8 +36,11 @@ import com.rhythm.louie.process.ServiceCall;
 import com.rhythm.louie.process.ServiceHandler;
 
 import com.rhythm.louie.request.RequestContext;
+import com.rhythm.louie.request.data.EncodedResponse;
+import com.rhythm.louie.request.data.Param;
 import com.rhythm.louie.request.data.Result;
 import com.rhythm.louie.server.AccessManager;
+import com.rhythm.louie.service.command.Invoker;
 import com.rhythm.louie.service.command.PBCommand;
 import com.rhythm.louie.service.command.PBCommandType;
 import com.rhythm.louie.service.command.PBParamType;
@@ -45,16 +54,24 @@ public abstract class AnnotatedService implements Service {
     private final Logger LOGGER = LoggerFactory.getLogger(AnnotatedService.class);
             
     private final Map<PBCommandType,PBCommand> commandMap;
+    // method -> raw request type names -> command, skips building a PBCommandType per request
+    private final ConcurrentMap<String,ConcurrentMap<List<String>,PBCommand>> resolvedCommands;
     private final String name;
+    private ResponseCache responseCache;
+    private AdmissionControl admission;
+    private final RequestCoalescer coalescer = new RequestCoalescer();
     
     protected AnnotatedService(String name) {
         this.name = name;
         commandMap = new ConcurrentHashMap<>();
+        resolvedCommands = new ConcurrentHashMap<>();
     }
     
     @Override
     public void initialize() throws Exception {
         processClass(this.getClass());
+        responseCache = ResponseCache.forService(name);
+        admission = AdmissionControl.forService(name);
     }
     
     @Override
@@ -83,6 +100,13 @@ public abstract class AnnotatedService implements Service {
                         && meth.isAnnotationPresent(ServiceCall.class)) {
                     
                     ReflectCommand command = new ReflectCommand(this, meth);
+                    Invoker invoker = getInvokers().get(command.getCommandType());
+                    if (invoker != null) {
+                        command.setInvoker(invoker);
+                    } else {
+                        LOGGER.debug("No generated invoker for {}:{}, using reflection",
+                                name, command.getCommandType());
+                    }
                     if (!commandMap.containsKey(command.getCommandType())) {
                         commandMap.put(command.getCommandType(),command);
                     }
@@ -93,6 +117,16 @@ public abstract class AnnotatedService implements Service {
         }
     }
     
+    /**
+     * Returns the dispatch table generated into the ServiceHandler, 
+     * any ServiceCall without an entry is called via reflection
+     * 
+     * @return the invokers keyed by command type
+     */
+    protected Map<PBCommandType,Invoker> getInvokers() {
+        return Collections.emptyMap();
+    }
+    
     @Override
     public Collection<PBCommand> getCommands() {
         return Collections.unmodifiableCollection(commandMap.values());
@@ -102,9 +136,53 @@ public abstract class AnnotatedService implements Service {
         return commandMap.get(PBCommandType.valueOf(command, params));
     }
   
+    /**
+     * Looks up the command for a request by the raw method and type names it 
+     * was sent with, caching the result.  Only resolved commands are cached, so 
+     * the cache is bounded by the commands of this service.
+     */
+    private PBCommand resolveCommand(RequestContext req) {
+        String method = req.getRequest().getMethod();
+        List<String> typeNames = req.getRequest().getTypeList();
+        
+        ConcurrentMap<List<String>,PBCommand> byType = resolvedCommands.get(method);
+        if (byType != null) {
+            PBCommand cmd = byType.get(typeNames);
+            if (cmd != null) {
+                return cmd;
+            }
+        }
+        
+        PBCommand cmd = getCommand(method, req.getType());
+        if (cmd != null) {
+            if (byType == null) {
+                byType = new ConcurrentHashMap<>();
+                ConcurrentMap<List<String>,PBCommand> existing = resolvedCommands.putIfAbsent(method, byType);
+                if (existing != null) {
+                    byType = existing;
+                }
+            }
+            byType.putIfAbsent(ImmutableList.copyOf(typeNames), cmd);
+        }
+        return cmd;
+    }
+    
+    /**
+     * @param req the request
+     * @return the types of the arguments of the command the request resolves to, 
+     * or null if it does not resolve
+     */
+    public List<Message> getArgTemplates(RequestContext req) {
+        PBCommand cmd = resolveCommand(req);
+        if (cmd instanceof ReflectCommand) {
+            return ((ReflectCommand) cmd).getArgTemplates();
+        }
+        return null;
+    }
+  
     @Override
     public Result executeCommand(RequestContext req) throws Exception {
-        PBCommand cmd = getCommand(req.getRequest().getMethod(), req.getType());
+        PBCommand cmd = resolveCommand(req);
         if (cmd == null) {
             throw new Exception("Command Does Not Exist! - "
                     + getServiceName() + ":" + req.getRequest().getMethod()
@@ -123,15 +201,95 @@ public abstract class AnnotatedService implements Service {
             }
         } 
         
+        AccessManager.checkRateLimit(req);
+        
         if (cmd.isUpdate()) {
             ServiceProperties props = ServiceProperties.getServiceProperties(name);
             if (props.isReadOnly()) {
                 throw new UnsupportedOperationException("Louie Service " + name + " is set to read-only mode.");
             }
         }
-        Result r = cmd.execute(req);
-        r.setStreaming(cmd.isStreaming());
-        return r;
+        
+        boolean cacheable = responseCache != null && !cmd.isUpdate() && !cmd.isStreaming();
+        RequestKey key = null;
+        if (cacheable || cmd.isCoalesced()) {
+            key = RequestKey.forRequest(req);
+        }
+        if (key == null) {
+            return new Execution(cmd, req, null).call();
+        }
+        
+        Param param = req.getParams().isEmpty() ? Param.EMPTY : req.getParams().get(0);
+        if (cacheable) {
+            EncodedResponse cached = responseCache.get(key);
+            if (cached != null) {
+                return Result.encodedResults(param, cached);
+            }
+        }
+        
+        if (cmd.isCoalesced()) {
+            return coalescer.execute(key, req, param, new Execution(cmd, req, cacheable ? key : null));
+        }
+        return new Execution(cmd, req, cacheable ? key : null).call();
+    }
+    
+    /**
+     * @return the admission control of this service, or null if its concurrency is not limited
+     */
+    public AdmissionControl getAdmissionControl() {
+        return admission;
+    }
+    
+    /**
+     * Executes a command within the concurrency limit of the service, 
+     * storing the encoded result if cacheable, or evicting the cached responses
+     * of the service if the command is an update
+     */
+    private class Execution implements Callable<Result> {
+        private final PBCommand cmd;
+        private final RequestContext req;
+        private final RequestKey cacheKey;
+        private final long cacheGeneration;
+        
+        public Execution(PBCommand cmd, RequestContext req, RequestKey cacheKey) {
+            this.cmd = cmd;
+            this.req = req;
+            this.cacheKey = cacheKey;
+            this.cacheGeneration = cacheKey == null ? 0 : responseCache.getGeneration();
+        }
+        
+        @Override
+        public Result call() throws Exception {
+            Result r;
+            try {
+                r = executeAdmitted();
+            } finally {
+                if (cmd.isUpdate() && responseCache != null) {
+                    // local updates are not announced by a message to this server
+                    responseCache.invalidateAll();
+                }
+            }
+            r.setStreaming(cmd.isStreaming());
+            
+            if (cacheKey != null && !r.isError()) {
+                EncodedResponse encoded = EncodedResponse.encode(r.getMessages());
+                responseCache.put(cacheKey, encoded, cacheGeneration);
+                r.setEncoded(encoded);
+            }
+            return r;
+        }
+        
+        private Result executeAdmitted() throws Exception {
+            if (admission == null) {
+                return cmd.execute(req);
+            }
+            admission.acquire(req);
+            try {
+                return cmd.execute(req);
+            } finally {
+                admission.release();
+            }
+        }
     }
     
     @Override
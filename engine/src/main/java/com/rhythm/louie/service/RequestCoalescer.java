@@ -0,0 +1,108 @@
+/*
+ * Copyright 2015 Rhythm & Hues Studios.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rhythm.louie.service;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.google.common.util.concurrent.SettableFuture;
+
+import com.rhythm.louie.exception.LouieDeadlineException;
+import com.rhythm.louie.request.RequestContext;
+import com.rhythm.louie.request.data.Param;
+import com.rhythm.louie.request.data.Result;
+
+/**
+ * Shares a single execution between identical requests that are in flight at 
+ * the same time. The first request executes, any that arrive before it completes
+ * wait for it and receive its messages, or its exception. A waiting request 
+ * gives up once its own deadline has passed.
+ *
+ * @author cjohnson
+ */
+public class RequestCoalescer {
+    private final ConcurrentMap<RequestKey, SettableFuture<Result>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * @param key the key of the request
+     * @param req this caller's request, for its deadline
+     * @param param the param of this caller's request, for its own Result
+     * @param execution executes the request, if no identical request is in flight
+     * @return the result
+     * @throws Exception the exception thrown by the shared execution
+     */
+    public Result execute(RequestKey key, RequestContext req, Param param, 
+            Callable<Result> execution) throws Exception {
+        SettableFuture<Result> future = SettableFuture.create();
+        SettableFuture<Result> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            return share(existing, req, param);
+        }
+        
+        try {
+            Result result = execution.call();
+            future.set(result);
+            return result;
+        } catch (Exception ex) {
+            future.setException(ex);
+            throw ex;
+        } catch (Error err) {
+            future.setException(err);
+            throw err;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+    
+    private Result share(SettableFuture<Result> existing, RequestContext req, Param param) throws Exception {
+        Result shared;
+        try {
+            if (req.hasDeadline()) {
+                shared = existing.get(Math.max(0, req.getRemainingMillis()), TimeUnit.MILLISECONDS);
+            } else {
+                shared = existing.get();
+            }
+        } catch (TimeoutException ex) {
+            throw new LouieDeadlineException("Deadline passed waiting on an identical request to "
+                    +req.getRequest().getService()+":"+req.getRequest().getMethod());
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof Exception) {
+                throw (Exception) ex.getCause();
+            }
+            throw ex;
+        }
+        
+        // Each caller needs its own Result, as timings and sizes are set per request
+        Result result;
+        if (shared.isError()) {
+            result = Result.errorResult(shared.getException());
+            result.setInfo(shared.getInfo());
+        } else if (shared.getEncoded() != null) {
+            result = Result.encodedResults(param, shared.getEncoded());
+        } else {
+            result = Result.results(param, shared.getMessages());
+        }
+        return result;
+    }
+    
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2015 Rhythm & Hues Studios.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rhythm.louie.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.protobuf.ByteString;
+
+import com.rhythm.louie.request.RequestContext;
+import com.rhythm.louie.request.data.Data;
+import com.rhythm.louie.request.data.DataType;
+import com.rhythm.louie.request.data.Param;
+import com.rhythm.louie.service.command.PBParamType;
+
+/**
+ * Identifies a request within a service by its method, param type, and the raw 
+ * bytes of its arguments
+ *
+ * @author cjohnson
+ */
+public class RequestKey {
+    private final String method;
+    private final PBParamType type;
+    private final List<ByteString> args;
+    private final int hash;
+
+    private RequestKey(String method, PBParamType type, List<ByteString> args) {
+        this.method = method;
+        this.type = type;
+        this.args = args;
+        int h = 7;
+        h = 31 * h + method.hashCode();
+        h = 31 * h + type.hashCode();
+        h = 31 * h + args.hashCode();
+        this.hash = h;
+    }
+
+    /**
+     * @param req the request
+     * @return the key for a request, or null if the request is not a single 
+     * set of pb arguments
+     */
+    public static RequestKey forRequest(RequestContext req) {
+        if (req.getDataType() != DataType.PB || req.getParams().size() > 1) {
+            return null;
+        }
+        List<ByteString> args;
+        if (req.getParams().isEmpty()) {
+            args = Collections.emptyList();
+        } else {
+            Param param = req.getParams().get(0);
+            args = new ArrayList<>(param.getArgs().size());
+            for (Data data : param.getArgs()) {
+                ByteString bytes = data.toByteString();
+                if (bytes == null) {
+                    return null;
+                }
+                args.add(bytes);
+            }
+        }
+        return new RequestKey(req.getRequest().getMethod(), req.getType(), args);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof RequestKey)) {
+            return false;
+        }
+        RequestKey other = (RequestKey) obj;
+        return hash == other.hash
+                && method.equals(other.method)
+                && type.equals(other.type)
+                && args.equals(other.args);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return method + "(" + type + ")";
+    }
+}
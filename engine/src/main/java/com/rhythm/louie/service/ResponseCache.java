@@ -0,0 +1,203 @@
+/*
+ * Copyright 2015 Rhythm & Hues Studios.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rhythm.louie.service;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rhythm.louie.cache.CacheManager;
+import com.rhythm.louie.cache.GuavaBasicCache;
+import com.rhythm.louie.jms.MessageAction;
+import com.rhythm.louie.jms.MessageHandler;
+import com.rhythm.louie.jms.MessageManager;
+import com.rhythm.louie.jms.MessageProcessor;
+import com.rhythm.louie.request.data.Data;
+import com.rhythm.louie.request.data.EncodedResponse;
+import com.rhythm.louie.server.ServiceProperties;
+
+/**
+ * Caches the encoded responses of a service's non updating methods, keyed by
+ * method and the raw bytes of the arguments. The whole cache for a service is
+ * evicted whenever that service receives a message, or executes an update.
+ * 
+ * Nothing is cached until the service's messages are being listened to, 
+ * registering the listener is retried periodically until it succeeds.
+ *
+ * @author cjohnson
+ */
+public class ResponseCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResponseCache.class);
+    
+    private static final String CACHE_MANAGER = "louie_response";
+    private static final long LISTEN_RETRY = 30*1000;
+
+    private static final Map<String, ResponseCache> caches = new ConcurrentHashMap<>();
+    private static final Set<String> listening = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    // guarded by ResponseCache.class
+    private static final Map<String, Long> lastListenAttempt = new HashMap<>();
+
+    private final String service;
+    private final GuavaBasicCache<RequestKey, EncodedResponse> cache;
+    private final AtomicLong generation = new AtomicLong(0);
+
+    private ResponseCache(String service, GuavaBasicCache<RequestKey, EncodedResponse> cache) {
+        this.service = service;
+        this.cache = cache;
+    }
+
+    /**
+     * Creates the response cache for a service if it is configured
+     *
+     * @param service the name of the service
+     * @return the ResponseCache, or null if not configured for the service
+     */
+    public static synchronized ResponseCache forService(String service) {
+        String spec = ServiceProperties.getServiceProperties(service).getResponseCacheSpec();
+        if (spec == null) {
+            return null;
+        }
+        ResponseCache responseCache = caches.get(service);
+        if (responseCache == null) {
+            try {
+                GuavaBasicCache<RequestKey, EncodedResponse> cache =
+                        CacheManager.createIfNeeded(CACHE_MANAGER).guavaCache(service, spec);
+                responseCache = new ResponseCache(service, cache);
+                caches.put(service, responseCache);
+            } catch (Exception ex) {
+                LOGGER.error("Unable to create response cache for "+service, ex);
+                return null;
+            }
+        }
+        isListening(service);
+        return responseCache;
+    }
+    
+    /**
+     * Registers for the messages to a service if not yet listening, trying 
+     * again no more often than every LISTEN_RETRY millis
+     * 
+     * @return true if the service's messages are being listened to
+     */
+    private static boolean isListening(String service) {
+        if (listening.contains(service)) {
+            return true;
+        }
+        synchronized (ResponseCache.class) {
+            if (listening.contains(service)) {
+                return true;
+            }
+            long now = System.currentTimeMillis();
+            Long lastAttempt = lastListenAttempt.get(service);
+            if (lastAttempt != null && now - lastAttempt < LISTEN_RETRY) {
+                return false;
+            }
+            lastListenAttempt.put(service, now);
+            try {
+                MessageManager.getInstance().registerServerListener(service, new Evictor(service));
+            } catch (Exception ex) {
+                LOGGER.warn("Unable to listen for updates to {}, not caching its responses until listening: {}", 
+                        service, ex.toString());
+                return false;
+            }
+            lastListenAttempt.remove(service);
+            listening.add(service);
+            return true;
+        }
+    }
+
+    /**
+     * Evicts every response cached for a service
+     *
+     * @param service the name of the service
+     */
+    public static void invalidate(String service) {
+        ResponseCache responseCache = caches.get(service);
+        if (responseCache != null) {
+            responseCache.invalidateAll();
+        }
+    }
+
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        cache.getGuava().invalidateAll();
+    }
+
+    /**
+     * Captured before executing a request, so that a response computed across
+     * an eviction is not cached
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * @return the cached response, or null if not cached or not yet listening 
+     * for the service's messages
+     */
+    public EncodedResponse get(RequestKey key) {
+        if (!isListening(service)) {
+            return null;
+        }
+        return cache.getGuava().getIfPresent(key);
+    }
+
+    public void put(RequestKey key, EncodedResponse response, long expectedGeneration) {
+        if (generation.get() != expectedGeneration || !listening.contains(service)) {
+            return;
+        }
+        cache.getGuava().put(key, response);
+        if (generation.get() != expectedGeneration) {
+            // Evicted while putting
+            cache.getGuava().invalidate(key);
+        }
+    }
+    
+    /**
+     * Evicts the service's cached responses on any message to the service, 
+     * after its typed processors have handled the message
+     */
+    private static class Evictor implements MessageHandler, MessageProcessor {
+        private final String service;
+        
+        public Evictor(String service) {
+            this.service = service;
+        }
+        
+        @Override
+        public void executeMessageHandler(MessageAction action, String type, Data data) throws Exception {
+            invalidate(service);
+        }
+
+        @Override
+        public Collection<MessageProcessor> getMessageProcessors() {
+            return Collections.<MessageProcessor>singleton(this);
+        }
+
+        @Override
+        public String getType() {
+            return ANY_TYPE;
+        }
+
+        @Override
+        public void execute(MessageAction action, Data data) throws Exception {
+            invalidate(service);
+        }
+    }
+}
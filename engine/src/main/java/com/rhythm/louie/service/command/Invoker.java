@@ -0,0 +1,37 @@
+/*
+ * Copyright 2015 Rhythm & Hues Studios.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rhythm.louie.service.command;
+
+import com.rhythm.louie.request.data.Param;
+import com.rhythm.louie.service.AnnotatedService;
+
+/**
+ * Calls a single ServiceCall method directly, generated into each ServiceHandler
+ * so that requests do not go through reflection.
+ *
+ * @author cjohnson
+ */
+public interface Invoker {
+    /**
+     * Parses the arguments out of param and calls the method
+     * 
+     * @param service the ServiceHandler the method belongs to
+     * @param param the arguments of the request
+     * @return the PB or List of PBs returned from the method
+     * @throws Exception any exception thrown by the method itself
+     */
+    public Object invoke(AnnotatedService service, Param param) throws Exception;
+}
@@ -37,6 +37,7 @@ public interface PBCommand {
     public int getGroupOrder();
     public boolean isInternal();
     public boolean isStreaming();
+    public boolean isCoalesced();
     public boolean adminAccess();
     public boolean restrictedAccess();
 }
@@ -20,10 +20,14 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
 import com.google.protobuf.Descriptors.Descriptor;
 
+import com.rhythm.louie.generator.TypeUtils;
 import com.rhythm.louie.pb.PBType;
 
 /**
@@ -35,6 +39,10 @@ public class PBParamType implements Serializable, Comparable<PBParamType> {
     
     public static final PBParamType EMPTY = new PBParamType(0);
     
+    /** Bounds the interned types, as the keys come straight off of requests */
+    private static final int MAX_INTERNED = 10000;
+    private static final ConcurrentMap<List<String>,PBParamType> interned = new ConcurrentHashMap<>();
+    
     private final ArrayList<ArgType> types;
     
     private PBParamType(int size) {
@@ -55,6 +63,38 @@ public class PBParamType implements Serializable, Comparable<PBParamType> {
         return new PBParamType(typeNames);
     }
     
+    /**
+     * Returns a shared PBParamType for the raw type names of a request, 
+     * converting any legacy rh.pb names. Once a set of names has been seen
+     * this does not allocate.
+     * 
+     * @param typeNames the type names exactly as sent in the request
+     * @return the interned PBParamType
+     */
+    public static PBParamType forRequestTypes(List<String> typeNames) {
+        PBParamType type = interned.get(typeNames);
+        if (type != null) {
+            return type;
+        }
+        
+        List<String> convertedTypes = new ArrayList<>(typeNames.size());
+        for (String param : typeNames) {
+            if (param.startsWith("rh.pb")) {
+                param = TypeUtils.legacyConvert(param);
+            }
+            convertedTypes.add(param);
+        }
+        type = new PBParamType(convertedTypes);
+        
+        if (interned.size() < MAX_INTERNED) {
+            PBParamType existing = interned.putIfAbsent(ImmutableList.copyOf(typeNames), type);
+            if (existing != null) {
+                type = existing;
+            }
+        }
+        return type;
+    }
+    
     public static PBParamType typeForNames(String... typeNames) {
         return new PBParamType(Arrays.asList(typeNames));
     }
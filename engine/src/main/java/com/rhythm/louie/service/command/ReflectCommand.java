@@ -29,6 +29,7 @@ import com.rhythm.louie.*;
 import com.rhythm.louie.generator.ProcessorUtils;
 import com.rhythm.louie.process.ServiceCall;
 import com.rhythm.louie.request.RequestContext;
+import com.rhythm.louie.request.RequestPhase;
 import com.rhythm.louie.request.data.*;
 import com.rhythm.louie.request.data.DataParser.BuilderParser;
 import com.rhythm.louie.service.AnnotatedService;
@@ -51,15 +52,19 @@ public class ReflectCommand implements PBCommand {
     private final boolean returnList;
     private final String returnDisplay;
     private final List<DataParser<?>> parsers;
+    private final List<Message> argTemplates;
     
     private final boolean isAnUpdater;
     private final Grouping group;
     private final boolean isInternal;
     private final boolean isStreaming;
+    private final boolean isCoalesced;
     private final boolean deprecated;
     private final boolean adminAccess;
     private final boolean restrictedAccess;
     
+    private Invoker invoker;
+    
     public ReflectCommand(final AnnotatedService service, final Method meth) throws Exception {
         this.service =service;
         this.method = meth;
@@ -70,6 +75,7 @@ public class ReflectCommand implements PBCommand {
         isAnUpdater = meth.isAnnotationPresent(Updating.class);
         isInternal = meth.isAnnotationPresent(Internal.class);
         isStreaming = meth.isAnnotationPresent(Streaming.class);
+        isCoalesced = meth.isAnnotationPresent(Coalesced.class) && !isAnUpdater && !isStreaming;
         deprecated = meth.isAnnotationPresent(Deprecated.class);
         adminAccess = meth.isAnnotationPresent(Admin.class);
         restrictedAccess = meth.isAnnotationPresent(Restricted.class);
@@ -77,13 +83,17 @@ public class ReflectCommand implements PBCommand {
         description = ProcessorUtils.extractDescriptionFromJavadoc(serviceCall.javadoc());
         
         parsers = new ArrayList<>(meth.getParameterTypes().length);
+        List<Message> templates = new ArrayList<>(meth.getParameterTypes().length);
         List<ArgType> args = new ArrayList<>(meth.getParameterTypes().length);
         int i=0;
         for (Class<?> arg : meth.getParameterTypes()) {
             Descriptor argDesc = getDescriptor(arg);
             args.add(new ArgType(argDesc,serviceCall.args()[i++]));
-            parsers.add(new BuilderParser<>(getBuilder(arg)));
+            Builder builder = getBuilder(arg);
+            parsers.add(new BuilderParser<>(builder));
+            templates.add((Message) builder.getDefaultInstanceForType());
         }
+        argTemplates = Collections.unmodifiableList(templates);
         
         params = PBParamType.typeForArgs(args);
         paramList = Collections.singletonList(params);
@@ -160,6 +170,27 @@ public class ReflectCommand implements PBCommand {
         return (Builder) o;
     }
     
+    /**
+     * Sets a generated invoker to be used in place of reflection
+     * 
+     * @param invoker 
+     */
+    public void setInvoker(Invoker invoker) {
+        this.invoker = invoker;
+    }
+    
+    private Object invoke(Param param) throws Exception {
+        if (invoker != null) {
+            return invoker.invoke(service, param);
+        }
+        
+        Object[] args = new Object[params.count()];
+        for (int i = 0; i < params.getTypes().size(); i++) {
+            args[i] = param.parseData(parsers.get(i), i);
+        }
+        return method.invoke(service, args);
+    }
+    
     @Override
     @SuppressWarnings("unchecked")
     public Result execute(RequestContext request) throws Exception {
@@ -167,17 +198,13 @@ public class ReflectCommand implements PBCommand {
             if ((request.getParams().isEmpty() && params.getTypes().isEmpty()) || request.getParams().size() == 1) {
                 Param param = request.getParams().isEmpty() ? Param.EMPTY : request.getParams().get(0);
 
-                Object[] args;
-                if (request.getParams().isEmpty()) {
-                    args = new Object[]{};
-                } else {
-                    args = new Object[params.count()];
-                    for (int i = 0; i < params.getTypes().size(); i++) {
-                        args[i] = param.parseData(parsers.get(i), i);
-                    }
+                long start = System.nanoTime();
+                Object o;
+                try {
+                    o = invoke(param);
+                } finally {
+                    request.addPhaseTime(RequestPhase.EXECUTE, System.nanoTime() - start);
                 }
-
-                Object o = method.invoke(service, args);
                 if (o != null && o instanceof List) {
                     return Result.results(param, (List<? extends Message>) o);
                 } else if (o == null || o instanceof Message) {
@@ -191,12 +218,13 @@ public class ReflectCommand implements PBCommand {
                         request.getRequest().getService(), request.getRequest().getMethod());
                 Map<Param, List<Message>> results = new HashMap<>();
                 for (Param param : request.getParams()) {
-                    Object[] args = new Object[params.count()];
-                    for (int i = 0; i < params.getTypes().size(); i++) {
-                        args[i] = param.parseData(parsers.get(i), i);
+                    long start = System.nanoTime();
+                    Object o;
+                    try {
+                        o = invoke(param);
+                    } finally {
+                        request.addPhaseTime(RequestPhase.EXECUTE, System.nanoTime() - start);
                     }
-
-                    Object o = method.invoke(service, args);
                     if (o != null && o instanceof List) {
                         results.put(param, (List<Message>) o);
                     } else if (o == null || o instanceof Message) {
@@ -222,6 +250,13 @@ public class ReflectCommand implements PBCommand {
         }
     }
     
+    /**
+     * @return the default instance of each argument's type
+     */
+    public List<Message> getArgTemplates() {
+        return argTemplates;
+    }
+    
     @Override
     public String getCommandName() {
         return method.getName();
@@ -291,6 +326,11 @@ public class ReflectCommand implements PBCommand {
         return isStreaming;
     }
 
+    @Override
+    public boolean isCoalesced() {
+        return isCoalesced;
+    }
+
     @Override
     public boolean adminAccess() {
         return adminAccess;
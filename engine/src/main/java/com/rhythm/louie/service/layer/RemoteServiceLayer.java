@@ -19,6 +19,7 @@ import com.rhythm.louie.connection.Connectable;
 import com.rhythm.louie.connection.LouieConnection;
 import com.rhythm.louie.connection.LouieConnectionFactory;
 import com.rhythm.louie.server.Server;
+import com.rhythm.louie.server.TransportProperties;
 import com.rhythm.louie.service.ServiceUtils;
 
 /**
@@ -31,6 +32,8 @@ public class RemoteServiceLayer implements ServiceLayer {
     private final String gateway;
     private final int port;
     private final String server;
+    private boolean socketTransport = false;
+    private int transportPort = 0;
     
     public RemoteServiceLayer(String server) {
         this.server = server;
@@ -58,17 +61,40 @@ public class RemoteServiceLayer implements ServiceLayer {
         return port;
     }
     
+    /**
+     * Sends requests to the remote server over the persistent socket transport
+     * 
+     * @param transportPort the remote transport port, or 0 for the configured default
+     */
+    public void setSocketTransport(int transportPort) {
+        this.socketTransport = true;
+        this.transportPort = transportPort;
+    }
+    
+    public boolean isSocketTransport() {
+        return socketTransport;
+    }
+    
     @SuppressWarnings("unchecked")
     @Override
     public <T> T loadLayer(Class<T> service) throws Exception {
         LouieConnection connection;
         
+        int socketPort = transportPort > 0 ? transportPort : TransportProperties.getPort();
         if (server != null) {
             Server remote = Server.getServer(server);
             if (remote == null) {
                 throw new Exception("Cannot create remote service! Unknown server: " + host);
             }
-            connection = LouieConnectionFactory.getConnectionForServer(remote);
+            if (socketTransport) {
+                connection = LouieConnectionFactory.getTransportConnectionForServer(remote, socketPort);
+            } else {
+                connection = LouieConnectionFactory.getConnectionForServer(remote);
+            }
+        } else if (socketTransport) {
+            connection = LouieConnectionFactory.getTransportConnection(host, socketPort);
+            connection.setGateway(gateway);
+            connection.setPort(port);
         } else {
             connection = LouieConnectionFactory.getConnection(host);
             connection.setGateway(gateway);
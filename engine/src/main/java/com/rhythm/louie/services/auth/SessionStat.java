@@ -17,12 +17,17 @@ package com.rhythm.louie.services.auth;
 
 import com.rhythm.pb.RequestProtos.IdentityPB;
 import java.io.Serializable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import org.joda.time.DateTime;
 
 import com.rhythm.pb.RequestProtos.SessionBPB;
 import com.rhythm.pb.RequestProtos.SessionKey;
 import com.rhythm.pb.RequestProtos.SessionStatsPB;
 
+import com.rhythm.louie.server.RateLimit;
+import com.rhythm.louie.server.TokenBucket;
+
 /**
  *
  * @author cjohnson
@@ -35,6 +40,9 @@ public class SessionStat implements Serializable {
     private DateTime modified = new DateTime();
     private int count;
     
+    // service : bucket, the limits of this node are not shared with other nodes
+    private transient volatile ConcurrentMap<String,TokenBucket> rateBuckets;
+    
     public SessionStat(SessionKey key,IdentityPB identity) {
         this.key = key;
         this.identity = identity;
@@ -62,6 +70,33 @@ public class SessionStat implements Serializable {
         return key;
     }
     
+    /**
+     * @param service the name of the service
+     * @param limit the limit for the service, used if this session does not 
+     * have a bucket for it yet
+     * @return the rate limiting bucket of this session for the service
+     */
+    public TokenBucket getRateBucket(String service, RateLimit limit) {
+        ConcurrentMap<String,TokenBucket> buckets = rateBuckets;
+        if (buckets == null) {
+            synchronized (this) {
+                if (rateBuckets == null) {
+                    rateBuckets = new ConcurrentHashMap<>();
+                }
+                buckets = rateBuckets;
+            }
+        }
+        TokenBucket bucket = buckets.get(service);
+        if (bucket == null) {
+            bucket = limit.newBucket();
+            TokenBucket existing = buckets.putIfAbsent(service, bucket);
+            if (existing != null) {
+                bucket = existing;
+            }
+        }
+        return bucket;
+    }
+    
     public SessionBPB toPB() {
         return SessionBPB.newBuilder()
                 .setKey(key)
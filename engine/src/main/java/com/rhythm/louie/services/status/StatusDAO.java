@@ -32,13 +32,22 @@ import java.util.Set;
 
 import org.slf4j.LoggerFactory;
 
+import com.rhythm.louie.server.Bulkhead;
+import com.rhythm.louie.server.LatencyHistogram;
+import com.rhythm.louie.server.RequestExecutor;
+import com.rhythm.louie.server.RequestExecutorProperties;
+import com.rhythm.louie.server.RequestStats;
 import com.rhythm.louie.server.TaskScheduler;
 import com.rhythm.louie.DAO;
 import com.rhythm.louie.request.ProtoProcessor;
+import com.rhythm.louie.request.RequestPhase;
 import com.rhythm.louie.server.ThreadInspector;
 import com.rhythm.louie.stream.StreamingConsumer;
 
 import com.rhythm.pb.RequestProtos.RequestPB;
+import com.rhythm.pb.SystemProtos.HistogramPB;
+import com.rhythm.pb.SystemProtos.MethodStatsPB;
+import com.rhythm.pb.SystemProtos.PoolStatsPB;
 
 /**
  *
@@ -183,5 +192,72 @@ public class StatusDAO implements StatusService {
     public List<RequestPB> getActiveRequests() throws Exception {
         return ProtoProcessor.getActiveRequests();
     }
+
+    @Override
+    public List<PoolStatsPB> getPoolStats() throws Exception {
+        RequestExecutor executor = RequestExecutor.getInstance();
+        List<PoolStatsPB> stats = new ArrayList<>();
+        stats.add(PoolStatsPB.newBuilder()
+                .setName("request")
+                .setPoolSize(RequestExecutorProperties.getThreadPoolSize())
+                .setActive(executor.getActiveCount())
+                .setQueued(executor.getQueuedCount())
+                .setQueueSize(RequestExecutorProperties.getQueueSize())
+                .build());
+        stats.add(PoolStatsPB.newBuilder()
+                .setName("async")
+                .setPoolSize(RequestExecutorProperties.getAsyncThreadPoolSize())
+                .setActive(executor.getAsyncActiveCount())
+                .setQueued(executor.getAsyncQueuedCount())
+                .setQueueSize(RequestExecutorProperties.getAsyncQueueSize())
+                .build());
+        for (Bulkhead bulkhead : executor.getBulkheads()) {
+            stats.add(PoolStatsPB.newBuilder()
+                    .setName(bulkhead.getName())
+                    .addAllService(bulkhead.getServices())
+                    .setPoolSize(bulkhead.getPoolSize())
+                    .setActive(bulkhead.getActiveCount())
+                    .setQueued(bulkhead.getQueuedCount())
+                    .setQueueSize(bulkhead.getQueueSize())
+                    .setCompleted(bulkhead.getCompletedCount())
+                    .setRejected(bulkhead.getRejectedCount())
+                    .build());
+        }
+        return stats;
+    }
+
+    @Override
+    public List<MethodStatsPB> getMethodStats() throws Exception {
+        List<MethodStatsPB> stats = new ArrayList<>();
+        for (RequestStats stat : RequestStats.getAll()) {
+            MethodStatsPB.Builder builder = MethodStatsPB.newBuilder()
+                    .setService(stat.getService())
+                    .setMethod(stat.getMethod())
+                    .setErrors(stat.getErrors())
+                    .setTotalTime(toPB(stat.getTotalTime()))
+                    .setExecTime(toPB(stat.getExecTime()))
+                    .setSerializeTime(toPB(stat.getSerializeTime()))
+                    .setBytes(toPB(stat.getBytes()));
+            for (RequestPhase phase : RequestPhase.values()) {
+                builder.addPhasesBuilder()
+                        .setPhase(phase.getLabel())
+                        .setTime(toPB(stat.getPhaseTime(phase)));
+            }
+            stats.add(builder.build());
+        }
+        return stats;
+    }
+    
+    private static HistogramPB toPB(LatencyHistogram histogram) {
+        return HistogramPB.newBuilder()
+                .setCount(histogram.getCount())
+                .setMean(histogram.getMean())
+                .setP50(histogram.getValueAtPercentile(50))
+                .setP90(histogram.getValueAtPercentile(90))
+                .setP99(histogram.getValueAtPercentile(99))
+                .setP999(histogram.getValueAtPercentile(99.9))
+                .setMax(histogram.getMax())
+                .build();
+    }
     
 }
@@ -21,6 +21,8 @@ import com.rhythm.louie.*;
 
 import com.rhythm.pb.RequestProtos.ErrorPB;
 import com.rhythm.pb.RequestProtos.RequestPB;
+import com.rhythm.pb.SystemProtos.MethodStatsPB;
+import com.rhythm.pb.SystemProtos.PoolStatsPB;
 
 /**
  *
@@ -62,6 +64,22 @@ public interface StatusService {
     @Admin
     List<RequestPB> getActiveRequests() throws Exception;
     
+    /**
+     * Saturation of the request pools, including each bulkhead pool
+     * @return
+     * @throws Exception 
+     */
+    List<PoolStatsPB> getPoolStats() throws Exception;
+    
+    /**
+     * Latency and size percentiles of every method called on this server, 
+     * from reading each request through writing its response
+     * and broken down by the phases of processing
+     * @return
+     * @throws Exception 
+     */
+    List<MethodStatsPB> getMethodStats() throws Exception;
+    
     /**
      * Echoes the value back after sleeping
      * 
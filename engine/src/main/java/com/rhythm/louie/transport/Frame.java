@@ -0,0 +1,108 @@
+/*
+ * Copyright 2015 Rhythm & Hues Studios.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rhythm.louie.transport;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+
+/**
+ * A single message on a persistent transport connection.
+ *
+ * On the wire a frame is a varint id, a varint length, and then length bytes.
+ * The bytes of a request frame are exactly what would be posted to the pb
+ * servlet (RequestHeaderPB, RequestPB, args), and the bytes of the response
+ * frames together are exactly what the pb servlet would return. The id ties a response
+ * to its request, so responses may come back in any order.  A response is 
+ * sent as it is written, across as many frames as it takes, and ends with an
+ * empty frame.
+ *
+ * @author cjohnson
+ */
+public class Frame {
+    public static final int MAX_FRAME_SIZE = 64 << 20;
+
+    private final int id;
+    private final byte[] data;
+
+    public Frame(int id, byte[] data) {
+        this.id = id;
+        this.data = data;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * Reads the next frame off of the stream
+     *
+     * @param input the stream to read from
+     * @return the frame, or null if the stream was closed cleanly
+     * @throws IOException
+     */
+    public static Frame read(InputStream input) throws IOException {
+        int firstByte = input.read();
+        if (firstByte == -1) {
+            return null;
+        }
+        int id = CodedInputStream.readRawVarint32(firstByte, input);
+
+        firstByte = input.read();
+        if (firstByte == -1) {
+            throw new EOFException("Frame truncated while reading length");
+        }
+        int size = CodedInputStream.readRawVarint32(firstByte, input);
+        if (size < 0 || size > MAX_FRAME_SIZE) {
+            throw new IOException("Invalid frame size: "+size);
+        }
+
+        byte[] data = new byte[size];
+        int read = 0;
+        while (read < size) {
+            int count = input.read(data, read, size - read);
+            if (count == -1) {
+                throw new EOFException("Frame truncated after "+read+" of "+size+" bytes");
+            }
+            read += count;
+        }
+        return new Frame(id, data);
+    }
+
+    /**
+     * Writes a frame to the stream and flushes it. Callers sharing a stream
+     * must synchronize around this call.
+     *
+     * @param output the stream to write to
+     * @throws IOException
+     */
+    public void write(OutputStream output) throws IOException {
+        CodedOutputStream codedOutput = CodedOutputStream.newInstance(output);
+        codedOutput.writeRawVarint32(id);
+        codedOutput.writeRawVarint32(data.length);
+        codedOutput.writeRawBytes(data);
+        codedOutput.flush();
+        output.flush();
+    }
+}
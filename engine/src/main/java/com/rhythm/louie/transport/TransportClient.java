@@ -0,0 +1,330 @@
+/*
+ * Copyright 2015 Rhythm & Hues Studios.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rhythm.louie.transport;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A persistent socket to a remote TransportServer, shared by every request to
+ * that host and port. Requests are written as frames from the calling thread,
+ * and a single reader thread hands each response frame to the stream of its 
+ * request by id, so a response is read as it arrives rather than once it is 
+ * complete.
+ *
+ * @author cjohnson
+ */
+public class TransportClient {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TransportClient.class);
+
+    private static final int CONNECT_TIMEOUT = 15*1000;
+
+    private static final Map<String, TransportClient> clients = new ConcurrentHashMap<>();
+
+    private final String host;
+    private final int port;
+    private final AtomicInteger frameId = new AtomicInteger(0);
+    private final Map<Integer, ResponseStream> pending = new ConcurrentHashMap<>();
+
+    private Socket socket;
+    private OutputStream output;
+
+    private TransportClient(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * Returns the shared client for a host and port
+     *
+     * @param host the remote host
+     * @param port the remote transport port
+     * @return the shared TransportClient
+     */
+    public static synchronized TransportClient getClient(String host, int port) {
+        String key = host + ":" + port;
+        TransportClient client = clients.get(key);
+        if (client == null) {
+            client = new TransportClient(host, port);
+            clients.put(key, client);
+        }
+        return client;
+    }
+
+    public static synchronized void shutdown() {
+        for (TransportClient client : clients.values()) {
+            client.close(new IOException("Transport shutdown"));
+        }
+        clients.clear();
+    }
+
+    private synchronized OutputStream connect() throws IOException {
+        if (socket == null || socket.isClosed()) {
+            Socket newSocket = new Socket();
+            newSocket.setTcpNoDelay(true);
+            newSocket.setKeepAlive(true);
+            newSocket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+            socket = newSocket;
+            output = new BufferedOutputStream(socket.getOutputStream());
+
+            Thread reader = new ThreadFactoryBuilder()
+                    .setNameFormat("louie-transport-client-" + host + ":" + port + "-%d")
+                    .setDaemon(true)
+                    .build()
+                    .newThread(new ResponseReader(socket));
+            reader.start();
+        }
+        return output;
+    }
+
+    /**
+     * Sends the bytes of a request and waits for the first frame of its 
+     * response. The rest is read from the returned stream as it arrives, each
+     * read waiting at most the timeout for the next frame, so a long response
+     * that keeps arriving is never cut off. Close the stream to stop waiting
+     * on the rest of the response.
+     *
+     * @param request a complete request, as would be posted to the pb servlet
+     * @param timeout the maximum time to wait for each frame of the response in seconds
+     * @return the response, as would be returned from the pb servlet
+     * @throws IOException if the connection failed or the first frame did not arrive in time
+     */
+    public InputStream request(byte[] request, int timeout) throws IOException {
+        ResponseStream response = send(request, timeout);
+        try {
+            return response.started.get(timeout, TimeUnit.SECONDS);
+        } catch (TimeoutException ex) {
+            response.close();
+            throw new SocketTimeoutException("Timed out waiting for response from "+host+":"+port);
+        } catch (InterruptedException ex) {
+            response.close();
+            throw new InterruptedIOException(ex.toString());
+        } catch (ExecutionException ex) {
+            response.close();
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        }
+    }
+
+    /**
+     * Sends the bytes of a request without waiting for the response. The 
+     * future completes on the reader thread once the first frame of the 
+     * response arrives, or fails if the connection does; cancel it to stop 
+     * waiting. Reads from the returned stream wait at most the timeout for 
+     * each later frame.
+     *
+     * @param request a complete request, as would be posted to the pb servlet
+     * @param timeout the maximum time to wait for each later frame of the response in seconds
+     * @return the response, as would be returned from the pb servlet
+     */
+    public ListenableFuture<InputStream> requestAsync(byte[] request, int timeout) {
+        final ResponseStream response = send(request, timeout);
+        response.started.addListener(new Runnable() {
+            @Override
+            public void run() {
+                if (response.started.isCancelled()) {
+                    response.close();
+                }
+            }
+        }, MoreExecutors.sameThreadExecutor());
+        return response.started;
+    }
+    
+    private ResponseStream send(byte[] request, int timeout) {
+        int id = frameId.incrementAndGet();
+        ResponseStream response = new ResponseStream(id, timeout);
+        pending.put(id, response);
+        try {
+            synchronized (this) {
+                new Frame(id, request).write(connect());
+            }
+        } catch (IOException ex) {
+            close(ex);
+            response.fail(ex);
+        }
+        return response;
+    }
+
+    /**
+     * Closes the socket and fails every request waiting on it
+     */
+    private void close(IOException cause) {
+        synchronized (this) {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException ex) {}
+                socket = null;
+                output = null;
+            }
+        }
+        for (ResponseStream response : pending.values()) {
+            response.fail(cause);
+        }
+    }
+    
+    /**
+     * The frames of one response, queued by the reader thread until the 
+     * caller reads them. An empty frame ends the response.
+     */
+    private class ResponseStream extends InputStream {
+        private final byte[] END = new byte[0];
+        
+        private final int id;
+        private final long timeoutMillis;
+        private final BlockingQueue<byte[]> frames = new LinkedBlockingQueue<>();
+        private final SettableFuture<InputStream> started = SettableFuture.create();
+        
+        private volatile IOException failure;
+        private byte[] current = END;
+        private int position = 0;
+        private boolean ended = false;
+
+        ResponseStream(int id, int timeout) {
+            this.id = id;
+            this.timeoutMillis = TimeUnit.SECONDS.toMillis(timeout);
+        }
+        
+        void offer(byte[] data) {
+            frames.offer(data.length == 0 ? END : data);
+            started.set(this);
+        }
+        
+        void fail(IOException cause) {
+            failure = cause;
+            frames.offer(END);
+            started.setException(cause);
+        }
+        
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (position == current.length) {
+                if (ended) {
+                    return -1;
+                }
+                nextFrame();
+            }
+            int count = Math.min(len, current.length - position);
+            System.arraycopy(current, position, b, off, count);
+            position += count;
+            return count;
+        }
+        
+        private void nextFrame() throws IOException {
+            byte[] next;
+            try {
+                next = frames.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                close();
+                throw new InterruptedIOException(ex.toString());
+            }
+            if (next == null) {
+                close();
+                throw new SocketTimeoutException("Timed out waiting for response from "+host+":"+port);
+            }
+            if (next == END) {
+                ended = true;
+                pending.remove(id);
+                if (failure != null) {
+                    throw failure;
+                }
+            }
+            current = next;
+            position = 0;
+        }
+
+        @Override
+        public int available() {
+            return current.length - position;
+        }
+
+        @Override
+        public void close() {
+            pending.remove(id);
+            if (!ended) {
+                ended = true;
+                frames.clear();
+            }
+        }
+    }
+
+    private class ResponseReader implements Runnable {
+        private final Socket readerSocket;
+
+        public ResponseReader(Socket socket) {
+            this.readerSocket = socket;
+        }
+
+        @Override
+        public void run() {
+            try (InputStream input = new BufferedInputStream(readerSocket.getInputStream())) {
+                Frame frame;
+                while ((frame = Frame.read(input)) != null) {
+                    ResponseStream response = pending.get(frame.getId());
+                    if (response != null) {
+                        response.offer(frame.getData());
+                    } else {
+                        // The caller timed out or stopped reading
+                        LOGGER.debug("Discarding transport frame {} from {}:{}, no request is waiting on it",
+                                frame.getId(), host, port);
+                    }
+                }
+                closeReader(new EOFException("Transport connection closed by "+host+":"+port));
+            } catch (IOException ex) {
+                closeReader(ex);
+            }
+        }
+
+        private void closeReader(IOException cause) {
+            synchronized (TransportClient.this) {
+                if (socket != readerSocket) {
+                    // Already replaced by a new connection
+                    return;
+                }
+            }
+            close(cause);
+        }
+    }
+}
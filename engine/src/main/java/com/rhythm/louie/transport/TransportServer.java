@@ -0,0 +1,348 @@
+/*
+ * Copyright 2015 Rhythm & Hues Studios.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rhythm.louie.transport;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rhythm.louie.exception.LouieRouteException;
+import com.rhythm.louie.request.ProtoProcess;
+import com.rhythm.louie.request.ProtoProcessor;
+import com.rhythm.louie.request.RequestProperties;
+import com.rhythm.louie.server.RequestExecutor;
+import com.rhythm.louie.server.Server;
+import com.rhythm.louie.server.TransportProperties;
+import com.rhythm.louie.services.auth.UnauthorizedSessionException;
+
+import com.rhythm.pb.RequestProtos.ErrorPB;
+import com.rhythm.pb.RequestProtos.ResponseHeaderPB;
+import com.rhythm.pb.RequestProtos.ResponsePB;
+
+/**
+ * Accepts persistent socket connections from other louie servers.
+ *
+ * Each connection has a single reader thread, which hands every frame off
+ * to the async request pool so that many requests can be in flight on one
+ * socket at once. Responses are written back in frames as they are produced.
+ * When the pool is full a request is answered with a 503 rather than run on
+ * the reader thread, so that it never holds up the rest of the connection.
+ * 
+ * Connections are not authenticated, so the transport refuses to start on a
+ * secure server.
+ *
+ * @author cjohnson
+ */
+public class TransportServer {
+    private final Logger LOGGER = LoggerFactory.getLogger(TransportServer.class);
+
+    private final Set<Socket> sockets = Collections.newSetFromMap(new ConcurrentHashMap<Socket,Boolean>());
+    private ServerSocket serverSocket;
+    private ExecutorService readers;
+    private ProtoProcess processor;
+    private String localIp;
+
+    private TransportServer() {}
+
+    public static TransportServer getInstance() {
+        return TransportServerHolder.INSTANCE;
+    }
+
+    private static class TransportServerHolder {
+        private static final TransportServer INSTANCE = new TransportServer();
+    }
+
+    public synchronized void start() throws IOException {
+        if (serverSocket != null) {
+            return;
+        }
+        if (Server.getLocal().isSecure()) {
+            throw new IOException("Transport connections are not authenticated, "
+                    + "not starting the transport on a secure server");
+        }
+        try {
+            localIp = InetAddress.getLocalHost().getHostAddress();
+        } catch (UnknownHostException ex) {
+            LOGGER.error("Error retrieving localhost IP", ex);
+            localIp = "UNKNOWN_ADDRESS";
+        }
+        processor = new ProtoProcessor();
+
+        ThreadFactory threadFactory = new ThreadFactoryBuilder()
+                .setNameFormat("louie-transport-%d").setDaemon(true).build();
+        readers = Executors.newCachedThreadPool(threadFactory);
+
+        serverSocket = new ServerSocket(TransportProperties.getPort());
+        readers.execute(new Acceptor(serverSocket));
+        LOGGER.info("Transport listening on port {}", TransportProperties.getPort());
+    }
+
+    public synchronized void shutdown() {
+        if (serverSocket == null) {
+            return;
+        }
+        try {
+            serverSocket.close();
+        } catch (IOException ex) {
+            LOGGER.error("Error closing transport server socket", ex);
+        }
+        for (Socket socket : sockets) {
+            closeQuietly(socket);
+        }
+        sockets.clear();
+        readers.shutdownNow();
+        serverSocket = null;
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ex) {}
+    }
+
+    private class Acceptor implements Runnable {
+        private final ServerSocket server;
+
+        public Acceptor(ServerSocket server) {
+            this.server = server;
+        }
+
+        @Override
+        public void run() {
+            while (!server.isClosed()) {
+                try {
+                    Socket socket = server.accept();
+                    socket.setTcpNoDelay(true);
+                    socket.setKeepAlive(true);
+                    sockets.add(socket);
+                    readers.execute(new ConnectionReader(socket));
+                } catch (SocketException ex) {
+                    if (!server.isClosed()) {
+                        LOGGER.error("Error accepting transport connection", ex);
+                    }
+                } catch (Exception ex) {
+                    LOGGER.error("Error accepting transport connection", ex);
+                }
+            }
+        }
+    }
+
+    private class ConnectionReader implements Runnable {
+        private final Socket socket;
+
+        public ConnectionReader(Socket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public void run() {
+            RequestProperties props = RequestProperties.create(
+                    socket.getInetAddress().getHostAddress(), socket.getLocalPort(),
+                    Server.getLocal().getGateway(), localIp);
+            try (InputStream input = new BufferedInputStream(socket.getInputStream());
+                 OutputStream output = new BufferedOutputStream(socket.getOutputStream())) {
+                Frame frame;
+                while ((frame = Frame.read(input)) != null) {
+                    FrameTask task = new FrameTask(frame, output, props);
+                    if (!RequestExecutor.getInstance().tryDispatch(task)) {
+                        task.reject();
+                    }
+                }
+            } catch (IOException ex) {
+                if (!socket.isClosed()) {
+                    LOGGER.warn("Transport connection from {} closed: {}",
+                            socket.getInetAddress(), ex.toString());
+                }
+            } finally {
+                sockets.remove(socket);
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    private class FrameTask implements Runnable {
+        private final Frame frame;
+        private final OutputStream output;
+        private final RequestProperties props;
+
+        public FrameTask(Frame frame, OutputStream output, RequestProperties props) {
+            this.frame = frame;
+            this.output = output;
+            this.props = props;
+        }
+
+        @Override
+        public void run() {
+            FrameOutputStream response = new FrameOutputStream(frame.getId(), output);
+            try {
+                processor.processRequest(new ByteArrayInputStream(frame.getData()), response, props);
+            } catch (LouieRouteException ex) {
+                LOGGER.error(ex.toString());
+                writeError(response, 404, ex);
+            } catch (UnauthorizedSessionException ex) {
+                LOGGER.error(ex.toString());
+                writeError(response, 407, ex);
+            } catch (Exception ex) {
+                LOGGER.error("Error Processing Transport Request", ex);
+                writeError(response, 400, ex);
+            }
+            closeResponse(response);
+        }
+        
+        /**
+         * Answers the request as busy without processing it
+         */
+        public void reject() {
+            FrameOutputStream response = new FrameOutputStream(frame.getId(), output);
+            writeError(response, 503, new RejectedExecutionException("Transport requests are saturated"));
+            closeResponse(response);
+        }
+        
+        private void closeResponse(FrameOutputStream response) {
+            try {
+                response.close();
+            } catch (IOException ex) {
+                LOGGER.error("Error writing transport response: {}", ex.toString());
+            }
+        }
+
+        /**
+         * Writes a response in place of one that failed before any of it was 
+         * sent, mirroring the status codes that the pb servlet would return.
+         * A response that has been partly sent can only be cut short.
+         */
+        private void writeError(FrameOutputStream response, int code, Exception ex) {
+            if (!response.discard()) {
+                return;
+            }
+            ErrorPB.Builder error = ErrorPB.newBuilder()
+                    .setCode(code)
+                    .setType(ex.getClass().getSimpleName());
+            if (ex.getMessage() != null) {
+                error.setDescription(ex.getMessage());
+            }
+            try {
+                ResponseHeaderPB.newBuilder().setCount(1).build().writeDelimitedTo(response);
+                ResponsePB.newBuilder()
+                        .setId(frame.getId())
+                        .setCount(0)
+                        .setError(error)
+                        .build().writeDelimitedTo(response);
+            } catch (IOException e) {
+                LOGGER.error("Error writing transport error response", e);
+            }
+        }
+    }
+    
+    /**
+     * Sends a response on the shared connection as it is written, a frame at
+     * each flush or whenever FRAME_BUFFER bytes are waiting, and an empty 
+     * frame to end it
+     */
+    private static class FrameOutputStream extends OutputStream {
+        private static final int FRAME_BUFFER = 64*1024;
+        
+        private final int id;
+        private final OutputStream output;
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private boolean sent = false;
+        private boolean closed = false;
+
+        public FrameOutputStream(int id, OutputStream output) {
+            this.id = id;
+            this.output = output;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            checkClosed();
+            buffer.write(b);
+            if (buffer.size() >= FRAME_BUFFER) {
+                send();
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            checkClosed();
+            buffer.write(b, off, len);
+            if (buffer.size() >= FRAME_BUFFER) {
+                send();
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (!closed && buffer.size() > 0) {
+                send();
+            }
+        }
+        
+        /**
+         * Drops whatever has not been sent yet
+         * 
+         * @return false if some of the response has already been sent
+         */
+        public boolean discard() {
+            buffer.reset();
+            return !sent && !closed;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            flush();
+            closed = true;
+            writeFrame(new Frame(id, new byte[0]));
+        }
+        
+        private void checkClosed() throws IOException {
+            if (closed) {
+                throw new IOException("Transport response "+id+" is already closed");
+            }
+        }
+        
+        private void send() throws IOException {
+            Frame frame = new Frame(id, buffer.toByteArray());
+            buffer.reset();
+            sent = true;
+            writeFrame(frame);
+        }
+        
+        private void writeFrame(Frame frame) throws IOException {
+            synchronized (output) {
+                frame.write(output);
+            }
+        }
+    }
+}
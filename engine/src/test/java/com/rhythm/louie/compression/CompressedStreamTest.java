@@ -0,0 +1,92 @@
+/*
+ * Copyright 2015 Rhythm & Hues Studios.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rhythm.louie.compression;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author cjohnson
+ */
+public class CompressedStreamTest {
+    
+    public CompressedStreamTest() {
+    }
+
+    private static byte[] sample(int size) {
+        Random random = new Random(size);
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            // repetitive enough to compress, with some noise
+            data[i] = (byte) (i % 97 < 80 ? 'a' + (i % 13) : random.nextInt());
+        }
+        return data;
+    }
+    
+    @Test
+    public void testCodecs() throws Exception {
+        System.out.println("Codec.roundTrip");
+        
+        for (String name : Codecs.getNames()) {
+            Codec codec = Codecs.forName(name);
+            for (int size : new int[] {0, 1, 12, 13, 100, 5000, 70000}) {
+                byte[] data = sample(size);
+                byte[] compressed = codec.compress(data, 0, size);
+                byte[] restored = new byte[size];
+                codec.decompress(compressed, 0, compressed.length, restored, size);
+                assertArrayEquals(name+" "+size, data, restored);
+            }
+        }
+    }
+    
+    @Test
+    public void testStream() throws Exception {
+        System.out.println("CompressedStream.roundTrip");
+        
+        byte[] data = sample(200000);
+        for (String name : Codecs.getNames()) {
+            Codec codec = Codecs.forName(name);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            CompressedOutputStream output = new CompressedOutputStream(bytes, codec);
+            output.write(data, 0, 10);
+            output.flush();
+            output.write(data, 10, data.length - 10);
+            output.finish();
+            bytes.write(42); // anything after the stream must be left unread
+            
+            assertTrue(bytes.size() < data.length);
+            
+            ByteArrayInputStream raw = new ByteArrayInputStream(bytes.toByteArray());
+            CompressedInputStream input = new CompressedInputStream(raw, codec);
+            byte[] restored = new byte[data.length];
+            int read = 0;
+            int n;
+            while ((n = input.read(restored, read, Math.min(999, restored.length - read))) > 0) {
+                read += n;
+            }
+            assertEquals(data.length, read);
+            assertTrue(Arrays.equals(data, restored));
+            assertEquals(-1, input.read());
+            assertEquals(42, raw.read());
+        }
+    }
+}
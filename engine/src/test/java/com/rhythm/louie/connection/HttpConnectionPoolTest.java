@@ -0,0 +1,307 @@
+/*
+ * Copyright 2015 Rhythm & Hues Studios.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rhythm.louie.connection;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import com.rhythm.louie.connection.HttpConnectionPool.PooledResponse;
+import com.rhythm.louie.connection.HttpConnectionPool.UnsentRequestException;
+
+/**
+ *
+ * @author cjohnson
+ */
+public class HttpConnectionPoolTest {
+    private static final byte[] BODY = "request".getBytes(StandardCharsets.ISO_8859_1);
+    
+    public HttpConnectionPoolTest() {
+    }
+
+    @Test
+    public void testContentLength() throws Exception {
+        System.out.println("HttpConnectionPool.contentLength");
+        
+        try (ScriptedServer server = new ScriptedServer(
+                "HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nhello",
+                "HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nworld")) {
+            HttpConnectionPool pool = server.pool();
+            assertEquals("hello", post(pool));
+            assertEquals("world", post(pool));
+            assertEquals(1, server.getConnections());
+            assertEquals(Arrays.asList("request", "request"), server.getRequests());
+        }
+    }
+    
+    @Test
+    public void testChunked() throws Exception {
+        System.out.println("HttpConnectionPool.chunked");
+        
+        try (ScriptedServer server = new ScriptedServer(
+                "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n"
+                        + "5;ext=1\r\nhello\r\n1\r\n \r\n5\r\nworld\r\n0\r\nTrailer: x\r\n\r\n",
+                "HTTP/1.1 200 OK\r\nContent-Length: 4\r\n\r\nnext")) {
+            HttpConnectionPool pool = server.pool();
+            assertEquals("hello world", post(pool));
+            assertEquals("next", post(pool));
+            assertEquals(1, server.getConnections());
+        }
+    }
+    
+    @Test
+    public void testInterimResponse() throws Exception {
+        System.out.println("HttpConnectionPool.interimResponse");
+        
+        try (ScriptedServer server = new ScriptedServer(
+                "HTTP/1.1 100 Continue\r\n\r\nHTTP/1.1 102 Processing\r\nX-Interim: 1\r\n\r\n"
+                        + "HTTP/1.1 201 Created\r\nContent-Length: 4\r\n\r\ndone",
+                "HTTP/1.1 200 OK\r\nContent-Length: 4\r\n\r\nnext")) {
+            HttpConnectionPool pool = server.pool();
+            try (PooledResponse response = pool.post("/test", "text/plain", BODY, 5000)) {
+                assertEquals(201, response.getStatus());
+                assertEquals("Created", response.getReason());
+                assertEquals("done", read(response));
+            }
+            assertEquals("next", post(pool));
+            assertEquals(1, server.getConnections());
+        }
+    }
+    
+    @Test
+    public void testConnectionClose() throws Exception {
+        System.out.println("HttpConnectionPool.connectionClose");
+        
+        try (ScriptedServer server = new ScriptedServer(
+                "HTTP/1.1 200 OK\r\nContent-Length: 5\r\nConnection: close\r\n\r\nhello",
+                "HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nworld")) {
+            HttpConnectionPool pool = server.pool();
+            assertEquals("hello", post(pool));
+            assertEquals("world", post(pool));
+            assertEquals(2, server.getConnections());
+        }
+    }
+    
+    @Test
+    public void testNoLength() throws Exception {
+        System.out.println("HttpConnectionPool.noLength");
+        
+        try (ScriptedServer server = new ScriptedServer(
+                "HTTP/1.1 200 OK\r\n\r\nuntil the end" + ScriptedServer.CLOSE,
+                "HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nworld")) {
+            HttpConnectionPool pool = server.pool();
+            assertEquals("until the end", post(pool));
+            assertEquals("world", post(pool));
+            assertEquals(2, server.getConnections());
+        }
+    }
+    
+    @Test
+    public void testNoContent() throws Exception {
+        System.out.println("HttpConnectionPool.noContent");
+        
+        try (ScriptedServer server = new ScriptedServer(
+                "HTTP/1.1 204 No Content\r\n\r\n",
+                "HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nworld")) {
+            HttpConnectionPool pool = server.pool();
+            assertEquals("", post(pool));
+            assertEquals("world", post(pool));
+            assertEquals(1, server.getConnections());
+        }
+    }
+    
+    @Test
+    public void testStaleConnection() throws Exception {
+        System.out.println("HttpConnectionPool.staleConnection");
+        
+        // the server closes the idle connection after its first response
+        try (ScriptedServer server = new ScriptedServer(
+                "HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nhello" + ScriptedServer.CLOSE,
+                "HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nworld")) {
+            HttpConnectionPool pool = server.pool();
+            assertEquals("hello", post(pool));
+            Thread.sleep(100);
+            assertEquals("world", post(pool));
+            assertEquals(2, server.getConnections());
+            assertEquals(Arrays.asList("request", "request"), server.getRequests());
+        }
+    }
+    
+    @Test
+    public void testNoResend() throws Exception {
+        System.out.println("HttpConnectionPool.noResend");
+        
+        // the server reads the second request, then closes without answering
+        try (ScriptedServer server = new ScriptedServer(
+                "HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nhello",
+                ScriptedServer.CLOSE,
+                "HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nworld")) {
+            HttpConnectionPool pool = server.pool();
+            assertEquals("hello", post(pool));
+            try {
+                post(pool);
+                fail("Expected the request to fail");
+            } catch (UnsentRequestException e) {
+                fail("The request was written");
+            } catch (IOException e) {
+                // the request may have been acted on, so must not be resent
+            }
+            assertEquals(2, server.getRequests().size());
+            assertEquals("world", post(pool));
+        }
+    }
+    
+    @Test
+    public void testUnsent() throws Exception {
+        System.out.println("HttpConnectionPool.unsent");
+        
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        try {
+            HttpConnectionPool.getPool("localhost", port, null).post("/test", "text/plain", BODY, 5000);
+            fail("Expected the connection to be refused");
+        } catch (UnsentRequestException e) {
+            // nothing reached the server
+        }
+    }
+    
+    private static String post(HttpConnectionPool pool) throws IOException {
+        try (PooledResponse response = pool.post("/test", "text/plain", BODY, 5000)) {
+            return read(response);
+        }
+    }
+    
+    private static String read(PooledResponse response) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        InputStream in = response.getInputStream();
+        byte[] buf = new byte[3];
+        for (int read = in.read(buf); read >= 0; read = in.read(buf)) {
+            bytes.write(buf, 0, read);
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.ISO_8859_1);
+    }
+    
+    /**
+     * Answers each request in turn with the next scripted response, closing 
+     * the connection after any response that ends with CLOSE
+     */
+    private static class ScriptedServer implements Closeable, Runnable {
+        static final String CLOSE = "<close>";
+        
+        private final ServerSocket serverSocket;
+        private final BlockingQueue<String> responses;
+        private final List<String> requests = new ArrayList<>();
+        private final AtomicInteger connections = new AtomicInteger();
+        
+        ScriptedServer(String... responses) throws IOException {
+            this.responses = new LinkedBlockingQueue<>(Arrays.asList(responses));
+            serverSocket = new ServerSocket(0);
+            Thread thread = new Thread(this, "ScriptedServer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        
+        HttpConnectionPool pool() {
+            return HttpConnectionPool.getPool("localhost", serverSocket.getLocalPort(), null);
+        }
+        
+        int getConnections() {
+            return connections.get();
+        }
+        
+        synchronized List<String> getRequests() {
+            return new ArrayList<>(requests);
+        }
+        
+        @Override
+        public void run() {
+            while (!serverSocket.isClosed()) {
+                try (Socket socket = serverSocket.accept()) {
+                    connections.incrementAndGet();
+                    serve(socket);
+                } catch (IOException e) {
+                    // closed
+                }
+            }
+        }
+        
+        private void serve(Socket socket) throws IOException {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            while (true) {
+                int length = -1;
+                String line = readLine(in);
+                if (line == null) {
+                    return;
+                }
+                for (; !line.isEmpty(); line = readLine(in)) {
+                    if (line.toLowerCase().startsWith("content-length:")) {
+                        length = Integer.parseInt(line.substring(15).trim());
+                    }
+                }
+                byte[] body = new byte[length];
+                new DataInputStream(in).readFully(body);
+                synchronized (this) {
+                    requests.add(new String(body, StandardCharsets.ISO_8859_1));
+                }
+                
+                String response = responses.poll();
+                boolean close = response == null || response.endsWith(CLOSE);
+                if (response != null) {
+                    if (close) {
+                        response = response.substring(0, response.length() - CLOSE.length());
+                    }
+                    out.write(response.getBytes(StandardCharsets.ISO_8859_1));
+                    out.flush();
+                }
+                if (close) {
+                    return;
+                }
+            }
+        }
+        
+        private static String readLine(InputStream in) throws IOException {
+            StringBuilder line = new StringBuilder();
+            int b;
+            while ((b = in.read()) != '\n') {
+                if (b < 0) {
+                    return null;
+                }
+                if (b != '\r') {
+                    line.append((char) b);
+                }
+            }
+            return line.toString();
+        }
+        
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2015 Rhythm & Hues Studios.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rhythm.louie.connection;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto;
+import com.google.protobuf.Message;
+
+import com.rhythm.louie.connection.DefaultLouieConnection.BouncedException;
+import com.rhythm.louie.request.RequestContext;
+import com.rhythm.pb.RequestProtos.ResponsePB;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author cjohnson
+ */
+public class RequestBatcherTest {
+    
+    public RequestBatcherTest() {
+    }
+    
+    /**
+     * Answers each request with its own response, recording how they were sent
+     */
+    private static class FakeConnection extends DefaultLouieConnection {
+        final Map<Request<?>, Response> responses = new ConcurrentHashMap<>();
+        final List<Integer> batches = Collections.synchronizedList(new ArrayList<Integer>());
+        final List<Request<?>> singles = Collections.synchronizedList(new ArrayList<Request<?>>());
+        volatile Request<?> bounce;
+        volatile Exception failure;
+        
+        FakeConnection() {
+            super("localhost");
+        }
+        
+        Request<FieldDescriptorProto> newRequest(String method) {
+            Request<FieldDescriptorProto> req = Request.newParams("test", method, 
+                    FieldDescriptorProto.getDefaultInstance());
+            responses.put(req, new Response(ResponsePB.getDefaultInstance()));
+            return req;
+        }
+
+        @Override
+        <T extends Message> Response requestSingle(Request<T> req, RequestContext currentRequest) {
+            singles.add(req);
+            return responses.get(req);
+        }
+
+        @Override
+        BatchResponse requestBatch(List<Request<? extends Message>> requests, 
+                List<RequestContext> contexts) throws Exception {
+            batches.add(requests.size());
+            if (failure != null) {
+                throw failure;
+            }
+            Response[] batchResponses = new Response[requests.size()];
+            Exception[] errors = new Exception[requests.size()];
+            for (int r = 0; r < requests.size(); r++) {
+                if (requests.get(r) == bounce) {
+                    errors[r] = new BouncedException("bounced");
+                } else {
+                    batchResponses[r] = responses.get(requests.get(r));
+                }
+            }
+            return new BatchResponse(batchResponses, errors);
+        }
+    }
+    
+    /**
+     * Makes the requests at once, each on its own thread
+     * 
+     * @return the response or exception of each request
+     */
+    private static List<Object> requestAll(final RequestBatcher batcher, 
+            List<Request<FieldDescriptorProto>> requests) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        final List<AtomicReference<Object>> outcomes = new ArrayList<>();
+        for (final Request<FieldDescriptorProto> req : requests) {
+            final AtomicReference<Object> outcome = new AtomicReference<>();
+            outcomes.add(outcome);
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        outcome.set(batcher.request(req, null));
+                    } catch (Exception e) {
+                        outcome.set(e);
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        
+        List<Object> results = new ArrayList<>();
+        for (AtomicReference<Object> outcome : outcomes) {
+            results.add(outcome.get());
+        }
+        return results;
+    }
+    
+    private static List<Request<FieldDescriptorProto>> newRequests(FakeConnection connection, int count) {
+        List<Request<FieldDescriptorProto>> requests = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            requests.add(connection.newRequest("method" + i));
+        }
+        return requests;
+    }
+    
+    @Test
+    public void testFull() throws Exception {
+        System.out.println("RequestBatcher.full");
+        
+        FakeConnection connection = new FakeConnection();
+        // a full batch is sent right away, well before the window
+        RequestBatcher batcher = new RequestBatcher(connection, 60000, 3);
+        List<Request<FieldDescriptorProto>> requests = newRequests(connection, 3);
+        
+        List<Object> results = requestAll(batcher, requests);
+        assertEquals(Collections.singletonList(3), connection.batches);
+        for (int i = 0; i < requests.size(); i++) {
+            assertSame(connection.responses.get(requests.get(i)), results.get(i));
+        }
+        assertTrue(connection.singles.isEmpty());
+    }
+    
+    @Test
+    public void testWindow() throws Exception {
+        System.out.println("RequestBatcher.window");
+        
+        FakeConnection connection = new FakeConnection();
+        RequestBatcher batcher = new RequestBatcher(connection, 20, 10);
+        Request<FieldDescriptorProto> req = connection.newRequest("alone");
+        
+        // nothing joins within the window, so it is sent on its own
+        assertSame(connection.responses.get(req), batcher.request(req, null));
+        assertTrue(connection.batches.isEmpty());
+        assertEquals(Collections.<Request<?>>singletonList(req), connection.singles);
+    }
+    
+    @Test
+    public void testBounced() throws Exception {
+        System.out.println("RequestBatcher.bounced");
+        
+        FakeConnection connection = new FakeConnection();
+        RequestBatcher batcher = new RequestBatcher(connection, 60000, 2);
+        List<Request<FieldDescriptorProto>> requests = newRequests(connection, 2);
+        connection.bounce = requests.get(1);
+        
+        List<Object> results = requestAll(batcher, requests);
+        assertSame(connection.responses.get(requests.get(0)), results.get(0));
+        // retried alone, as request() would have
+        assertSame(connection.responses.get(requests.get(1)), results.get(1));
+        assertEquals(Collections.<Request<?>>singletonList(requests.get(1)), connection.singles);
+    }
+    
+    @Test
+    public void testFailure() throws Exception {
+        System.out.println("RequestBatcher.failure");
+        
+        FakeConnection connection = new FakeConnection();
+        RequestBatcher batcher = new RequestBatcher(connection, 60000, 3);
+        IOException failure = new IOException("failed");
+        connection.failure = failure;
+        
+        for (Object result : requestAll(batcher, newRequests(connection, 3))) {
+            assertSame(failure, result);
+        }
+        assertTrue(connection.singles.isEmpty());
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2015 Rhythm & Hues Studios.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rhythm.louie.json;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author cjohnson
+ */
+public class JsonStreamTest {
+    
+    public JsonStreamTest() {
+    }
+
+    @Test
+    public void testReader() throws Exception {
+        System.out.println("JsonStreamReader");
+        
+        String json = "{\"version\" : \"2\", \"user\":\"a\\\"b\\u0041\",\n"
+                + " \"params\":[{\"type\":\"rh.pb.ScenePKPB\",\"value\":{\"job\": \"ripd\", \"ids\":[1, 2]}},"
+                + " {\"type\":\"rh.pb.IntPB\",\"value\":12}], \"other\":[null,true,{}]}";
+        JsonStreamReader reader = new JsonStreamReader(new StringReader(json));
+        reader.beginObject();
+        
+        assertTrue(reader.hasNext());
+        assertEquals("version", reader.nextName());
+        assertEquals("2", reader.nextString());
+        
+        assertTrue(reader.hasNext());
+        assertEquals("user", reader.nextName());
+        assertEquals("a\"bA", reader.nextString());
+        
+        assertTrue(reader.hasNext());
+        assertEquals("params", reader.nextName());
+        assertTrue(reader.peekArray());
+        reader.beginArray();
+        assertTrue(reader.hasNext());
+        reader.beginObject();
+        assertTrue(reader.hasNext());
+        assertEquals("type", reader.nextName());
+        assertEquals("rh.pb.ScenePKPB", reader.nextString());
+        assertTrue(reader.hasNext());
+        assertEquals("value", reader.nextName());
+        assertEquals("{\"job\":\"ripd\",\"ids\":[1,2]}", reader.nextString());
+        assertFalse(reader.hasNext());
+        reader.endObject();
+        assertTrue(reader.hasNext());
+        reader.skipValue();
+        assertFalse(reader.hasNext());
+        reader.endArray();
+        
+        assertTrue(reader.hasNext());
+        assertEquals("other", reader.nextName());
+        reader.skipValue();
+        assertFalse(reader.hasNext());
+        reader.endObject();
+    }
+    
+    @Test
+    public void testWriter() throws Exception {
+        System.out.println("JsonMessageWriter");
+        
+        FieldDescriptorProto field = FieldDescriptorProto.newBuilder()
+                .setNumber(3)
+                .setName("na\"me\n")
+                .setLabel(FieldDescriptorProto.Label.LABEL_REPEATED)
+                .build();
+        StringWriter writer = new StringWriter();
+        JsonMessageWriter.write(field, writer);
+        assertEquals("{\"name\": \"na\\\"me\\n\",\"number\": 3,\"label\": \"LABEL_REPEATED\"}", 
+                writer.toString());
+        
+        writer = new StringWriter();
+        JsonMessageWriter.writeString("\u0001\u00e9", writer);
+        assertEquals("\"\\u0001\u00e9\"", writer.toString());
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2015 Rhythm & Hues Studios.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rhythm.louie.request;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto;
+import com.google.protobuf.Message;
+
+import com.rhythm.louie.json.JsonMessageWriter;
+import com.rhythm.louie.request.data.Result;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author cjohnson
+ */
+public class JsonProcessorTest {
+    
+    private static final Message FIRST = FieldDescriptorProto.newBuilder().setName("first").build();
+    private static final Message SECOND = FieldDescriptorProto.newBuilder().setName("second").build();
+    
+    public JsonProcessorTest() {
+    }
+    
+    /**
+     * The messages of a streaming result, the service fails after the given messages
+     */
+    private static Result failingResult(final Message... messages) {
+        Result result = Result.results(null, new AbstractList<Message>() {
+            @Override
+            public Message get(int index) {
+                if (index == messages.length) {
+                    throw new IllegalStateException("Lost the \"source\"");
+                }
+                return messages[index];
+            }
+
+            @Override
+            public int size() {
+                return messages.length + 1;
+            }
+        });
+        result.setStreaming(true);
+        return result;
+    }
+    
+    private static String json(Message message) throws IOException {
+        StringWriter writer = new StringWriter();
+        JsonMessageWriter.write(message, writer);
+        return writer.toString();
+    }
+    
+    private static String handle(Result result, boolean ndjson, StringWriter output) {
+        try {
+            new JsonProcessor().handleResult("test", result, output, ndjson);
+            return null;
+        } catch (Exception e) {
+            return e.getMessage();
+        }
+    }
+    
+    @Test
+    public void testArray() throws Exception {
+        System.out.println("JsonProcessor.array");
+        
+        List<Message> messages = Arrays.asList(FIRST, SECOND);
+        StringWriter output = new StringWriter();
+        assertNull(handle(Result.results(null, messages), false, output));
+        assertEquals("[" + json(FIRST) + "," + json(SECOND) + "]", output.toString());
+    }
+    
+    @Test
+    public void testArrayError() throws Exception {
+        System.out.println("JsonProcessor.arrayError");
+        
+        StringWriter output = new StringWriter();
+        assertEquals("Lost the \"source\"", handle(failingResult(FIRST, SECOND), false, output));
+        assertEquals("[" + json(FIRST) + "," + json(SECOND) + ",{\"error\":\"Lost the \\\"source\\\"\"}]", 
+                output.toString());
+    }
+    
+    @Test
+    public void testArrayErrorFirst() throws Exception {
+        System.out.println("JsonProcessor.arrayErrorFirst");
+        
+        StringWriter output = new StringWriter();
+        assertNotNull(handle(failingResult(), false, output));
+        assertEquals("[{\"error\":\"Lost the \\\"source\\\"\"}]", output.toString());
+    }
+    
+    @Test
+    public void testNdjsonError() throws Exception {
+        System.out.println("JsonProcessor.ndjsonError");
+        
+        StringWriter output = new StringWriter();
+        assertNotNull(handle(failingResult(FIRST, SECOND), true, output));
+        assertEquals(json(FIRST) + "\n" + json(SECOND) + "\n{\"error\":\"Lost the \\\"source\\\"\"}\n", 
+                output.toString());
+    }
+}
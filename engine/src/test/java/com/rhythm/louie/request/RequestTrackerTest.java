@@ -0,0 +1,152 @@
+/*
+ * Copyright 2015 Rhythm & Hues Studios.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rhythm.louie.request;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import com.rhythm.louie.request.data.DataType;
+import com.rhythm.pb.RequestProtos.RequestHeaderPB;
+import com.rhythm.pb.RequestProtos.RequestPB;
+
+/**
+ *
+ * @author cjohnson
+ */
+public class RequestTrackerTest {
+    
+    public RequestTrackerTest() {
+    }
+    
+    private static RequestContext newRequest() {
+        return new RequestContext(RequestHeaderPB.getDefaultInstance(), 
+                RequestPB.getDefaultInstance(), DataType.PB, null);
+    }
+
+    @Test
+    public void testTrack() {
+        System.out.println("RequestTracker.track");
+        
+        RequestTracker tracker = new RequestTracker();
+        RequestContext ctx = newRequest();
+        tracker.track(ctx);
+        assertTrue(tracker.getActive().contains(ctx));
+        assertTrue(tracker.getOverdue(1000, ctx.getCreateInstant()).isEmpty());
+        
+        tracker.untrack(ctx);
+        assertTrue(tracker.getActive().isEmpty());
+        assertTrue(tracker.getOverdue(1000, ctx.getCreateInstant() + 5000).isEmpty());
+    }
+    
+    @Test
+    public void testOverdue() {
+        System.out.println("RequestTracker.overdue");
+        
+        RequestTracker tracker = new RequestTracker();
+        RequestContext ctx = newRequest();
+        tracker.track(ctx);
+        
+        List<RequestContext> overdue = tracker.getOverdue(1000, ctx.getCreateInstant() + 2000);
+        assertEquals(1, overdue.size());
+        assertSame(ctx, overdue.get(0));
+        assertEquals(1, tracker.getActive().size());
+        
+        // still overdue on the next look, without rescanning its slot
+        assertEquals(1, tracker.getOverdue(1000, ctx.getCreateInstant() + 3000).size());
+        
+        tracker.untrack(ctx);
+        assertTrue(tracker.getOverdue(1000, ctx.getCreateInstant() + 4000).isEmpty());
+        assertTrue(tracker.getActive().isEmpty());
+    }
+    
+    @Test
+    public void testLateTrack() {
+        System.out.println("RequestTracker.lateTrack");
+        
+        RequestTracker tracker = new RequestTracker();
+        RequestContext ctx = newRequest();
+        
+        // the monitor passes the request's slot before it is tracked
+        assertTrue(tracker.getOverdue(1000, ctx.getCreateInstant() + 5000).isEmpty());
+        tracker.track(ctx);
+        
+        List<RequestContext> overdue = tracker.getOverdue(1000, ctx.getCreateInstant() + 6000);
+        assertEquals(1, overdue.size());
+        assertSame(ctx, overdue.get(0));
+        assertEquals(1, tracker.getActive().size());
+        
+        tracker.untrack(ctx);
+        assertTrue(tracker.getOverdue(1000, ctx.getCreateInstant() + 7000).isEmpty());
+        assertTrue(tracker.getActive().isEmpty());
+    }
+    
+    @Test
+    public void testLateUntrack() {
+        System.out.println("RequestTracker.lateUntrack");
+        
+        RequestTracker tracker = new RequestTracker();
+        RequestContext ctx = newRequest();
+        
+        assertTrue(tracker.getOverdue(1000, ctx.getCreateInstant() + 5000).isEmpty());
+        tracker.track(ctx);
+        tracker.untrack(ctx);
+        
+        assertTrue(tracker.getOverdue(1000, ctx.getCreateInstant() + 6000).isEmpty());
+        assertTrue(tracker.getActive().isEmpty());
+    }
+    
+    @Test
+    public void testConcurrentUntrack() throws Exception {
+        System.out.println("RequestTracker.concurrentUntrack");
+        
+        final RequestTracker tracker = new RequestTracker();
+        final List<RequestContext> requests = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            RequestContext ctx = newRequest();
+            tracker.track(ctx);
+            requests.add(ctx);
+        }
+        long start = requests.get(0).getCreateInstant();
+        
+        final CountDownLatch ready = new CountDownLatch(1);
+        Thread untracker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                ready.countDown();
+                for (RequestContext ctx : requests) {
+                    tracker.untrack(ctx);
+                }
+            }
+        });
+        untracker.start();
+        ready.await();
+        
+        // move requests to overdue while they are being untracked
+        long now = start + 2000;
+        while (untracker.isAlive()) {
+            tracker.getOverdue(1000, now);
+            now += 1000;
+        }
+        untracker.join();
+        
+        assertTrue(tracker.getOverdue(1000, now).isEmpty());
+        assertTrue(tracker.getActive().isEmpty());
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2015 Rhythm & Hues Studios.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rhythm.louie.server;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author cjohnson
+ */
+public class LatencyHistogramTest {
+    
+    public LatencyHistogramTest() {
+    }
+
+    @Test
+    public void testBuckets() {
+        System.out.println("LatencyHistogram.buckets");
+        
+        int last = -1;
+        for (long value = 0; value < 1000000; value++) {
+            int index = LatencyHistogram.indexFor(value);
+            assertTrue(index == last || index == last + 1);
+            assertTrue(value <= LatencyHistogram.highestValueAt(index));
+            if (index > 0) {
+                assertTrue(value > LatencyHistogram.highestValueAt(index - 1));
+            }
+            last = index;
+        }
+    }
+    
+    @Test
+    public void testPercentiles() {
+        System.out.println("LatencyHistogram.percentiles");
+        
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getValueAtPercentile(99));
+        
+        for (int i = 1; i <= 10000; i++) {
+            histogram.record(i);
+        }
+        assertEquals(10000, histogram.getCount());
+        assertEquals(10000, histogram.getMax());
+        assertEquals(5000.5, histogram.getMean(), 0.001);
+        
+        assertWithin(5000, histogram.getValueAtPercentile(50));
+        assertWithin(9900, histogram.getValueAtPercentile(99));
+        assertEquals(10000, histogram.getValueAtPercentile(100));
+        
+        histogram.record(1L << 40);
+        assertEquals(1L << 40, histogram.getValueAtPercentile(100));
+    }
+    
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(expected+" ~ "+actual, Math.abs(expected - actual) <= expected * 0.04);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2015 Rhythm & Hues Studios.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rhythm.louie.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author cjohnson
+ */
+public class TokenBucketTest {
+    
+    private static final long INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+    
+    public TokenBucketTest() {
+    }
+
+    @Test
+    public void testBurst() {
+        System.out.println("TokenBucket.burst");
+        
+        TokenBucket bucket = new TokenBucket(10, 5);
+        long now = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, bucket.tryAcquire(now));
+        }
+        assertEquals(INTERVAL, bucket.tryAcquire(now));
+        
+        // a refused acquire does not take a token
+        assertEquals(INTERVAL, bucket.tryAcquire(now));
+    }
+    
+    @Test
+    public void testRefill() {
+        System.out.println("TokenBucket.refill");
+        
+        TokenBucket bucket = new TokenBucket(10, 5);
+        long now = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, bucket.tryAcquire(now));
+        }
+        long wait = bucket.tryAcquire(now);
+        assertTrue(wait > 0);
+        
+        assertEquals(wait / 2, bucket.tryAcquire(now + wait / 2));
+        assertEquals(0, bucket.tryAcquire(now + wait));
+        assertTrue(bucket.tryAcquire(now + wait) > 0);
+        
+        // one token per interval after that
+        assertEquals(0, bucket.tryAcquire(now + wait + INTERVAL));
+        assertTrue(bucket.tryAcquire(now + wait + INTERVAL) > 0);
+    }
+    
+    @Test
+    public void testIdle() {
+        System.out.println("TokenBucket.idle");
+        
+        TokenBucket bucket = new TokenBucket(10, 5);
+        long later = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+        
+        // an idle bucket fills only up to the burst
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, bucket.tryAcquire(later));
+        }
+        assertTrue(bucket.tryAcquire(later) > 0);
+    }
+    
+    @Test
+    public void testConcurrent() throws Exception {
+        System.out.println("TokenBucket.concurrent");
+        
+        final TokenBucket bucket = new TokenBucket(1, 100);
+        final long now = System.nanoTime();
+        final AtomicInteger acquired = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < 50; i++) {
+                        if (bucket.tryAcquire(now) == 0) {
+                            acquired.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        
+        assertEquals(100, acquired.get());
+    }
+}
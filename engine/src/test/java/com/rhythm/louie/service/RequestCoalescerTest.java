@@ -0,0 +1,217 @@
+/*
+ * Copyright 2015 Rhythm & Hues Studios.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rhythm.louie.service;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto;
+import com.google.protobuf.Message;
+
+import com.rhythm.louie.exception.LouieDeadlineException;
+import com.rhythm.louie.request.RequestContext;
+import com.rhythm.louie.request.data.DataType;
+import com.rhythm.louie.request.data.Param;
+import com.rhythm.louie.request.data.Result;
+import com.rhythm.pb.RequestProtos.RequestHeaderPB;
+import com.rhythm.pb.RequestProtos.RequestPB;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author cjohnson
+ */
+public class RequestCoalescerTest {
+    
+    private static final List<Message> MESSAGES = Arrays.<Message>asList(
+            FieldDescriptorProto.newBuilder().setName("shared").build());
+    
+    public RequestCoalescerTest() {
+    }
+    
+    private static RequestContext newRequest(long timeout) {
+        return new RequestContext(RequestHeaderPB.getDefaultInstance(), 
+                RequestPB.newBuilder().setService("test").setMethod("get").setTimeout(timeout).build(), 
+                DataType.PB, null);
+    }
+    
+    /**
+     * An execution that waits to be released, then returns the shared messages 
+     * or throws the given exception
+     */
+    private static class Execution implements Callable<Result> {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        final Exception failure;
+        
+        Execution(Exception failure) {
+            this.failure = failure;
+        }
+        
+        @Override
+        public Result call() throws Exception {
+            calls.incrementAndGet();
+            started.countDown();
+            release.await();
+            if (failure != null) {
+                throw failure;
+            }
+            return Result.results(Param.EMPTY, MESSAGES);
+        }
+    }
+    
+    /**
+     * Runs the first execution on its own thread, returning once it has started
+     */
+    private static Thread executeFirst(final RequestCoalescer coalescer, final RequestKey key,
+            final Execution execution, final AtomicReference<Object> outcome) throws InterruptedException {
+        Thread first = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    outcome.set(coalescer.execute(key, newRequest(0), Param.EMPTY, execution));
+                } catch (Exception e) {
+                    outcome.set(e);
+                }
+            }
+        };
+        first.start();
+        execution.started.await();
+        return first;
+    }
+    
+    /**
+     * Releases the execution once the thread is waiting on it
+     */
+    private static void releaseWhenWaiting(final Thread waiter, final Execution execution) {
+        new Thread() {
+            @Override
+            public void run() {
+                while (waiter.getState() != Thread.State.WAITING 
+                        && waiter.getState() != Thread.State.TIMED_WAITING) {
+                    Thread.yield();
+                }
+                execution.release.countDown();
+            }
+        }.start();
+    }
+    
+    private static final Callable<Result> NOT_CALLED = new Callable<Result>() {
+        @Override
+        public Result call() throws Exception {
+            fail("An identical request was in flight, it should have been shared");
+            return null;
+        }
+    };
+    
+    @Test
+    public void testShared() throws Exception {
+        System.out.println("RequestCoalescer.shared");
+        
+        RequestCoalescer coalescer = new RequestCoalescer();
+        RequestKey key = RequestKey.forRequest(newRequest(0));
+        Execution execution = new Execution(null);
+        AtomicReference<Object> firstOutcome = new AtomicReference<>();
+        Thread first = executeFirst(coalescer, key, execution, firstOutcome);
+        assertEquals(1, coalescer.getInFlightCount());
+        
+        releaseWhenWaiting(Thread.currentThread(), execution);
+        Result shared = coalescer.execute(key, newRequest(0), Param.EMPTY, NOT_CALLED);
+        first.join();
+        
+        Result original = (Result) firstOutcome.get();
+        assertNotSame(original, shared);
+        assertEquals(original.getMessages(), shared.getMessages());
+        assertEquals(1, execution.calls.get());
+        assertEquals(0, coalescer.getInFlightCount());
+    }
+    
+    @Test
+    public void testException() throws Exception {
+        System.out.println("RequestCoalescer.exception");
+        
+        RequestCoalescer coalescer = new RequestCoalescer();
+        RequestKey key = RequestKey.forRequest(newRequest(0));
+        Exception failure = new IllegalStateException("failed");
+        Execution execution = new Execution(failure);
+        AtomicReference<Object> firstOutcome = new AtomicReference<>();
+        Thread first = executeFirst(coalescer, key, execution, firstOutcome);
+        
+        releaseWhenWaiting(Thread.currentThread(), execution);
+        try {
+            coalescer.execute(key, newRequest(0), Param.EMPTY, NOT_CALLED);
+            fail("Expected the exception of the shared execution");
+        } catch (IllegalStateException e) {
+            assertSame(failure, e);
+        }
+        first.join();
+        assertSame(failure, firstOutcome.get());
+        assertEquals(0, coalescer.getInFlightCount());
+    }
+    
+    @Test
+    public void testDeadline() throws Exception {
+        System.out.println("RequestCoalescer.deadline");
+        
+        RequestCoalescer coalescer = new RequestCoalescer();
+        RequestKey key = RequestKey.forRequest(newRequest(0));
+        Execution execution = new Execution(null);
+        AtomicReference<Object> firstOutcome = new AtomicReference<>();
+        Thread first = executeFirst(coalescer, key, execution, firstOutcome);
+        
+        try {
+            coalescer.execute(key, newRequest(100), Param.EMPTY, NOT_CALLED);
+            fail("Expected the waiter to give up at its deadline");
+        } catch (LouieDeadlineException e) {}
+        
+        // the execution itself is not abandoned
+        assertEquals(1, coalescer.getInFlightCount());
+        execution.release.countDown();
+        first.join();
+        assertTrue(firstOutcome.get() instanceof Result);
+        assertEquals(0, coalescer.getInFlightCount());
+    }
+    
+    @Test
+    public void testCleanup() throws Exception {
+        System.out.println("RequestCoalescer.cleanup");
+        
+        RequestCoalescer coalescer = new RequestCoalescer();
+        RequestKey key = RequestKey.forRequest(newRequest(0));
+        
+        Execution failed = new Execution(new IllegalStateException("failed"));
+        failed.release.countDown();
+        try {
+            coalescer.execute(key, newRequest(0), Param.EMPTY, failed);
+            fail("Expected the exception of the execution");
+        } catch (IllegalStateException e) {}
+        assertEquals(0, coalescer.getInFlightCount());
+        
+        // nothing is in flight, so the next request executes rather than sharing the failure
+        Execution next = new Execution(null);
+        next.release.countDown();
+        assertEquals(MESSAGES, coalescer.execute(key, newRequest(0), Param.EMPTY, next).getMessages());
+        assertEquals(1, next.calls.get());
+        assertEquals(0, coalescer.getInFlightCount());
+    }
+}
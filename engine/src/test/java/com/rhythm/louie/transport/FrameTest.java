@@ -0,0 +1,103 @@
+/*
+ * Copyright 2015 Rhythm & Hues Studios.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rhythm.louie.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.google.protobuf.CodedOutputStream;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author cjohnson
+ */
+public class FrameTest {
+    
+    public FrameTest() {
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        System.out.println("Frame.roundTrip");
+        
+        byte[] large = new byte[100000];
+        Arrays.fill(large, (byte) 7);
+        
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new Frame(1, "first".getBytes()).write(output);
+        new Frame(300, large).write(output);
+        new Frame(1, new byte[0]).write(output);
+        
+        ByteArrayInputStream input = new ByteArrayInputStream(output.toByteArray());
+        Frame frame = Frame.read(input);
+        assertEquals(1, frame.getId());
+        assertArrayEquals("first".getBytes(), frame.getData());
+        
+        frame = Frame.read(input);
+        assertEquals(300, frame.getId());
+        assertArrayEquals(large, frame.getData());
+        
+        frame = Frame.read(input);
+        assertEquals(1, frame.getId());
+        assertEquals(0, frame.getData().length);
+        
+        // a clean end of the stream between frames
+        assertNull(Frame.read(input));
+    }
+    
+    @Test
+    public void testTruncated() throws Exception {
+        System.out.println("Frame.truncated");
+        
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new Frame(5, "truncated".getBytes()).write(output);
+        byte[] bytes = output.toByteArray();
+        
+        try {
+            Frame.read(new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length - 1)));
+            fail("Expected a frame missing its last byte to fail");
+        } catch (EOFException e) {}
+        
+        try {
+            Frame.read(new ByteArrayInputStream(Arrays.copyOf(bytes, 1)));
+            fail("Expected a frame missing its length to fail");
+        } catch (EOFException e) {}
+    }
+    
+    @Test
+    public void testInvalidSize() throws Exception {
+        System.out.println("Frame.invalidSize");
+        
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        CodedOutputStream codedOutput = CodedOutputStream.newInstance(output);
+        codedOutput.writeRawVarint32(1);
+        codedOutput.writeRawVarint32(Frame.MAX_FRAME_SIZE + 1);
+        codedOutput.flush();
+        
+        try {
+            Frame.read(new ByteArrayInputStream(output.toByteArray()));
+            fail("Expected a frame over the max size to be refused");
+        } catch (EOFException e) {
+            fail("Expected the size to be refused before reading the data");
+        } catch (IOException e) {}
+    }
+}
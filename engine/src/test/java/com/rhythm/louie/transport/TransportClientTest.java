@@ -0,0 +1,207 @@
+/*
+ * Copyright 2015 Rhythm & Hues Studios.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rhythm.louie.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author cjohnson
+ */
+public class TransportClientTest {
+    
+    public TransportClientTest() {
+    }
+    
+    /**
+     * A TransportServer that answers the requests it reads with a script
+     */
+    private static abstract class ScriptedServer extends Thread {
+        private final ServerSocket server;
+        
+        ScriptedServer() throws IOException {
+            server = new ServerSocket(0);
+            setDaemon(true);
+            start();
+        }
+        
+        int getPort() {
+            return server.getLocalPort();
+        }
+        
+        @Override
+        public void run() {
+            try (Socket socket = server.accept()) {
+                respond(socket.getInputStream(), socket.getOutputStream());
+            } catch (Exception e) {
+            } finally {
+                try {
+                    server.close();
+                } catch (IOException e) {}
+            }
+        }
+        
+        abstract void respond(InputStream input, OutputStream output) throws Exception;
+    }
+    
+    private static String readAll(InputStream input) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4];
+        int count;
+        while ((count = input.read(buffer)) != -1) {
+            bytes.write(buffer, 0, count);
+        }
+        return bytes.toString("UTF-8");
+    }
+    
+    @Test
+    public void testInterleaved() throws Exception {
+        System.out.println("TransportClient.interleaved");
+        
+        ScriptedServer server = new ScriptedServer() {
+            @Override
+            void respond(InputStream input, OutputStream output) throws Exception {
+                Frame a = Frame.read(input);
+                Frame b = Frame.read(input);
+                new Frame(b.getId(), "b1".getBytes()).write(output);
+                new Frame(a.getId(), "a1".getBytes()).write(output);
+                new Frame(b.getId(), "b2".getBytes()).write(output);
+                new Frame(b.getId(), new byte[0]).write(output);
+                new Frame(a.getId(), "a2".getBytes()).write(output);
+                new Frame(a.getId(), new byte[0]).write(output);
+                Thread.sleep(1000);
+            }
+        };
+        TransportClient client = TransportClient.getClient("localhost", server.getPort());
+        ListenableFuture<InputStream> a = client.requestAsync("a".getBytes(), 5);
+        ListenableFuture<InputStream> b = client.requestAsync("b".getBytes(), 5);
+        
+        assertEquals("a1a2", readAll(a.get(5, TimeUnit.SECONDS)));
+        assertEquals("b1b2", readAll(b.get(5, TimeUnit.SECONDS)));
+    }
+    
+    @Test
+    public void testStreamed() throws Exception {
+        System.out.println("TransportClient.streamed");
+        
+        final CountDownLatch firstRead = new CountDownLatch(1);
+        ScriptedServer server = new ScriptedServer() {
+            @Override
+            void respond(InputStream input, OutputStream output) throws Exception {
+                Frame request = Frame.read(input);
+                new Frame(request.getId(), "first".getBytes()).write(output);
+                // the rest is not sent until the caller has read the first frame
+                assertTrue(firstRead.await(5, TimeUnit.SECONDS));
+                new Frame(request.getId(), "second".getBytes()).write(output);
+                new Frame(request.getId(), new byte[0]).write(output);
+                Thread.sleep(1000);
+            }
+        };
+        InputStream response = TransportClient.getClient("localhost", server.getPort())
+                .request("request".getBytes(), 5);
+        
+        byte[] first = new byte[5];
+        assertEquals(5, response.read(first));
+        assertEquals("first", new String(first));
+        firstRead.countDown();
+        assertEquals("second", readAll(response));
+        assertEquals(-1, response.read());
+    }
+    
+    @Test
+    public void testFrameTimeout() throws Exception {
+        System.out.println("TransportClient.frameTimeout");
+        
+        ScriptedServer server = new ScriptedServer() {
+            @Override
+            void respond(InputStream input, OutputStream output) throws Exception {
+                Frame request = Frame.read(input);
+                // each frame arrives within the timeout, though all of them do not
+                for (int i = 0; i < 4; i++) {
+                    new Frame(request.getId(), "x".getBytes()).write(output);
+                    Thread.sleep(600);
+                }
+                new Frame(request.getId(), new byte[0]).write(output);
+                Frame stalled = Frame.read(input);
+                new Frame(stalled.getId(), "y".getBytes()).write(output);
+                Thread.sleep(3000);
+            }
+        };
+        TransportClient client = TransportClient.getClient("localhost", server.getPort());
+        assertEquals("xxxx", readAll(client.request("slow".getBytes(), 1)));
+        
+        InputStream stalled = client.request("stalled".getBytes(), 1);
+        assertEquals('y', stalled.read());
+        try {
+            stalled.read();
+            fail("Expected the stalled response to time out");
+        } catch (SocketTimeoutException e) {}
+    }
+    
+    @Test
+    public void testFirstFrameTimeout() throws Exception {
+        System.out.println("TransportClient.firstFrameTimeout");
+        
+        ScriptedServer server = new ScriptedServer() {
+            @Override
+            void respond(InputStream input, OutputStream output) throws Exception {
+                Frame.read(input);
+                Thread.sleep(3000);
+            }
+        };
+        try {
+            TransportClient.getClient("localhost", server.getPort()).request("request".getBytes(), 1);
+            fail("Expected the request to time out");
+        } catch (SocketTimeoutException e) {}
+    }
+    
+    @Test
+    public void testConnectionLost() throws Exception {
+        System.out.println("TransportClient.connectionLost");
+        
+        ScriptedServer server = new ScriptedServer() {
+            @Override
+            void respond(InputStream input, OutputStream output) throws Exception {
+                Frame request = Frame.read(input);
+                new Frame(request.getId(), "partial".getBytes()).write(output);
+            }
+        };
+        InputStream response = TransportClient.getClient("localhost", server.getPort())
+                .request("request".getBytes(), 5);
+        
+        byte[] partial = new byte[7];
+        assertEquals(7, response.read(partial));
+        try {
+            response.read();
+            fail("Expected the lost connection to fail the response");
+        } catch (SocketTimeoutException e) {
+            fail("Expected the lost connection to fail the response before the timeout");
+        } catch (IOException e) {}
+    }
+}
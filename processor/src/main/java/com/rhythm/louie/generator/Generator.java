@@ -44,6 +44,7 @@ public class Generator {
         
         processTemplate(info,"Client.vm",info.getBaseName()+"Client");
         processTemplate(info,"ServiceClient.vm",info.getBaseName()+"ServiceClient");
+        processTemplate(info,"AsyncServiceClient.vm",info.getBaseName()+"AsyncServiceClient");
         processTemplate(info,"ServiceHandler.vm",info.getBaseName()+"ServiceHandler");
         processTemplate(info,"Delegate.vm",info.getBaseName()+"DelegateAdaptor");
         processTemplate(info,"RemoteService.vm",info.getBaseName()+"RemoteService");
@@ -53,6 +54,9 @@ public class Generator {
             processTemplate(info,"ServiceFactory.vm",info.getBaseName()+"ServiceFactory");
         }
         processTemplate(info,"ClientFactory.vm",info.getBaseName()+"ClientFactory");
+        if (info.createCachingClient()) {
+            processTemplate(info,"CachingClient.vm","Caching"+info.getBaseName()+"Client");
+        }
     }
     
     public static void processTemplate(ServiceInfo info, String template, String className) {
@@ -46,6 +46,7 @@ public class MethodInfo {
     private final Grouping grouping;
     private final Admin admin;
     private final Restricted restricted;
+    private final boolean coalesced;
     
     private TypeMirror baseReturnType;
     
@@ -66,6 +67,8 @@ public class MethodInfo {
         grouping = method.getAnnotation(Grouping.class);
         admin = method.getAnnotation(Admin.class);
         restricted = method.getAnnotation(Restricted.class);
+        coalesced = method.getAnnotation(Coalesced.class) != null
+                || method.getEnclosingElement().getAnnotation(Coalesced.class) != null;
                 
         Elements elems = processingEnv.getElementUtils();
         javaDoc = elems.getDocComment(method);
@@ -116,6 +119,10 @@ public class MethodInfo {
         return restricted!=null;
     }
     
+    public boolean isCoalesced() {
+        return coalesced && !isUpdating() && !isStreaming();
+    }
+    
     public boolean isClientAccess() {
         return !isInternal() && !isDisabled();
     }
@@ -283,6 +290,41 @@ public class MethodInfo {
         return sb.toString();
     }
     
+    /**
+     * @return the descriptors of the pb params, as used to build the PBParamType
+     */
+    public String getPbDescriptorString() {
+        if (params.isEmpty()) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder();
+        for (ParamInfo param : params) {
+            if (sb.length()>0) {
+                sb.append(", ");
+            }
+            sb.append(param.getPbType()).append(".getDescriptor()");
+        }
+        return sb.toString();
+    }
+    
+    /**
+     * @param paramVariable the name of the Param variable in the generated invoker
+     * @return the arguments parsed by the invoker's parsers, p0, p1, ...
+     */
+    public String getInvokerArgString(String paramVariable) {
+        if (params.isEmpty()) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < params.size(); i++) {
+            if (sb.length()>0) {
+                sb.append(", ");
+            }
+            sb.append(paramVariable).append(".parseData(p").append(i).append(", ").append(i).append(")");
+        }
+        return sb.toString();
+    }
+    
     public String getParamNameString() {
         if (params.isEmpty()) {
             return "";
@@ -332,6 +374,9 @@ public class MethodInfo {
         if (isRestricted()) {
             appendSimpleAnnotation(sb, indent, Restricted.class, true);
         }
+        if (isCoalesced()) {
+            appendSimpleAnnotation(sb, indent, Coalesced.class, true);
+        }
         appendSimpleAnnotation(sb, indent, ServiceCall.class, false);
         sb.append("(javadoc=");
         int i=0;
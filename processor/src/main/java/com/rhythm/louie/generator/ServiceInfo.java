@@ -21,6 +21,7 @@ import java.util.List;
 import javax.annotation.processing.ProcessingEnvironment;
 import javax.lang.model.element.TypeElement;
 
+import com.rhythm.louie.CachingClient;
 import com.rhythm.louie.NoFactory;
 import com.rhythm.louie.Service;
 
@@ -41,6 +42,7 @@ public class ServiceInfo {
     private final TypeElement cl;
     private final Service service;
     private final boolean factory;
+    private final boolean cachingClient;
     
     private final ProcessingEnvironment processingEnv;
     
@@ -57,6 +59,7 @@ public class ServiceInfo {
         
         service = cl.getAnnotation(Service.class);
         factory = cl.getAnnotation(NoFactory.class)==null;
+        cachingClient = cl.getAnnotation(CachingClient.class)!=null;
         
         baseName = cl.getQualifiedName().toString().replaceAll(".*\\.(.*)Service$", "$1");
         serviceName = baseName.toLowerCase();
@@ -113,4 +116,8 @@ public class ServiceInfo {
     public boolean createFactory() {
         return factory;
     }
+    
+    public boolean createCachingClient() {
+        return cachingClient;
+    }
 }
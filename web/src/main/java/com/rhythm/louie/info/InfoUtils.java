@@ -139,4 +139,12 @@ public class InfoUtils {
         }
         return Joiner.on(" / ").join(propLabels);
     }
+    
+    /**
+     * @param micros a time in microseconds
+     * @return the time in milliseconds, to the microsecond
+     */
+    public static String formatMicros(long micros) {
+        return String.format("%.3f", micros / 1000.0);
+    }
 }
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2015 Rhythm & Hues Studios.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rhythm.louie.info;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rhythm.louie.request.RequestPhase;
+import com.rhythm.louie.server.RequestStats;
+
+/**
+ * Shows the live latency percentiles of every method called on this server
+ * 
+ * @author cjohnson
+ */
+@WebServlet(urlPatterns = {"/metrics"})
+public class MetricsServlet extends HttpServlet {
+      
+    private final Logger logger = LoggerFactory.getLogger(MetricsServlet.class);
+    private final Pattern HOST = Pattern.compile("(\\w+):.*");
+    
+    /** 
+     * Processes requests for both HTTP <code>GET</code> and <code>POST</code> methods.
+     * @param request servlet request
+     * @param response servlet response
+     * @throws ServletException if a servlet-specific error occurs
+     * @throws IOException if an I/O error occurs
+     */
+    protected void processRequest(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        if (request.getParameter("reset") != null) {
+            RequestStats.resetAll();
+            logger.info("Request metrics reset");
+            try (PrintWriter out = response.getWriter()) {
+                out.println("Request metrics reset");
+            }
+            return;
+        }
+        
+        Map<String,Object> properties = new HashMap<>();
+        
+        String serverName = request.getHeader("Host");
+        Matcher m = HOST.matcher(serverName);
+        if (m.matches()) {
+            serverName = m.group(1);
+        }
+        properties.put("serverName", serverName);
+        properties.put("stats", RequestStats.getAll());
+        properties.put("phases", RequestPhase.values());
+        
+        InfoUtils.writeTemplateResponse(request, response, "metrics.vm", properties);
+    }
+    
+    // <editor-fold defaultstate="collapsed" desc="HttpServlet methods. Click on the + sign on the left to edit the code.">
+    /**
+     * Handles the HTTP <code>GET</code> method.
+     *
+     * @param request servlet request
+     * @param response servlet response
+     * @throws ServletException if a servlet-specific error occurs
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        processRequest(request, response);
+    }
+
+    /**
+     * Handles the HTTP <code>POST</code> method.
+     *
+     * @param request servlet request
+     * @param response servlet response
+     * @throws ServletException if a servlet-specific error occurs
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        processRequest(request, response);
+    }
+
+    /**
+     * Returns a short description of the servlet.
+     *
+     * @return a String containing servlet description
+     */
+    @Override
+    public String getServletInfo() {
+        return "Request Metrics";
+    }// </editor-fold>
+}
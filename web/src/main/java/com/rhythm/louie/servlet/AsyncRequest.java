@@ -0,0 +1,535 @@
+/*
+ * Copyright 2015 Rhythm & Hues Studios.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rhythm.louie.servlet;
+
+import java.io.*;
+import java.util.Enumeration;
+import java.util.Map;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.slf4j.LoggerFactory;
+
+import com.rhythm.louie.server.RequestExecutor;
+import com.rhythm.louie.server.RequestExecutorProperties;
+
+/**
+ * Runs a servlet request on the async request pool.  If the async timeout 
+ * fires first, the request is answered with a 503 and completed from the 
+ * timeout, and anything the worker reads or writes afterwards fails rather 
+ * than reaching a request or response that the container may already be 
+ * reusing.  If the pool is full the request is answered with a 503 straight 
+ * away.
+ *
+ * @author cjohnson
+ */
+class AsyncRequest implements Runnable, AsyncListener {
+    
+    interface Handler {
+        void processRequest(HttpServletRequest request, HttpServletResponse response) 
+                throws ServletException, IOException;
+    }
+    
+    private final AsyncContext async;
+    private final GuardedRequest request;
+    private final GuardedResponse response;
+    private final Handler handler;
+    
+    // guarded by this, set once the request has been completed by either side
+    private boolean finished = false;
+    
+    private AsyncRequest(AsyncContext async, HttpServletRequest request, 
+            HttpServletResponse response, Handler handler) {
+        this.async = async;
+        this.request = new GuardedRequest(request);
+        this.response = new GuardedResponse(response);
+        this.handler = handler;
+    }
+    
+    /**
+     * Puts the request in async mode and dispatches it to the request pool
+     */
+    static void dispatch(HttpServletRequest request, HttpServletResponse response, Handler handler) {
+        AsyncContext async = request.startAsync(request, response);
+        async.setTimeout(RequestExecutorProperties.getAsyncTimeout());
+        AsyncRequest asyncRequest = new AsyncRequest(async, request, response, handler);
+        async.addListener(asyncRequest);
+        if (!RequestExecutor.getInstance().tryDispatch(asyncRequest)) {
+            LoggerFactory.getLogger(AsyncRequest.class).warn("Async requests are saturated, rejecting request");
+            asyncRequest.reject();
+        }
+    }
+    
+    private void reject() {
+        synchronized (this) {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            try {
+                HttpServletResponse rejected = (HttpServletResponse) response.getResponse();
+                rejected.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Server Busy");
+            } catch (IOException ex) {
+                LoggerFactory.getLogger(AsyncRequest.class).warn("Unable to reject async request: {}", ex.toString());
+            } finally {
+                async.complete();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            if (!isFinished()) {
+                handler.processRequest(request, response);
+            }
+        } catch (Exception ex) {
+            if (isFinished()) {
+                LoggerFactory.getLogger(AsyncRequest.class).warn("Async request timed out while processing: {}", ex.toString());
+            } else {
+                LoggerFactory.getLogger(AsyncRequest.class).error("Error processing async request", ex);
+            }
+        } finally {
+            synchronized (this) {
+                if (!finished) {
+                    response.flushWriter();
+                    finished = true;
+                    async.complete();
+                }
+            }
+        }
+    }
+    
+    private synchronized boolean isFinished() {
+        return finished;
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) throws IOException {
+        synchronized (this) {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            try {
+                HttpServletResponse timedOut = (HttpServletResponse) response.getResponse();
+                if (!timedOut.isCommitted()) {
+                    timedOut.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Request timed out");
+                }
+            } finally {
+                async.complete();
+            }
+        }
+    }
+
+    @Override
+    public void onError(AsyncEvent event) throws IOException {
+        synchronized (this) {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            async.complete();
+        }
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) throws IOException {}
+
+    @Override
+    public void onStartAsync(AsyncEvent event) throws IOException {}
+    
+    private void checkNotFinished() throws IOException {
+        if (finished) {
+            throw new IOException("Async request has already timed out");
+        }
+    }
+    
+    private void checkActive() {
+        if (finished) {
+            throw new IllegalStateException("Async request has already timed out");
+        }
+    }
+    
+    /**
+     * Passes reads through to the request only until the request is finished
+     */
+    private class GuardedRequest extends HttpServletRequestWrapper {
+        private ServletInputStream input;
+        private BufferedReader reader;
+        
+        public GuardedRequest(HttpServletRequest request) {
+            super(request);
+        }
+
+        @Override
+        public ServletInputStream getInputStream() throws IOException {
+            synchronized (AsyncRequest.this) {
+                checkNotFinished();
+                if (input == null) {
+                    input = new GuardedInputStream(super.getInputStream());
+                }
+                return input;
+            }
+        }
+
+        @Override
+        public BufferedReader getReader() throws IOException {
+            synchronized (AsyncRequest.this) {
+                checkNotFinished();
+                if (reader == null) {
+                    reader = new BufferedReader(new GuardedReader(super.getReader()));
+                }
+                return reader;
+            }
+        }
+
+        @Override
+        public String getHeader(String name) {
+            synchronized (AsyncRequest.this) {
+                checkActive();
+                return super.getHeader(name);
+            }
+        }
+
+        @Override
+        public Enumeration<String> getHeaders(String name) {
+            synchronized (AsyncRequest.this) {
+                checkActive();
+                return super.getHeaders(name);
+            }
+        }
+
+        @Override
+        public String getContentType() {
+            synchronized (AsyncRequest.this) {
+                checkActive();
+                return super.getContentType();
+            }
+        }
+
+        @Override
+        public String getParameter(String name) {
+            synchronized (AsyncRequest.this) {
+                checkActive();
+                return super.getParameter(name);
+            }
+        }
+
+        @Override
+        public String[] getParameterValues(String name) {
+            synchronized (AsyncRequest.this) {
+                checkActive();
+                return super.getParameterValues(name);
+            }
+        }
+
+        @Override
+        public Map<String, String[]> getParameterMap() {
+            synchronized (AsyncRequest.this) {
+                checkActive();
+                return super.getParameterMap();
+            }
+        }
+
+        @Override
+        public String getRemoteAddr() {
+            synchronized (AsyncRequest.this) {
+                checkActive();
+                return super.getRemoteAddr();
+            }
+        }
+
+        @Override
+        public String getRemoteUser() {
+            synchronized (AsyncRequest.this) {
+                checkActive();
+                return super.getRemoteUser();
+            }
+        }
+
+        @Override
+        public int getLocalPort() {
+            synchronized (AsyncRequest.this) {
+                checkActive();
+                return super.getLocalPort();
+            }
+        }
+
+        @Override
+        public String getContextPath() {
+            synchronized (AsyncRequest.this) {
+                checkActive();
+                return super.getContextPath();
+            }
+        }
+    }
+    
+    private class GuardedInputStream extends ServletInputStream {
+        private final ServletInputStream input;
+
+        public GuardedInputStream(ServletInputStream input) {
+            this.input = input;
+        }
+
+        @Override
+        public int read() throws IOException {
+            synchronized (AsyncRequest.this) {
+                checkNotFinished();
+                return input.read();
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            synchronized (AsyncRequest.this) {
+                checkNotFinished();
+                return input.read(b, off, len);
+            }
+        }
+
+        @Override
+        public int available() throws IOException {
+            synchronized (AsyncRequest.this) {
+                checkNotFinished();
+                return input.available();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            synchronized (AsyncRequest.this) {
+                checkNotFinished();
+                input.close();
+            }
+        }
+    }
+    
+    private class GuardedReader extends Reader {
+        private final Reader reader;
+
+        public GuardedReader(Reader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            synchronized (AsyncRequest.this) {
+                checkNotFinished();
+                return reader.read(cbuf, off, len);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            synchronized (AsyncRequest.this) {
+                checkNotFinished();
+                reader.close();
+            }
+        }
+    }
+    
+    /**
+     * Passes writes through to the response only until the request is finished,
+     * after which changes to the status and headers are ignored
+     */
+    private class GuardedResponse extends HttpServletResponseWrapper {
+        private ServletOutputStream output;
+        private PrintWriter writer;
+        
+        public GuardedResponse(HttpServletResponse response) {
+            super(response);
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            synchronized (AsyncRequest.this) {
+                checkNotFinished();
+                if (output == null) {
+                    output = new GuardedOutputStream(super.getOutputStream());
+                }
+                return output;
+            }
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            synchronized (AsyncRequest.this) {
+                checkNotFinished();
+                if (writer == null) {
+                    // Encode through the guarded stream, so that writes are guarded too
+                    writer = new PrintWriter(new OutputStreamWriter(
+                            new GuardedOutputStream(super.getOutputStream()), getCharacterEncoding()));
+                }
+                return writer;
+            }
+        }
+
+        /**
+         * The writer buffers on top of the response, so is flushed before completing
+         */
+        void flushWriter() {
+            if (writer != null) {
+                writer.flush();
+            }
+        }
+
+        @Override
+        public void sendError(int sc, String msg) throws IOException {
+            synchronized (AsyncRequest.this) {
+                checkNotFinished();
+                super.sendError(sc, msg);
+            }
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException {
+            synchronized (AsyncRequest.this) {
+                checkNotFinished();
+                super.sendError(sc);
+            }
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            synchronized (AsyncRequest.this) {
+                checkNotFinished();
+                super.flushBuffer();
+            }
+        }
+
+        @Override
+        public void setStatus(int sc) {
+            synchronized (AsyncRequest.this) {
+                if (!finished) {
+                    super.setStatus(sc);
+                }
+            }
+        }
+
+        @Override
+        public void setContentType(String type) {
+            synchronized (AsyncRequest.this) {
+                if (!finished) {
+                    super.setContentType(type);
+                }
+            }
+        }
+
+        @Override
+        public void setContentLength(int len) {
+            synchronized (AsyncRequest.this) {
+                if (!finished) {
+                    super.setContentLength(len);
+                }
+            }
+        }
+
+        @Override
+        public void setCharacterEncoding(String charset) {
+            synchronized (AsyncRequest.this) {
+                if (!finished) {
+                    super.setCharacterEncoding(charset);
+                }
+            }
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            synchronized (AsyncRequest.this) {
+                if (!finished) {
+                    super.setHeader(name, value);
+                }
+            }
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            synchronized (AsyncRequest.this) {
+                if (!finished) {
+                    super.addHeader(name, value);
+                }
+            }
+        }
+
+        @Override
+        public void setIntHeader(String name, int value) {
+            synchronized (AsyncRequest.this) {
+                if (!finished) {
+                    super.setIntHeader(name, value);
+                }
+            }
+        }
+
+        @Override
+        public void addIntHeader(String name, int value) {
+            synchronized (AsyncRequest.this) {
+                if (!finished) {
+                    super.addIntHeader(name, value);
+                }
+            }
+        }
+    }
+    
+    private class GuardedOutputStream extends ServletOutputStream {
+        private final ServletOutputStream output;
+
+        public GuardedOutputStream(ServletOutputStream output) {
+            this.output = output;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            synchronized (AsyncRequest.this) {
+                checkNotFinished();
+                output.write(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            synchronized (AsyncRequest.this) {
+                checkNotFinished();
+                output.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (AsyncRequest.this) {
+                checkNotFinished();
+                output.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            synchronized (AsyncRequest.this) {
+                checkNotFinished();
+                output.close();
+            }
+        }
+    }
+}
@@ -17,6 +17,7 @@ package com.rhythm.louie.servlet;
 
 import com.rhythm.louie.request.JsonProcess;
 import com.rhythm.louie.request.JsonProcessor;
+import com.rhythm.louie.server.RequestExecutorProperties;
 
 import java.io.IOException;
 
@@ -30,7 +31,7 @@ import javax.servlet.http.HttpServletResponse;
  *
  * @author cjohnson
  */
-@WebServlet(name = "JsonServlet", urlPatterns = {"/json"})
+@WebServlet(name = "JsonServlet", urlPatterns = {"/json"}, asyncSupported = true)
 public class JsonServlet extends HttpServlet {
     private static final long serialVersionUID = 1L;
     
@@ -43,9 +44,20 @@ public class JsonServlet extends HttpServlet {
      * @throws ServletException if a servlet-specific error occurs
      * @throws IOException if an I/O error occurs
      */
-    protected void processRequest(HttpServletRequest request,
-            HttpServletResponse response) throws ServletException, IOException {
-        loadProcessor().processRequest(request, response);
+    protected void processRequest(final HttpServletRequest request,
+            final HttpServletResponse response) throws ServletException, IOException {
+        if (!RequestExecutorProperties.isAsync() || !request.isAsyncSupported()) {
+            loadProcessor().processRequest(request, response);
+            return;
+        }
+        
+        AsyncRequest.dispatch(request, response, new AsyncRequest.Handler() {
+            @Override
+            public void processRequest(HttpServletRequest request, HttpServletResponse response) 
+                    throws ServletException, IOException {
+                loadProcessor().processRequest(request, response);
+            }
+        });
     }
 
     synchronized private JsonProcess loadProcessor() {
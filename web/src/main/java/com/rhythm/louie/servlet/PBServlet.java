@@ -24,12 +24,13 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import com.rhythm.louie.request.HttpProcessor;
+import com.rhythm.louie.server.RequestExecutorProperties;
 
 /**
  *
  * @author cjohnson
  */
-@WebServlet(name = "PBServlet", urlPatterns = {"/pb"})
+@WebServlet(name = "PBServlet", urlPatterns = {"/pb"}, asyncSupported = true)
 public class PBServlet extends HttpServlet {
     private static final long serialVersionUID = 1L;
     
@@ -42,9 +43,20 @@ public class PBServlet extends HttpServlet {
      * @throws ServletException if a servlet-specific error occurs
      * @throws IOException if an I/O error occurs
      */
-    protected void processRequest(HttpServletRequest request,
-            HttpServletResponse response) throws ServletException, IOException {
-        loadProcessor().processRequest(request, response);
+    protected void processRequest(final HttpServletRequest request,
+            final HttpServletResponse response) throws ServletException, IOException {
+        if (!RequestExecutorProperties.isAsync() || !request.isAsyncSupported()) {
+            loadProcessor().processRequest(request, response);
+            return;
+        }
+        
+        AsyncRequest.dispatch(request, response, new AsyncRequest.Handler() {
+            @Override
+            public void processRequest(HttpServletRequest request, HttpServletResponse response) 
+                    throws ServletException, IOException {
+                loadProcessor().processRequest(request, response);
+            }
+        });
     }
 
     synchronized private HttpProcessor loadProcessor() {